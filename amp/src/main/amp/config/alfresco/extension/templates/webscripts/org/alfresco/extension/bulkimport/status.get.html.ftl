@@ -141,6 +141,14 @@
               <td>Batch Weight:</td>
               <td>[#if importStatus.neverRun()]n/a[#else]${importStatus.batchWeight}[/#if]</td>
             </tr>
+            <tr>
+              <td>Last Batch Duration:</td>
+              <td>${(importStatus.lastBatchDuration!"n/a")?html}</td>
+            </tr>
+            <tr>
+              <td>Last Batch Weight Adjustment:</td>
+              <td>${(importStatus.lastBatchWeightAdjustment!"n/a")?html}</td>
+            </tr>
             <tr>
               <td>Queued Batches:</td>
               <td><span id="detailsQueueSize">[#if importStatus.neverRun()]0[#else]${importStatus.queueSize}[/#if]</span>
@@ -235,6 +243,36 @@
         </table>
       </div>
 
+      <h3>Thread Pool Size History</h3>
+      <div>
+        <table id="threadPoolSizeTable" border="1" cellspacing="0" cellpadding="1" width="80%">
+          <thead>
+            <tr>
+              <th>Timestamp</th>
+              <th>Threads</th>
+              <th>Items / sec</th>
+              <th>Reason</th>
+            </tr>
+          </thead>
+          <tbody>
+[#if importStatus.threadPoolSizeHistory?size > 0]
+  [#list importStatus.threadPoolSizeHistory as change]
+            <tr>
+              <td>${change.timeStampStr}</td>
+              <td>${change.threadPoolSize}</td>
+              <td>${change.itemsPerSecond?string("0.000")}</td>
+              <td>${change.reason?html}</td>
+            </tr>
+  [/#list]
+[#else]
+            <tr>
+              <td colspan="4">n/a (the thread pool size hasn't been tuned)</td>
+            </tr>
+[/#if]
+          </tbody>
+        </table>
+      </div>
+
       <h3>Error Details (<span id="errorCounter">${importStatus.errorInfo?size}</span> errors)</h3>
       <div>
 [#-- ERROR INFORMATION --]
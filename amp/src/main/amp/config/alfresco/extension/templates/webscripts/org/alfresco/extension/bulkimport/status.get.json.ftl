@@ -61,6 +61,15 @@
   "lastException"                  : "${importStatus.lastExceptionAsString?js_string?replace("\\'", "'")?replace("\\>", ">")}",
   [/#if]
   "batchWeight"                    : ${importStatus.batchWeight?c},
+  [#if importStatus.lastBatchDurationInNs??]
+  "lastBatchDurationInNs"          : ${importStatus.lastBatchDurationInNs?c},
+    [#if importStatus.lastBatchDuration??]
+  "lastBatchDuration"              : "${importStatus.lastBatchDuration?js_string?replace("\\'", "'")?replace("\\>", ">")}",
+    [/#if]
+  [/#if]
+  [#if importStatus.lastBatchWeightAdjustment??]
+  "lastBatchWeightAdjustment"      : "${importStatus.lastBatchWeightAdjustment?js_string?replace("\\'", "'")?replace("\\>", ">")}",
+  [/#if]
   "queuedBatches"                  : ${importStatus.queueSize?c},
   "maxQueuedBatches"               : ${importStatus.queueCapacity?c},
   "numberOfActiveThreads"          : ${importStatus.numberOfActiveThreads?c},
@@ -95,6 +104,18 @@
     [/#list]
   [/#if]
   },
+  "threadPoolSizeHistory" : [
+  [#if importStatus.threadPoolSizeHistory??]
+    [#list importStatus.threadPoolSizeHistory as change]
+    {
+      "TimeStamp"        : "${change.timeStampStr?js_string?replace("\\'", "'")?replace("\\>", ">")}",
+      "ThreadPoolSize"   : ${change.threadPoolSize?c},
+      "ItemsPerSecond"   : ${change.itemsPerSecond?c},
+      "Reason"           : "${change.reason?js_string?replace("\\'", "'")?replace("\\>", ">")}"
+    }[#if change_has_next],[/#if]
+    [/#list]
+  [/#if]
+  ],
   "errorInfo" : [
   [#if importStatus.errorInfo??]
     [#list importStatus.errorInfo as error]
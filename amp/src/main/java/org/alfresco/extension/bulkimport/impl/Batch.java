@@ -39,9 +39,20 @@ public final class Batch<T extends BulkImportItemVersion>
 {
     private final int                                         number;
     private final List<BulkImportItem<T>> contents;
+    private final int                                         weight;
 
     public Batch(final int                                         number,
                  final List<BulkImportItem<T>> contents)
+    {
+        this(number, contents, contents == null ? 0 : contents.size());
+    }
+
+    /**
+     * @param weight The (estimated) weight of the batch, as calculated by the <code>Scanner</code>.
+     */
+    public Batch(final int                                         number,
+                 final List<BulkImportItem<T>> contents,
+                 final int                                         weight)
     {
         if (number <= 0)
         {
@@ -55,6 +66,7 @@ public final class Batch<T extends BulkImportItemVersion>
         
         this.number   = number;
         this.contents = contents;
+        this.weight   = weight;
     }
     
 
@@ -77,6 +89,15 @@ public final class Batch<T extends BulkImportItemVersion>
     }
     
 
+    /**
+     * @return The weight of this batch.
+     */
+    public int getWeight()
+    {
+        return(weight);
+    }
+    
+
     /**
      * @return The contents of this batch.
      */
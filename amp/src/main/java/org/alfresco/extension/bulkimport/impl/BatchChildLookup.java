@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportTools;
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
+
+import static org.alfresco.extension.bulkimport.util.Utils.*;
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class looks up the existing children of the parents of the items in a
+ * batch, with one query per parent (rather than one per item).  The first time
+ * a given parent is asked about, all of the names in the batch that belong
+ * under it are looked up at once, and the results are remembered for the
+ * remainder of the batch.
+ *
+ * Instances are only valid for a single attempt at importing a single batch
+ * (i.e. within a single transaction), and are not thread safe.
+ */
+final class BatchChildLookup
+{
+    private final static Log log = LogFactory.getLog(BatchChildLookup.class);
+
+    private final static int MAX_NAMES_PER_QUERY = 500;  // Keeps the size of the underlying "IN" clause reasonable
+
+    private final NodeService nodeService;
+
+    // Names of the items in the batch, keyed by (parent path, parent association)
+    private final Map<Pair<String, QName>, Set<String>> namesInBatch = new HashMap<>();
+
+    // What we know about the children of each (parent, parent association)
+    private final Map<Pair<NodeRef, QName>, KnownChildren> children = new HashMap<>();
+
+    // Nodes created by this batch - they have no children other than those this batch creates
+    private final Set<NodeRef> createdNodes = new HashSet<>();
+
+
+    BatchChildLookup(final ServiceRegistry serviceRegistry, final DictionarySymbolTable symbolTable, final Batch<?> batch)
+    {
+        this.nodeService = serviceRegistry.getNodeService();
+
+        for (final BulkImportItem<?> item : batch)
+        {
+            final String parentAssoc      = item.getParentAssoc();
+            final QName  parentAssocQName = parentAssoc == null ? ContentModel.ASSOC_CONTAINS : symbolTable.getQName(parentAssoc);
+            final Pair<String, QName> key = new Pair<>(normalise(BulkImportTools.getRelativeTargetPath(item)), parentAssocQName);
+            Set<String> names = namesInBatch.get(key);
+
+            if (names == null)
+            {
+                names = new LinkedHashSet<>();
+                namesInBatch.put(key, names);
+            }
+
+            names.add(item.getTargetName());
+        }
+    }
+
+
+    /**
+     * Equivalent to <code>NodeService.getChildByName</code>, but queries the
+     * repository for all of the batch's names under the given parent at once.
+     *
+     * @param parentNodeRef    The parent to look in <i>(must not be null)</i>.
+     * @param parentPath       The relative target path of the parent (as returned by <code>BulkImportTools.getRelativeTargetPath</code>) <i>(may be null)</i>.
+     * @param parentAssocQName The parent association <i>(must not be null)</i>.
+     * @param name             The name of the child to look for <i>(must not be null)</i>.
+     * @return The child, or null if there's no such child.
+     */
+    NodeRef getChildByName(final NodeRef parentNodeRef, final String parentPath, final QName parentAssocQName, final String name)
+    {
+        final Pair<NodeRef, QName> key   = new Pair<>(parentNodeRef, parentAssocQName);
+        KnownChildren              known = children.get(key);
+
+        if (known == null)
+        {
+            known = new KnownChildren(createdNodes.contains(parentNodeRef));
+            children.put(key, known);
+
+            if (!known.complete)
+            {
+                final Set<String> names = namesInBatch.get(new Pair<>(normalise(parentPath), parentAssocQName));
+
+                if (names != null)
+                {
+                    lookUp(parentNodeRef, parentAssocQName, names, known);
+                }
+            }
+        }
+
+        // In case the name wasn't in the batch (or was under a different parent path) when we first looked
+        if (!known.complete && !known.lookedUp.contains(key(name)))
+        {
+            lookUp(parentNodeRef, parentAssocQName, Collections.singleton(name), known);
+        }
+
+        return(known.existing.get(key(name)));
+    }
+
+
+    /**
+     * Records that a child has been created, so that subsequent lookups (in this batch) see it.
+     */
+    void childCreated(final NodeRef parentNodeRef, final QName parentAssocQName, final String name, final NodeRef childNodeRef)
+    {
+        final KnownChildren known = children.get(new Pair<>(parentNodeRef, parentAssocQName));
+
+        if (known != null)
+        {
+            known.existing.put(key(name), childNodeRef);
+            known.lookedUp.add(key(name));
+        }
+
+        createdNodes.add(childNodeRef);
+    }
+
+
+    /**
+     * @return True if the given node was created by this batch.
+     */
+    boolean isCreated(final NodeRef nodeRef)
+    {
+        return(createdNodes.contains(nodeRef));
+    }
+
+
+    private void lookUp(final NodeRef parentNodeRef, final QName parentAssocQName, final Set<String> names, final KnownChildren known)
+    {
+        final List<String> nameList = new ArrayList<>(names);
+
+        for (int i = 0; i < nameList.size(); i += MAX_NAMES_PER_QUERY)
+        {
+            final List<String>              namesInQuery = nameList.subList(i, Math.min(i + MAX_NAMES_PER_QUERY, nameList.size()));
+            final List<ChildAssociationRef> childAssocs  = nodeService.getChildrenByName(parentNodeRef, parentAssocQName, namesInQuery);
+
+            // The importer (and most other clients) name child associations after the child's cm:name, so matching on that avoids
+            // reading each child's properties
+            final Map<String, String> namesByAssocName = new HashMap<>(namesInQuery.size());
+
+            for (final String name : namesInQuery)
+            {
+                final String assocName = key(QName.createValidLocalName(name));
+
+                if (namesByAssocName.containsKey(assocName))
+                {
+                    namesByAssocName.put(assocName, null);  // Ambiguous (e.g. long names that only differ after truncation)
+                }
+                else
+                {
+                    namesByAssocName.put(assocName, name);
+                }
+            }
+
+            final Map<NodeRef, String> childNames = new LinkedHashMap<>(childAssocs.size());
+            final Set<String>          matched    = new HashSet<>(childAssocs.size());
+
+            for (final ChildAssociationRef childAssoc : childAssocs)
+            {
+                final String childName = namesInQuery.size() == 1 ? namesInQuery.get(0)  // It can only be this one
+                                                                  : namesByAssocName.get(key(childAssoc.getQName().getLocalName()));
+
+                childNames.put(childAssoc.getChildRef(), childName);
+                if (childName != null) matched.add(key(childName));
+            }
+
+            // Association names aren't updated when a node is renamed via the NodeService, so if any of the names is unaccounted
+            // for, one of the children matched by association name may really be that one - only trust the matches if they cover
+            // every name
+            final boolean matchesAreComplete = matched.size() == namesInQuery.size();
+
+            for (final Map.Entry<NodeRef, String> childName : childNames.entrySet())
+            {
+                String name = childName.getValue();
+
+                if (name == null || !matchesAreComplete)
+                {
+                    // The association is named something else (e.g. the child was renamed without updating it), or ambiguously,
+                    // or the match can't be trusted - fall back on cm:name
+                    name = (String)nodeService.getProperty(childName.getKey(), ContentModel.PROP_NAME);
+                }
+
+                if (name != null)
+                {
+                    known.existing.put(key(name), childName.getKey());
+                }
+            }
+        }
+
+        for (final String name : nameList)
+        {
+            known.lookedUp.add(key(name));
+        }
+
+        if (trace(log)) trace(log, "Looked up " + nameList.size() + " name(s) in node '" + String.valueOf(parentNodeRef) + "', " + known.existing.size() + " known to exist.");
+    }
+
+
+    private static String normalise(final String path)
+    {
+        return(path == null ? "" : path);
+    }
+
+
+    // Names are unique within a parent regardless of case
+    private static String key(final String name)
+    {
+        return(name.toLowerCase());
+    }
+
+
+    private final static class KnownChildren
+    {
+        private final boolean              complete;  // True if every child is already known (i.e. the parent was created by this batch)
+        private final Map<String, NodeRef> existing = new HashMap<>();
+        private final Set<String>          lookedUp = new HashSet<>();
+
+        private KnownChildren(final boolean complete)
+        {
+            this.complete = complete;
+        }
+    }
+
+}
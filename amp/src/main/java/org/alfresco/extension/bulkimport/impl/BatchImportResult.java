@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+
+
+/**
+ * This class represents the outcome of importing a single batch.
+ *
+ */
+public final class BatchImportResult
+{
+    private final int                                  attempts;
+    private final Map<String, List<BulkImportItem<?>>> deferredItems;
+
+
+    public BatchImportResult(final int attempts)
+    {
+        this(attempts, null);
+    }
+
+
+    /**
+     * @param attempts      The number of transaction attempts it took to import the batch.
+     * @param deferredItems The items that weren't imported because their parent didn't exist (yet), keyed by the missing parent path <i>(may be null)</i>.
+     */
+    public BatchImportResult(final int attempts, final Map<String, List<BulkImportItem<?>>> deferredItems)
+    {
+        this.attempts      = attempts;
+        this.deferredItems = deferredItems == null ? Collections.<String, List<BulkImportItem<?>>>emptyMap() : deferredItems;
+    }
+
+
+    /**
+     * @return The number of transaction attempts it took to import the batch (1 if the batch didn't need to be retried).
+     */
+    public int getAttempts()
+    {
+        return(attempts);
+    }
+
+
+    /**
+     * @return The items that weren't imported because their parent didn't exist (yet), keyed by the missing parent path <i>(will not be null, but may be empty)</i>.
+     */
+    public Map<String, List<BulkImportItem<?>>> getDeferredItems()
+    {
+        return(Collections.unmodifiableMap(deferredItems));
+    }
+
+
+    /**
+     * @return The number of deferred items.
+     */
+    public int getNumberOfDeferredItems()
+    {
+        int result = 0;
+
+        for (final List<BulkImportItem<?>> items : deferredItems.values())
+        {
+            result += items.size();
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Records that the given item was deferred.  Only used while the batch is being imported.
+     */
+    static void defer(final Map<String, List<BulkImportItem<?>>> deferredItems, final String missingParentPath, final BulkImportItem<?> item)
+    {
+        List<BulkImportItem<?>> items = deferredItems.get(missingParentPath);
+
+        if (items == null)
+        {
+            items = new ArrayList<>();
+            deferredItems.put(missingParentPath, items);
+        }
+
+        items.add(item);
+    }
+
+
+    static Map<String, List<BulkImportItem<?>>> newDeferredItems()
+    {
+        return(new LinkedHashMap<String, List<BulkImportItem<?>>>());
+    }
+
+}
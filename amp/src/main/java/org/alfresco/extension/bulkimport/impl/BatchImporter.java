@@ -44,15 +44,18 @@ public interface BatchImporter
      * @param target                The nodeRef of the target space in which to perform the import <i>(must not be null, and the target space must exist and be writeable)</i>.
      * @param batch                 The batch to import <i>(may be null or empty, though both of those states result in nothing happening)</i>.
      * @param replaceExisting       Flag indicating whether existing nodes are to be replaced or skipped.
-     * @param pessimistic           Flag indicating whether or not an error should cause a batch failure ({@code true} = fail the batch if any errors happen).
+     * @param pessimistic           Flag indicating whether or not an error should roll back the batch's transaction ({@code true} = roll back if any errors happen,
+     *                              in which case the batch is split and retried until the failing items are isolated, and only those items are reported as errors).
      * @param dryRun                Flag indicating that the import should be a "dry run" (nothing written to the repository).
+     * @return The outcome of the import: the number of transaction attempts it took (1 if the batch didn't need to be retried), and any items
+     *         that were deferred because their parent folder hadn't been committed yet <i>(will not be null)</i>.
      * @throws InterruptedException If the batch is interrupted during processing.
      */
-    public void importBatch(String  userId,
-                            NodeRef target,
-                            Batch<?>   batch,
-                            boolean replaceExisting,
-                            boolean pessimistic,
-                            boolean dryRun)
+    public BatchImportResult importBatch(String  userId,
+                                         NodeRef target,
+                                         Batch<?>   batch,
+                                         boolean replaceExisting,
+                                         boolean pessimistic,
+                                         boolean dryRun)
         throws InterruptedException;
 }
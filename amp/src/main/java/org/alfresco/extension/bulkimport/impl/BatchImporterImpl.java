@@ -22,19 +22,25 @@ package org.alfresco.extension.bulkimport.impl;
 import java.io.File;
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.alfresco.service.cmr.version.Version;
 import org.apache.commons.lang3.concurrent.ConcurrentException;
 import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
-import org.apache.commons.lang3.concurrent.ConcurrentUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -48,14 +54,10 @@ import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.repo.version.VersionModel;
 import org.alfresco.service.ServiceRegistry;
-import org.alfresco.service.cmr.dictionary.AspectDefinition;
-import org.alfresco.service.cmr.dictionary.ConstraintDefinition;
-import org.alfresco.service.cmr.dictionary.ConstraintException;
-import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.dictionary.PropertyDefinition;
-import org.alfresco.service.cmr.dictionary.TypeDefinition;
 import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.model.FileNotFoundException;
+import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.ContentService;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.InvalidNodeRefException;
@@ -73,6 +75,8 @@ import org.alfresco.extension.bulkimport.DryRunException;
 import org.alfresco.extension.bulkimport.source.BulkImportItem;
 import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
 import org.alfresco.extension.bulkimport.source.BulkImportTools;
+import org.alfresco.extension.bulkimport.util.BoundedConcurrentCache;
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
 
 import static org.alfresco.extension.bulkimport.util.Utils.*;
 import static org.alfresco.extension.bulkimport.util.LogUtils.*;
@@ -94,21 +98,49 @@ public final class BatchImporterImpl
     private static final StoreRef DRY_RUN_STORE = new StoreRef("dryrun", "FakeStore");
     private static final NodeRef DRY_RUN_CREATED_NODEREF = new NodeRef(DRY_RUN_STORE, "dry-run-fake-created-node-ref");
 
-    private final ServiceRegistry serviceRegistry;
-    private final BehaviourFilter behaviourFilter;
-    private final NodeService     nodeService;
-    private final VersionService  versionService;
-    private final ContentService  contentService;
+    public final static int DEFAULT_PARENT_CACHE_SIZE = 100000;
+
+    private final ServiceRegistry       serviceRegistry;
+    private final BehaviourFilter       behaviourFilter;
+    private final NodeService           nodeService;
+    private final VersionService        versionService;
+    private final ContentService        contentService;
+    private final DictionarySymbolTable symbolTable;
+    private final DryRunReporter        dryRunReporter;
 
 
     private final WritableBulkImportStatus importStatus;
 
-    private final ConcurrentMap<String, NodeRef> parentCache;
+    private final BoundedConcurrentCache<String, NodeRef> parentCache;
+    private final BatchSplitter                           splitter;
+
+    // Folders that dry runs have "created" - unlike real folders these can't be looked up again if they're forgotten, so they're never evicted
+    private final Set<String> dryRunCreatedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // Dry runs validate versions against the same few combinations of type and aspects over and over, so compile each combination once
+    private final MetadataValidatorCache validators;
+
+    private final ContentStager                                   contentStager;
+    private final Map<BulkImportItemVersion, Future<ContentData>> stagedContent = Collections.synchronizedMap(new IdentityHashMap<BulkImportItemVersion, Future<ContentData>>());
 
 
+    /**
+     * @param parentCacheSize The maximum number of parent folders to cache.  Parents that have been evicted are looked up again
+     *                        (by path) the next time they're needed <i>(&lt;= 0 means use the default)</i>.
+     * @param contentStager   Copies large content into the content store before each batch's transaction starts <i>(may be null, meaning all
+     *                        content is streamed within the transaction)</i>.
+     * @param symbolTable     Resolves type, aspect and property names, shared with the rest of the import <i>(may be null, meaning this
+     *                        importer resolves names itself)</i>.
+     * @param dryRunReporter  Writes the faults found by dry runs to a report file <i>(may be null, meaning faults are only reported in the
+     *                        import status)</i>.
+     */
     public BatchImporterImpl(final ServiceRegistry          serviceRegistry,
                              final BehaviourFilter          behaviourFilter,
-                             final WritableBulkImportStatus importStatus)
+                             final WritableBulkImportStatus importStatus,
+                             final int                      parentCacheSize,
+                             final ContentStager            contentStager,
+                             final DictionarySymbolTable    symbolTable,
+                             final DryRunReporter           dryRunReporter)
     {
         // PRECONDITIONS
         assert serviceRegistry != null : "serviceRegistry must not be null.";
@@ -123,24 +155,51 @@ public final class BatchImporterImpl
         this.nodeService    = serviceRegistry.getNodeService();
         this.versionService = serviceRegistry.getVersionService();
         this.contentService = serviceRegistry.getContentService();
-        this.parentCache    = new ConcurrentHashMap<>();
+        this.contentStager  = contentStager;
+        this.symbolTable    = symbolTable != null ? symbolTable : new DictionarySymbolTable(serviceRegistry);
+        this.validators     = new MetadataValidatorCache(this.symbolTable);
+        this.dryRunReporter = dryRunReporter;
+        this.parentCache    = new BoundedConcurrentCache<String, NodeRef>(parentCacheSize > 0 ? parentCacheSize : DEFAULT_PARENT_CACHE_SIZE)
+        {
+            @Override
+            protected void onHit(final String key)
+            {
+                BatchImporterImpl.this.importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_PARENT_CACHE_HITS);
+            }
+
+            @Override
+            protected void onMiss(final String key)
+            {
+                BatchImporterImpl.this.importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_PARENT_CACHE_MISSES);
+            }
+
+            @Override
+            protected void onEviction(final String key)
+            {
+                BatchImporterImpl.this.importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_PARENT_CACHE_EVICTIONS);
+            }
+        };
+        this.splitter       = new BatchSplitter(importStatus, this.parentCache);
     }
 
     public final void resetCaches()
     {
         this.parentCache.clear();
+        this.dryRunCreatedPaths.clear();
+        this.validators.clear();
     }
 
+
     /**
      * @see org.alfresco.extension.bulkimport.impl.BatchImporter#importBatch(String, NodeRef, Batch, boolean, boolean, boolean)
      */
     @Override
-    public final void importBatch(final String  userId,
-                                  final NodeRef  target,
-                                  final Batch<?> batch,
-                                  final boolean  replaceExisting,
-                                  final boolean  pessimistic,
-                                  final boolean  dryRun)
+    public final BatchImportResult importBatch(final String  userId,
+                                               final NodeRef  target,
+                                               final Batch<?> batch,
+                                               final boolean  replaceExisting,
+                                               final boolean  pessimistic,
+                                               final boolean  dryRun)
         throws InterruptedException,
                OutOfOrderBatchException
     {
@@ -150,42 +209,180 @@ public final class BatchImporterImpl
         if (debug(log)) debug(log, "Importing " + batchName);
         importStatus.setCurrentlyImporting(batchName);
 
-        AuthenticationUtil.runAs(new RunAsWork<Object>()
+        final BatchImportResult result = AuthenticationUtil.runAs(new RunAsWork<BatchImportResult>()
         {
             @Override
-            public Object doWork()
+            public BatchImportResult doWork()
                 throws Exception
             {
+                BatchImportResult result = null;
+
                 if (dryRun)
                 {
-                    importBatchImpl(target, batch, replaceExisting, false, dryRun);
+                    result = importBatchDryRun(target, batch, replaceExisting);
                 }
                 else
                 {
-                    importBatchInTxn(target, batch, replaceExisting, pessimistic, dryRun);
+                    result = importBatchInTxn(target, batch, replaceExisting, pessimistic, dryRun);
                 }
-                return(null);
+                return(result);
             }
         }, userId);
 
         if (debug(log))
         {
-            long end = System.nanoTime();
-            debug(log, "Batch #" + batch.getNumber() + " (containing " + batch.size() + " nodes) processed in " + getDurationInSeconds(end - start) + ".");
+            long end      = System.nanoTime();
+            int  attempts = result.getAttempts();
+            int  deferred = result.getNumberOfDeferredItems();
+
+            debug(log, "Batch #" + batch.getNumber() + " (containing " + batch.size() + " nodes) processed in " + getDurationInSeconds(end - start) +
+                       (attempts > 1 ? " (" + attempts + " attempts)" : "") +
+                       (deferred > 0 ? ", " + deferred + " item" + pluralise(deferred) + " deferred." : "."));
         }
+
+        return(result);
     }
 
 
+    /*
+     * Validates the given batch in a single read-only transaction (rather than letting each repository read start its own).
+     */
     private final <T extends BulkImportItemVersion>
-    void importBatchInTxn(final NodeRef  target,
-                          final Batch<T> batch,
-                          final boolean  replaceExisting,
-                          final boolean  pessimistic,
-                          final boolean  dryRun)
+    BatchImportResult importBatchDryRun(final NodeRef  target,
+                                        final Batch<T> batch,
+                                        final boolean  replaceExisting)
+    {
+        serviceRegistry.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
+        {
+            @Override
+            public Object execute()
+                throws Exception
+            {
+                importBatchImpl(target, batch, replaceExisting, false, true, null);
+                return(null);
+            }
+        },
+        true,    // read only flag, true=R/O txn
+        false);  // requires new txn flag, false=does not require a new txn if one is already in progress (which should never be the case here)
+
+        return(new BatchImportResult(1));
+    }
+
+
+    /*
+     * Returns the number of transaction attempts (i.e. 1 + the number of retries) it took, along with the items that were deferred.
+     */
+    private final <T extends BulkImportItemVersion>
+    BatchImportResult importBatchInTxn(final NodeRef  target,
+                                       final Batch<T> batch,
+                                       final boolean  replaceExisting,
+                                       final boolean  pessimistic,
+                                       final boolean  dryRun)
         throws InterruptedException,
                OutOfOrderBatchException
+    {
+        final Map<String, List<BulkImportItem<?>>>            deferredItems = BatchImportResult.newDeferredItems();
+        final Map<BulkImportItemVersion, Future<ContentData>> staged        = stageContent(target, batch, replaceExisting);
+        int                                                   attempts      = 0;
+
+        stagedContent.putAll(staged);
+
+        try
+        {
+            // If an item fails the batch's transaction, the items are split into smaller transactions until it's been isolated
+            attempts = splitter.importBatch(batch, new BatchSplitter.Transaction()
+            {
+                @Override
+                public <U extends BulkImportItemVersion> int importBatch(final Batch<U> part)
+                    throws InterruptedException
+                {
+                    return(importBatchInSingleTxn(target, part, replaceExisting, pessimistic, dryRun, deferredItems));
+                }
+            });
+        }
+        finally
+        {
+            for (final BulkImportItemVersion version : staged.keySet())
+            {
+                stagedContent.remove(version);
+            }
+        }
+
+        importStatus.batchCompleted(batch);
+
+        return(new BatchImportResult(attempts, deferredItems));
+    }
+
+
+    /*
+     * Copies the large content of the given batch into the content store, before the batch's transaction starts.  Items that already
+     * exist (and won't be replaced) are skipped, since their content would never be used.
+     */
+    private final Map<BulkImportItemVersion, Future<ContentData>> stageContent(final NodeRef  target,
+                                                                               final Batch<?> batch,
+                                                                               final boolean  replaceExisting)
+        throws InterruptedException
+    {
+        Map<BulkImportItemVersion, Future<ContentData>> result = Collections.emptyMap();
+
+        if (contentStager != null && contentStager.isEnabled())
+        {
+            final List<BulkImportItem<?>> items = new ArrayList<>();
+
+            for (final BulkImportItem<?> item : batch)
+            {
+                if (contentStager.isStageable(item) && (replaceExisting || !exists(target, item))) items.add(item);
+            }
+
+            if (!items.isEmpty()) result = contentStager.stage(AuthenticationUtil.getRunAsUser(), items);
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Checks (in its own transaction) whether the node for the given item already exists.
+     */
+    private final boolean exists(final NodeRef target, final BulkImportItem<?> item)
+    {
+        boolean result = false;
+
+        try
+        {
+            final NodeRef parentNodeRef    = getParent(target, item);
+            final String  parentAssoc      = item.getParentAssoc();
+            final QName   parentAssocQName = parentAssoc == null ? ContentModel.ASSOC_CONTAINS : symbolTable.getQName(parentAssoc);
+
+            result = parentNodeRef != null && nodeService.getChildByName(parentNodeRef, parentAssocQName, item.getTargetName()) != null;
+        }
+        catch (final OutOfOrderBatchException oobe)
+        {
+            // The parent doesn't exist (yet), so neither does the item
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Returns the number of transaction attempts (i.e. 1 + the number of retries) it took.  The items deferred by the final (successful)
+     * attempt are added to deferredItems.
+     */
+    private final <T extends BulkImportItemVersion>
+    int importBatchInSingleTxn(final NodeRef                              target,
+                               final Batch<T>                             batch,
+                               final boolean                              replaceExisting,
+                               final boolean                              pessimistic,
+                               final boolean                              dryRun,
+                               final Map<String, List<BulkImportItem<?>>> deferredItems)
+        throws InterruptedException
     {
         RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        final AtomicInteger       attempts  = new AtomicInteger(0);
+
+        // Each attempt starts afresh, since a retried transaction will have rolled back everything the previous attempt did
+        final AtomicReference<Map<String, List<BulkImportItem<?>>>> attemptDeferredItems = new AtomicReference<>();
 
         txnHelper.doInTransaction(new RetryingTransactionCallback<Object>()
         {
@@ -193,17 +390,28 @@ public final class BatchImporterImpl
             public Object execute()
                 throws Exception
             {
+                if (attempts.incrementAndGet() > 1) splitter.forgetFolders(batch);
+                attemptDeferredItems.set(BatchImportResult.newDeferredItems());
+
                 // Disable the auditable aspect's behaviours for this transaction, to allow creation & modification dates to be set
                 behaviourFilter.disableBehaviour(ContentModel.ASPECT_AUDITABLE);
 
-                importBatchImpl(target, batch, replaceExisting, pessimistic, dryRun);
+                importBatchImpl(target, batch, replaceExisting, pessimistic, dryRun, attemptDeferredItems.get());
                 return(null);
             }
         },
         false,   // read only flag, false=R/W txn
         false);  // requires new txn flag, false=does not require a new txn if one is already in progress (which should never be the case here)
 
-        importStatus.batchCompleted(batch);
+        for (final Map.Entry<String, List<BulkImportItem<?>>> entry : attemptDeferredItems.get().entrySet())
+        {
+            for (final BulkImportItem<?> item : entry.getValue())
+            {
+                BatchImportResult.defer(deferredItems, entry.getKey(), item);
+            }
+        }
+
+        return(attempts.get());
     }
 
 
@@ -212,11 +420,14 @@ public final class BatchImporterImpl
                          final Batch<T> batch,
                          final boolean  replaceExisting,
                          final boolean  pessimistic,
-                         final boolean  useDryRun)
+                         final boolean  useDryRun,
+                         final Map<String, List<BulkImportItem<?>>> deferredItems)
         throws InterruptedException
     {
         if (batch != null)
         {
+            final BatchChildLookup childLookup = new BatchChildLookup(serviceRegistry, symbolTable, batch);
+
             for (final BulkImportItem<T> item : batch)
             {
                 if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
@@ -224,10 +435,30 @@ public final class BatchImporterImpl
                 final DryRun<T> dryRun = (useDryRun ? new DryRun<>(item) : null);
                 try
                 {
-                    importItem(target, item, replaceExisting, dryRun);
+                    importItem(target, item, replaceExisting, dryRun, childLookup);
                     // If the dry run has non-final faults, we need to "upgrade" them...
                     if (dryRun != null && dryRun.hasFaults()) throw new DryRunException(dryRun);
                 }
+                catch (final OutOfOrderBatchException oobe)
+                {
+                    if (deferredItems != null)
+                    {
+                        // The item's parent hasn't been committed yet - rather than failing the batch, hand the item back to the caller to
+                        // resubmit once the parent exists (nothing has been written for it, so the rest of the batch can still commit)
+                        if (debug(log)) debug(log, "Deferring " + String.valueOf(item) + " - missing parent path [" + oobe.getMissingParentPath() + "].");
+                        BatchImportResult.defer(deferredItems, oobe.getMissingParentPath(), item);
+                    }
+                    else
+                    {
+                        importStatus.unexpectedError(BulkImportTools.getCompleteTargetPath(item), oobe);
+                    }
+                }
+                catch (final DryRunException dre)
+                {
+                    // Write the item's faults to the report as soon as they're found, as well as reporting them in the usual way
+                    if (dryRunReporter != null) dryRunReporter.report(dre.getDryRun());
+                    importStatus.unexpectedError(BulkImportTools.getCompleteTargetPath(item), dre);
+                }
                 catch (Throwable t)
                 {
                     if (!useDryRun && pessimistic)
@@ -251,26 +482,30 @@ public final class BatchImporterImpl
     void importItem(final NodeRef           target,
                     final BulkImportItem<T> item,
                     final boolean           replaceExisting,
-                    final DryRun<T>         dryRun)
+                    final DryRun<T>         dryRun,
+                    final BatchChildLookup  childLookup)
         throws InterruptedException
     {
         try
         {
             if (trace(log)) trace(log, "Importing " + (item.isDirectory() ? "directory " : "file ") + String.valueOf(item) + ".");
 
-            NodeRef nodeRef     = findOrCreateNode(target, item, replaceExisting, dryRun);
+            NodeRef nodeRef     = findOrCreateNode(target, item, replaceExisting, dryRun, childLookup);
             boolean isDirectory = item.isDirectory();
 
             if (nodeRef != null)
             {
+                // New nodes are created with their initial version's metadata already in place
+                final boolean created = dryRun == null && childLookup.isCreated(nodeRef);
+
                 // We're creating or replacing the item, so import it
                 if (isDirectory)
                 {
-                    importDirectory(nodeRef, item, dryRun);
+                    importDirectory(nodeRef, item, dryRun, created);
                 }
                 else
                 {
-                    importFile(nodeRef, item, dryRun);
+                    importFile(nodeRef, item, dryRun, created);
                 }
             }
             // Make sure we fail this item appropriately
@@ -300,7 +535,10 @@ public final class BatchImporterImpl
     private NodeRef getParent(final NodeRef target, final BulkImportItem<?> item)
     {
         final String itemParentPath = BulkImportTools.getRelativeTargetPath(item);
-        return ConcurrentUtils.createIfAbsentUnchecked(this.parentCache, itemParentPath, new ConcurrentInitializer<NodeRef>()
+
+        if (itemParentPath != null && dryRunCreatedPaths.contains(itemParentPath)) return DRY_RUN_CREATED_NODEREF;
+
+        return this.parentCache.get(itemParentPath, new ConcurrentInitializer<NodeRef>()
         {
             @Override
             public NodeRef get() throws ConcurrentException
@@ -346,14 +584,20 @@ public final class BatchImporterImpl
         {
             itemPath = String.format("%s/%s", itemPath, item.getTargetName());
         }
-        return ConcurrentUtils.putIfAbsent(this.parentCache, itemPath, nodeRef);
+        if (DRY_RUN_STORE.equals(nodeRef.getStoreRef()))
+        {
+            dryRunCreatedPaths.add(itemPath);
+            return nodeRef;
+        }
+        return this.parentCache.putIfAbsent(itemPath, nodeRef);
     }
 
     private final <T extends BulkImportItemVersion>
     NodeRef findOrCreateNode(final NodeRef           target,
-                                           final BulkImportItem<T> item,
-                                           final boolean           replaceExisting,
-                                           final DryRun<T>         dryRun)
+                             final BulkImportItem<T> item,
+                             final boolean           replaceExisting,
+                             final DryRun<T>         dryRun,
+                             final BatchChildLookup  childLookup)
     {
         NodeRef result           = null;
         String  nodeName         = item.getTargetName();
@@ -362,7 +606,7 @@ public final class BatchImporterImpl
                                                      QName.createValidLocalName(nodeName));
         boolean isDirectory      = item.isDirectory();
         String  parentAssoc      = item.getParentAssoc();
-        QName   parentAssocQName = parentAssoc == null ? ContentModel.ASSOC_CONTAINS : createQName(serviceRegistry, parentAssoc);
+        QName   parentAssocQName = parentAssoc == null ? ContentModel.ASSOC_CONTAINS : symbolTable.getQName(parentAssoc);
 
         NodeRef parentNodeRef = null;
         try
@@ -393,13 +637,14 @@ public final class BatchImporterImpl
         
         if ((dryRun == null) || !DRY_RUN_STORE.equals(parentNodeRef.getStoreRef()))
         {
-            result = nodeService.getChildByName(parentNodeRef, parentAssocQName, nodeName);
+            result = childLookup.getChildByName(parentNodeRef, BulkImportTools.getRelativeTargetPath(item), parentAssocQName, nodeName);
         }
 
         if (result == null)    // We didn't find it, so create a new node in the repo.
         {
-            String itemType      = item.getVersions().first().getType();
-            QName  itemTypeQName = itemType == null ? (isDirectory ? ContentModel.TYPE_FOLDER : ContentModel.TYPE_CONTENT) : createQName(serviceRegistry, itemType);
+            T      initialVersion = getInitialVersion(item);
+            String itemType       = initialVersion.getType();
+            QName  itemTypeQName  = itemType == null ? (isDirectory ? ContentModel.TYPE_FOLDER : ContentModel.TYPE_CONTENT) : symbolTable.getQName(itemType);
 
             if (trace(log)) trace(log, "Creating new node of type '" + String.valueOf(itemTypeQName) + "' with qname '" + String.valueOf(nodeQName) + "' within node '" + String.valueOf(parentNodeRef) + "' with parent association '" + String.valueOf(parentAssocQName) + "'.");
             Map<QName, Serializable> props = new HashMap<>();
@@ -410,7 +655,46 @@ public final class BatchImporterImpl
             }
             else
             {
-                result = nodeService.createNode(parentNodeRef, parentAssocQName, nodeQName, itemTypeQName, props).getChildRef();
+                // Create the node with the initial version's properties in a single call, rather than setting them after the fact
+                final boolean applyMetadata = isDirectory || initialVersion.hasMetadata();
+
+                // Files with multiple versions have every version created explicitly (see importFile), so if the initial version's
+                // metadata makes the new node cm:versionable, the aspect's behaviours mustn't snapshot it (as the initial version)
+                final boolean suppressVersioning = !isDirectory && item.getVersions().size() > 1;
+
+                if (applyMetadata) props.putAll(getQNamedMetadata(initialVersion));
+
+                // Note: the new node doesn't have a NodeRef yet, so this has to be disabled for the class, rather than the node
+                if (suppressVersioning) behaviourFilter.disableBehaviour(ContentModel.ASPECT_VERSIONABLE);
+
+                try
+                {
+                    try
+                    {
+                        result = nodeService.createNode(parentNodeRef, parentAssocQName, nodeQName, itemTypeQName, props).getChildRef();
+                    }
+                    catch (final InvalidNodeRefException inre)
+                    {
+                        if (applyMetadata && !parentNodeRef.equals(inre.getNodeRef()))
+                        {
+                            // Caused by an invalid NodeRef in the metadata (e.g. in an association)
+                            throw new IllegalStateException("Invalid nodeRef found in metadata file '" + initialVersion.getMetadataSource() + "'.  " +
+                                                            "Probable cause: an association is being populated via metadata, but the " +
+                                                            "NodeRef for the target of that association ('" + inre.getNodeRef() + "') is invalid.  " +
+                                                            "Please double check your metadata file and try again.", inre);
+                        }
+
+                        throw inre;
+                    }
+
+                    childLookup.childCreated(parentNodeRef, parentAssocQName, nodeName, result);
+
+                    if (applyMetadata) addAspectsNotImpliedBy(result, initialVersion, props);
+                }
+                finally
+                {
+                    if (suppressVersioning) behaviourFilter.enableBehaviour(ContentModel.ASPECT_VERSIONABLE);
+                }
             }
         }
         else if (replaceExisting)
@@ -427,10 +711,72 @@ public final class BatchImporterImpl
         return (item.isDirectory() ? cacheNode(item, result) : result);
     }
 
+    /*
+     * Returns the version whose metadata a new node for the given item is created with - the last version for directories (since
+     * they're not versioned, only the last version's metadata is imported), the first version for files.
+     */
+    private final static <T extends BulkImportItemVersion>
+    T getInitialVersion(final BulkImportItem<T> item)
+    {
+        return(item.isDirectory() ? item.getVersions().last() : item.getVersions().first());
+    }
+
+
+    private final Map<QName, Serializable> getQNamedMetadata(final BulkImportItemVersion version)
+    {
+        final Map<String, Serializable> metadata = version.getMetadata();
+        final Map<QName, Serializable>  result   = new HashMap<>();
+
+        if (metadata != null)
+        {
+            for (final Map.Entry<String, Serializable> entry : metadata.entrySet())
+            {
+                result.put(symbolTable.getQName(entry.getKey()), entry.getValue());
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Adds the given version's aspects to the given (newly created) node, except for those that were added implicitly when the node was
+     * created, because the node was created with some of their properties.
+     */
+    private final void addAspectsNotImpliedBy(final NodeRef nodeRef, final BulkImportItemVersion version, final Map<QName, Serializable> props)
+    {
+        final Set<String> aspects = version.getAspects();
+
+        if (aspects != null && !aspects.isEmpty())
+        {
+            final Set<QName> impliedAspects = new HashSet<>();
+
+            for (final QName property : props.keySet())
+            {
+                final PropertyDefinition definition = symbolTable.getProperty(property);
+
+                if (definition != null && definition.getContainerClass().isAspect()) impliedAspects.add(definition.getContainerClass().getName());
+            }
+
+            for (final String aspect : aspects)
+            {
+                final QName aspectQName = symbolTable.getQName(aspect);
+
+                if (!impliedAspects.contains(aspectQName))
+                {
+                    if (trace(log)) trace(log, "Adding aspect '" + aspect + "' to '" + String.valueOf(nodeRef) + "'.");
+                    nodeService.addAspect(nodeRef, aspectQName, null);
+                }
+            }
+        }
+    }
+
+
     private final <T extends BulkImportItemVersion>
     void importDirectory(final NodeRef           nodeRef,
                          final BulkImportItem<T> item,
-                         final DryRun<T>         dryRun)
+                         final DryRun<T>         dryRun,
+                         final boolean           created)
         throws InterruptedException
     {
         if (item.getVersions() != null &&
@@ -448,8 +794,8 @@ public final class BatchImporterImpl
                 warn(log, "Skipping content for directory '" + item.getTargetName() + "' - Alfresco doesn't support content in spaces.");
             }
 
-            // Import the last version's metadata only
-            importVersionMetadata(nodeRef, item, lastVersion, dryRun);
+            // Import the last version's metadata only (unless the node was created with it)
+            if (!created) importVersionMetadata(nodeRef, item, null, lastVersion, dryRun);
         }
         else
         {
@@ -463,7 +809,8 @@ public final class BatchImporterImpl
     private final <T extends BulkImportItemVersion>
     void importFile(final NodeRef           nodeRef,
                     final BulkImportItem<T> item,
-                    final DryRun<T>         dryRun)
+                    final DryRun<T>         dryRun,
+                    final boolean           created)
         throws InterruptedException
     {
         final int numberOfVersions = item.getVersions().size();
@@ -474,29 +821,40 @@ public final class BatchImporterImpl
         }
         else if (numberOfVersions == 1)
         {
-            importVersion(nodeRef, item, null, item.getVersions().first(), dryRun, true);
+            importVersion(nodeRef, item, null, item.getVersions().first(), dryRun, true, created);
         }
         else
         {
             final T firstVersion = item.getVersions().first();
             T previousVersion = null;
 
-            // Add the cm:versionable aspect if it isn't already there
-            if (firstVersion.getAspects() == null ||
-                firstVersion.getAspects().isEmpty() ||
-                (!firstVersion.getAspects().contains(ContentModel.ASPECT_VERSIONABLE.toString()) &&
-                 !firstVersion.getAspects().contains(ContentModel.ASPECT_VERSIONABLE.toPrefixString())))
-            {
-                if (debug(log)) debug(log, item.getTargetName() + " has versions but is missing the cm:versionable aspect. Adding it.");
-                if (dryRun == null) nodeService.addAspect(nodeRef, ContentModel.ASPECT_VERSIONABLE, null);
-            }
+            // Versions are created explicitly below, so suppress the cm:versionable behaviours (initial version, auto-versioning on
+            // content and property updates) for this node - otherwise they snapshot the node again every time a version is written
+            if (dryRun == null) behaviourFilter.disableBehaviour(nodeRef, ContentModel.ASPECT_VERSIONABLE);
 
-            for (final T version : item.getVersions())
+            try
             {
-                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+                // Add the cm:versionable aspect if it isn't already there
+                if (firstVersion.getAspects() == null ||
+                    firstVersion.getAspects().isEmpty() ||
+                    (!firstVersion.getAspects().contains(ContentModel.ASPECT_VERSIONABLE.toString()) &&
+                     !firstVersion.getAspects().contains(ContentModel.ASPECT_VERSIONABLE.toPrefixString())))
+                {
+                    if (debug(log)) debug(log, item.getTargetName() + " has versions but is missing the cm:versionable aspect. Adding it.");
+                    if (dryRun == null) nodeService.addAspect(nodeRef, ContentModel.ASPECT_VERSIONABLE, null);
+                }
 
-                importVersion(nodeRef, item, previousVersion, version, dryRun, false);
-                previousVersion = version;
+                for (final T version : item.getVersions())
+                {
+                    if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+
+                    importVersion(nodeRef, item, previousVersion, version, dryRun, false, created && previousVersion == null);
+                    previousVersion = version;
+                }
+            }
+            finally
+            {
+                if (dryRun == null) behaviourFilter.enableBehaviour(nodeRef, ContentModel.ASPECT_VERSIONABLE);
             }
         }
 
@@ -510,7 +868,8 @@ public final class BatchImporterImpl
                        final T                 previousVersion,
                        final T                 version,
                        final DryRun<T>         dryRun,
-                       final boolean           onlyOneVersion)
+                       final boolean           onlyOneVersion,
+                       final boolean           metadataApplied)
         throws InterruptedException
     {
         Map<String, Serializable> versionProperties = new HashMap<>();
@@ -521,7 +880,7 @@ public final class BatchImporterImpl
             throw new IllegalStateException("version was null. This is indicative of a bug in the chosen import source.");
         }
 
-        importVersionContentAndMetadata(nodeRef, item, version, dryRun);
+        importVersionContentAndMetadata(nodeRef, item, previousVersion, version, dryRun, metadataApplied);
 
         if (previousVersion != null && version.getVersionNumber() != null)
         {
@@ -559,13 +918,15 @@ public final class BatchImporterImpl
     private final <T extends BulkImportItemVersion> 
     void importVersionContentAndMetadata(final NodeRef           nodeRef,
                                          final BulkImportItem<T> item,
+                                         final T                 previousVersion,
                                          final T                 version,
-                                         final DryRun<T>         dryRun)
+                                         final DryRun<T>         dryRun,
+                                         final boolean           metadataApplied)
         throws InterruptedException
     {
-        if (version.hasMetadata())
+        if (version.hasMetadata() && !metadataApplied)
         {
-            importVersionMetadata(nodeRef, item, version, dryRun);
+            importVersionMetadata(nodeRef, item, previousVersion, version, dryRun);
         }
 
         if (version.hasContent())
@@ -578,6 +939,7 @@ public final class BatchImporterImpl
     private final <T extends BulkImportItemVersion>
     void importVersionMetadata(final NodeRef           nodeRef,
                                final BulkImportItem<T> item,
+                               final T                 previousVersion,
                                final T                 version,
                                final DryRun<T>         dryRun)
         throws InterruptedException
@@ -585,67 +947,56 @@ public final class BatchImporterImpl
         String                    type     = version.getType();
         Set<String>               aspects  = version.getAspects();
         Map<String, Serializable> metadata = version.getMetadata();
-        DictionaryService         dictionary = serviceRegistry.getDictionaryService();
 
-        TypeDefinition typeDef = null;
-        Map<QName, AspectDefinition> definedAspects = null;
-        if (type != null)
+        // The node already has the previous version's type, aspects and properties, so only what's changed since then needs to be
+        // written (dry runs validate each version in full, so don't apply this)
+        final T                         previous         = dryRun == null ? previousVersion : null;
+        final Set<String>               previousAspects  = previous == null ? null : previous.getAspects();
+        final Map<String, Serializable> previousMetadata = previous == null || !previous.hasMetadata() ? null : previous.getMetadata();
+
+        if (type != null && previous != null && type.equals(previous.getType()))
         {
-            if (trace(log)) trace(log, "Setting type of '" + String.valueOf(nodeRef) + "' to '" + String.valueOf(type) + "'.");
-            QName typeQname = createQName(serviceRegistry, type);
-            if (dryRun != null)
+            if (trace(log)) trace(log, "Type of '" + String.valueOf(nodeRef) + "' is unchanged from the previous version.");
+            type = null;
+        }
+
+        MetadataValidator validator = null;
+        if (dryRun != null)
+        {
+            // Nothing is written, so just make sure the type and aspects are defined
+            final List<String> faults = new ArrayList<>();
+
+            validator = validators.getValidator(type, aspects, faults);
+
+            if (validator == null)
             {
-                typeDef = dictionary.getType(typeQname);
-                if (typeDef == null)
-                {
-                    dryRun.addVersionFault(version, String.format("Missing Type [%s]", type));
-                    throw new DryRunException(dryRun);
-                }
-                // Add the base type's aspects
-                for (AspectDefinition def : typeDef.getDefaultAspects(true))
+                for (final String fault : faults)
                 {
-                    if (definedAspects == null)
-                    {
-                        definedAspects = new LinkedHashMap<>();
-                    }
-                    definedAspects.put(def.getName(), def);
+                    dryRun.addVersionFault(version, fault);
                 }
-            }
-            else
-            {
-                nodeService.setType(nodeRef, typeQname);
+
+                throw new DryRunException(dryRun);
             }
         }
-
-        if (aspects != null)
+        else
         {
-            boolean missingAspects = false;
-            for (final String aspect : aspects)
+            if (type != null)
             {
-                if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+                if (trace(log)) trace(log, "Setting type of '" + String.valueOf(nodeRef) + "' to '" + String.valueOf(type) + "'.");
+                nodeService.setType(nodeRef, symbolTable.getQName(type));
+            }
 
-                if (trace(log)) trace(log, "Adding aspect '" + aspect + "' to '" + String.valueOf(nodeRef) + "'.");
-                QName aspectQname = createQName(serviceRegistry, aspect);
-                if (dryRun != null)
-                {
-                    if (definedAspects == null)
-                    {
-                        definedAspects = new LinkedHashMap<>();
-                    }
-                    AspectDefinition def = dictionary.getAspect(aspectQname);
-                    if (def == null)
-                    {
-                        dryRun.addVersionFault(version, String.format("Missing Aspect [%s]", type));
-                        missingAspects = true;
-                    }
-                    if (!definedAspects.containsKey(def.getName())) definedAspects.put(def.getName(), def);
-                }
-                else
+            if (aspects != null)
+            {
+                for (final String aspect : aspects)
                 {
-                    nodeService.addAspect(nodeRef, aspectQname, null);
+                    if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+                    if (previousAspects != null && previousAspects.contains(aspect)) continue;  // Already added for the previous version
+
+                    if (trace(log)) trace(log, "Adding aspect '" + aspect + "' to '" + String.valueOf(nodeRef) + "'.");
+                    nodeService.addAspect(nodeRef, symbolTable.getQName(aspect), null);
                 }
             }
-            if (missingAspects) throw new DryRunException(dryRun);
         }
 
         if (version.hasMetadata())
@@ -660,9 +1011,11 @@ public final class BatchImporterImpl
             {
                 if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
 
-                QName        keyQName = createQName(serviceRegistry, key);
+                QName        keyQName = symbolTable.getQName(key);
                 Serializable value    = metadata.get(key);
 
+                if (previousMetadata != null && previousMetadata.containsKey(key) && Objects.equals(value, previousMetadata.get(key))) continue;  // Unchanged
+
                 qNamedMetadata.put(keyQName, value);
             }
 
@@ -675,51 +1028,10 @@ public final class BatchImporterImpl
                     qNamedMetadata.put(ContentModel.PROP_NAME, item.getTargetName());
                 }
 
-                // Step 1: make a list of all the attributes in the aspects and object type
-                Map<QName, PropertyDefinition> propDef = new HashMap<>();
-                propDef.putAll(typeDef.getProperties());
-                if (definedAspects != null)
+                // Make sure all properties that are required are present, and that all property values match any enabled constraints
+                for (final String fault : validator.validate(qNamedMetadata))
                 {
-                    for (AspectDefinition aspect : definedAspects.values())
-                    {
-                        propDef.putAll(aspect.getProperties());
-                    }
-                }
-
-                // Step 2: make sure all properties that are required are present, and that all property values
-                // match any enabled constraints
-                for (PropertyDefinition property : propDef.values())
-                {
-                    final QName propertyName = property.getName();
-                    final String propertyNS = propertyName.getNamespaceURI();
-                    
-                    if (NamespaceService.SYSTEM_MODEL_1_0_URI.equals(propertyNS))
-                    {
-                        // We won't check for system properties, as this isn't a common thing
-                        // and if they're missing, the system will (usually) fill them in 
-                        continue;
-                    }
-
-                    final Serializable value = qNamedMetadata.get(propertyName);
-                    if (property.isMandatory() && property.isMandatoryEnforced() && (value == null))
-                    {
-                        dryRun.addVersionFault(version, String.format("Missing mandatory property [%s]", property.getName()));
-                        continue;
-                    }
-                    
-                    // TODO: double-check if the value is compatible with the target type
-
-                    for (ConstraintDefinition constraint : property.getConstraints())
-                    {
-                        try
-                        {
-                            constraint.getConstraint().evaluate(value);
-                        }
-                        catch (ConstraintException e)
-                        {
-                            dryRun.addVersionFault(version, String.format("Constraint [%s] violation on property [%s]", constraint.getName(), property.getName()));
-                        }
-                    }
+                    dryRun.addVersionFault(version, fault);
                 }
             }
 
@@ -727,7 +1039,7 @@ public final class BatchImporterImpl
             {
                 if (trace(log)) trace(log, "Adding the following properties to '" + String.valueOf(nodeRef) +
                                            "':\n" + Arrays.toString(qNamedMetadata.entrySet().toArray()));
-                if (dryRun == null) nodeService.addProperties(nodeRef, qNamedMetadata);
+                if (dryRun == null && !qNamedMetadata.isEmpty()) nodeService.addProperties(nodeRef, qNamedMetadata);
             }
             catch (final InvalidNodeRefException inre)
             {
@@ -822,8 +1134,18 @@ public final class BatchImporterImpl
                 }
                 else
                 {
-                    ContentWriter writer = contentService.getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
-                    version.putContent(writer);
+                    final Future<ContentData> staged = stagedContent.get(version);
+
+                    if (staged != null)
+                    {
+                        // The content has already been copied into the content store - just bind it to the node
+                        nodeService.setProperty(nodeRef, ContentModel.PROP_CONTENT, getStagedContent(version, staged));
+                    }
+                    else
+                    {
+                        ContentWriter writer = contentService.getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+                        version.putContent(writer);
+                    }
                 }
 
                 if (trace(log)) trace(log, "Finished streaming content from '" + version.getContentSource() + "' into node '" + String.valueOf(nodeRef) + "'.");
@@ -833,4 +1155,18 @@ public final class BatchImporterImpl
         }
     }
 
+
+    private final static ContentData getStagedContent(final BulkImportItemVersion version, final Future<ContentData> staged)
+        throws InterruptedException
+    {
+        try
+        {
+            return(staged.get());
+        }
+        catch (final ExecutionException ee)
+        {
+            throw new RuntimeException("Unable to copy content from '" + version.getContentSource() + "' into the content store.", ee.getCause());
+        }
+    }
+
 }
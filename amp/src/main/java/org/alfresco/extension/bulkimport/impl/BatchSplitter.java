@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import org.alfresco.extension.bulkimport.BulkImportStatus;
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+import org.alfresco.extension.bulkimport.source.BulkImportTools;
+import org.alfresco.extension.bulkimport.util.BoundedConcurrentCache;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class imports a batch in a single transaction, and if an item fails
+ * that transaction, rather than failing the entire batch it splits the items
+ * into smaller batches that are each imported in their own transaction,
+ * recursively, until the failing item(s) have been isolated.  Items that fail
+ * on their own are reported as errors, and everything else gets committed.
+ *
+ * The transactions themselves are run by the caller-supplied
+ * <code>Transaction</code>.
+ */
+final class BatchSplitter
+{
+    private final static Log log = LogFactory.getLog(BatchSplitter.class);
+
+    /**
+     * Imports a batch (or part of a batch) in a single transaction.
+     */
+    interface Transaction
+    {
+        /**
+         * @param batch The batch to import <i>(will not be null or empty)</i>.
+         * @return The number of transaction attempts (i.e. 1 + the number of retries) it took.
+         * @throws ItemImportException  If an item failed the transaction (which has been rolled back).
+         * @throws InterruptedException If the import was interrupted.
+         */
+        <T extends BulkImportItemVersion> int importBatch(Batch<T> batch)
+            throws InterruptedException;
+    }
+
+
+    private final WritableBulkImportStatus                importStatus;
+    private final BoundedConcurrentCache<String, NodeRef> parentCache;
+
+
+    /**
+     * @param importStatus The import status to report errors and splits to <i>(must not be null)</i>.
+     * @param parentCache  The cache of parent folders, which folders created by rolled back transactions are removed from <i>(must not be null)</i>.
+     */
+    BatchSplitter(final WritableBulkImportStatus importStatus, final BoundedConcurrentCache<String, NodeRef> parentCache)
+    {
+        // PRECONDITIONS
+        assert importStatus != null : "importStatus must not be null.";
+        assert parentCache  != null : "parentCache must not be null.";
+
+        // Body
+        this.importStatus = importStatus;
+        this.parentCache  = parentCache;
+    }
+
+
+    /**
+     * Imports the given batch, splitting it as many times as necessary to isolate the items that fail.
+     *
+     * @param batch       The batch to import <i>(must not be null)</i>.
+     * @param transaction Runs each transaction <i>(must not be null)</i>.
+     * @return The largest number of transaction attempts any one of the transactions took (i.e. retries due to contention, not splits).
+     * @throws ItemImportException  If an item failed while the import was stopping.
+     * @throws InterruptedException If the import was interrupted.
+     */
+    <T extends BulkImportItemVersion> int importBatch(final Batch<T> batch, final Transaction transaction)
+        throws InterruptedException
+    {
+        int result = 0;
+
+        try
+        {
+            result = transaction.importBatch(batch);
+        }
+        catch (final ItemImportException iie)
+        {
+            if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw iie;
+
+            // Anything the rolled back transaction created is gone, so make sure we don't hang onto it
+            forgetFolders(batch);
+
+            if (batch.size() <= 1)
+            {
+                // Isolated - if the failure didn't say which item it was, it can only be this one
+                final BulkImportItem<?> failedItem = iie.getItem() != null || batch.size() == 0 ? iie.getItem() : batch.getContents().get(0);
+
+                if (debug(log)) debug(log, "Item " + String.valueOf(failedItem) + " in batch #" + batch.getNumber() + " failed on its own.");
+                importStatus.unexpectedError(failedItem == null ? "batch #" + batch.getNumber() : BulkImportTools.getCompleteSourcePath(failedItem), iie);
+                result = 1;
+            }
+            else
+            {
+                importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_BATCHES_SPLIT);
+
+                for (final Batch<T> part : split(batch, iie.getItem()))
+                {
+                    result = Math.max(result, importBatch(part, transaction));
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Removes the folders in the given batch from the parent cache, since the transaction that created them was rolled back.
+     *
+     * @param batch The batch whose transaction was rolled back <i>(must not be null)</i>.
+     */
+    void forgetFolders(final Batch<?> batch)
+    {
+        for (final BulkImportItem<?> item : batch)
+        {
+            if (item.isDirectory()) parentCache.remove(BulkImportTools.getCompleteTargetPath(item));
+        }
+    }
+
+
+    /*
+     * Splits the given batch around the given failed item (the items before it, the item by itself, and the items after it), or in half
+     * if the failed item isn't known.  Items before the failed one didn't fail the transaction, so will most likely commit together.
+     */
+    private final static <T extends BulkImportItemVersion>
+    List<Batch<T>> split(final Batch<T> batch, final BulkImportItem<?> failedItem)
+    {
+        final List<Batch<T>>          result   = new ArrayList<>();
+        final List<BulkImportItem<T>> contents = batch.getContents();
+        int                           index    = -1;
+
+        for (int i = 0; failedItem != null && i < contents.size(); i++)
+        {
+            if (contents.get(i) == failedItem)
+            {
+                index = i;
+                break;
+            }
+        }
+
+        final int[] boundaries = index < 0 ? new int[] { 0, contents.size() / 2, contents.size() }
+                                           : new int[] { 0, index, index + 1, contents.size() };
+
+        for (int i = 0; i < boundaries.length - 1; i++)
+        {
+            if (boundaries[i] < boundaries[i + 1])
+            {
+                result.add(new Batch<T>(batch.getNumber(), new ArrayList<BulkImportItem<T>>(contents.subList(boundaries[i], boundaries[i + 1]))));
+            }
+        }
+
+        return(result);
+    }
+
+}
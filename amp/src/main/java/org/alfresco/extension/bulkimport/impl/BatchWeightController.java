@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class adjusts the batch weight during an import, so that each batch's
+ * transaction takes roughly a target amount of time.  It keeps a smoothed
+ * estimate of the time taken per unit of batch weight (from the batches that
+ * have completed so far), and moves the batch weight towards the weight that
+ * estimate predicts would meet the target.  Batches that needed more than one
+ * transaction attempt (i.e. that were retried due to contention) halve the
+ * batch weight instead.
+ *
+ * A target duration of zero (or less) disables adjustment - the batch weight
+ * remains at its initial value (the bounds are ignored), though batch
+ * durations are still reported.
+ *
+ * Instances are per-import, and are thread safe.
+ */
+public final class BatchWeightController
+{
+    private final static Log log = LogFactory.getLog(BatchWeightController.class);
+
+    private final static double SMOOTHING_FACTOR       = 0.3;  // Weight given to the latest batch in the smoothed duration per unit of weight
+    private final static double MAX_ADJUSTMENT_FACTOR  = 2.0;  // Never more than double or halve the weight in one step
+    private final static double ADJUSTMENT_THRESHOLD   = 0.1;  // Ignore adjustments of less than 10%, to avoid flapping
+
+    private final WritableBulkImportStatus importStatus;
+    private final int                      minBatchWeight;
+    private final int                      maxBatchWeight;
+    private final long                     targetBatchDurationInNs;
+
+    private int    batchWeight;
+    private double nsPerUnitOfWeight = -1.0;
+
+
+    /**
+     * @param importStatus              The import status to report the batch weight to <i>(must not be null)</i>.
+     * @param initialBatchWeight        The batch weight to start with <i>(must be &gt; 0, and is only bounded by the min and max if adjustment is enabled)</i>.
+     * @param minBatchWeight            The minimum batch weight, when adjustment is enabled <i>(&lt;= 0 means 1)</i>.
+     * @param maxBatchWeight            The maximum batch weight, when adjustment is enabled <i>(&lt;= 0 means no maximum)</i>.
+     * @param targetBatchDurationInMs   The target duration of each batch, in milliseconds <i>(&lt;= 0 disables adjustment)</i>.
+     */
+    public BatchWeightController(final WritableBulkImportStatus importStatus,
+                                 final int                      initialBatchWeight,
+                                 final int                      minBatchWeight,
+                                 final int                      maxBatchWeight,
+                                 final long                     targetBatchDurationInMs)
+    {
+        // PRECONDITIONS
+        assert importStatus       != null : "importStatus must not be null.";
+        assert initialBatchWeight >  0    : "initialBatchWeight must be > 0.";
+
+        // Body
+        this.importStatus            = importStatus;
+        this.minBatchWeight          = Math.max(1, minBatchWeight);
+        this.maxBatchWeight          = maxBatchWeight <= 0 ? Integer.MAX_VALUE : Math.max(this.minBatchWeight, maxBatchWeight);
+        this.targetBatchDurationInNs = targetBatchDurationInMs <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(targetBatchDurationInMs);
+        this.batchWeight             = isAdaptive() ? clamp(initialBatchWeight) : initialBatchWeight;
+    }
+
+
+    /**
+     * @return The batch weight that new batches should be cut at.
+     */
+    public synchronized int getBatchWeight()
+    {
+        return(batchWeight);
+    }
+
+
+    /**
+     * @return True if the batch weight is adjusted as batches complete.
+     */
+    public boolean isAdaptive()
+    {
+        return(targetBatchDurationInNs > 0);
+    }
+
+
+    /**
+     * Records the completion of a batch, adjusting the batch weight if necessary.
+     *
+     * @param batch        The batch that completed <i>(must not be null)</i>.
+     * @param durationInNs How long the batch took to import (including any retries), in nanoseconds.
+     * @param attempts     The number of transaction attempts the batch took (1 if it wasn't retried).
+     */
+    public synchronized void batchCompleted(final Batch<?> batch, final long durationInNs, final int attempts)
+    {
+        String reason = null;
+
+        if (isAdaptive())
+        {
+            if (attempts > 1)
+            {
+                // Retries indicate contention - back off immediately, regardless of duration
+                reason = adjust(batchWeight / 2, "Batch #" + batch.getNumber() + " took " + attempts + " attempts");
+            }
+            else
+            {
+                final double latest = (double)durationInNs / Math.max(1, batch.getWeight());
+
+                nsPerUnitOfWeight = nsPerUnitOfWeight < 0 ? latest : SMOOTHING_FACTOR * latest + (1.0 - SMOOTHING_FACTOR) * nsPerUnitOfWeight;
+
+                final double idealWeight = targetBatchDurationInNs / Math.max(1.0, nsPerUnitOfWeight);
+                final double limited     = Math.max(batchWeight / MAX_ADJUSTMENT_FACTOR, Math.min(batchWeight * MAX_ADJUSTMENT_FACTOR, idealWeight));
+
+                if (Math.abs(limited - batchWeight) > batchWeight * ADJUSTMENT_THRESHOLD)
+                {
+                    reason = adjust((int)Math.round(limited),
+                                    "Batch #" + batch.getNumber() + " took " + TimeUnit.NANOSECONDS.toMillis(durationInNs) + "ms" +
+                                    (limited > batchWeight ? " (under" : " (over") + " the target of " + TimeUnit.NANOSECONDS.toMillis(targetBatchDurationInNs) + "ms)");
+                }
+            }
+        }
+
+        importStatus.batchWeightUpdated(batchWeight, durationInNs, reason);
+    }
+
+
+    /*
+     * Returns a description of the adjustment, or null if the (clamped) batch weight didn't change.
+     */
+    private String adjust(final int newBatchWeight, final String cause)
+    {
+        final int oldBatchWeight = batchWeight;
+        String    result         = null;
+
+        batchWeight = clamp(newBatchWeight);
+
+        if (batchWeight != oldBatchWeight)
+        {
+            result = cause + " - batch weight adjusted from " + oldBatchWeight + " to " + batchWeight;
+            if (debug(log)) debug(log, result + ".");
+        }
+
+        return(result);
+    }
+
+
+    private int clamp(final int value)
+    {
+        return(Math.max(minBatchWeight, Math.min(maxBatchWeight, value)));
+    }
+
+}
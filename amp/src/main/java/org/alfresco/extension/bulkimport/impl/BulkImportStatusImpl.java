@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
@@ -36,6 +37,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.extension.bulkimport.BulkImportErrorInfo;
+import org.alfresco.extension.bulkimport.BulkImportThreadPoolSizeChange;
 import org.alfresco.extension.bulkimport.source.BulkImportSource;
 
 
@@ -154,6 +156,8 @@ public class BulkImportStatusImpl
 		}
 	}
 
+    private final static int MAX_THREAD_POOL_SIZE_HISTORY = 100;
+
     // General information
     private AtomicBoolean                inProgress            = new AtomicBoolean(false);
     private volatile ProcessingState     state                 = ProcessingState.NEVER_RUN;
@@ -170,9 +174,12 @@ public class BulkImportStatusImpl
     private Long                         endScanNs             = null;
     private Long                         endNs                 = null;
     private Collection<BulkImportErrorInfo> errorInfo          = new ConcurrentLinkedQueue<>();
+    private Queue<BulkImportThreadPoolSizeChange> threadPoolSizeHistory = new ConcurrentLinkedQueue<>();
     private String                       currentlyScanning     = null;
     private String                       currentlyImporting    = null;
-    private long                         batchWeight           = 0;
+    private volatile long                batchWeight           = 0;
+    private volatile Long                lastBatchDurationInNs = null;
+    private volatile String              lastBatchWeightAdjustment = null;
     private BulkImportThreadPoolExecutor threadPool            = null;
 
     // Counters
@@ -280,7 +287,12 @@ public class BulkImportStatusImpl
 
     @Override public Collection<BulkImportErrorInfo> getErrorInfo() { return this.errorInfo; }
 
+    @Override public Collection<BulkImportThreadPoolSizeChange> getThreadPoolSizeHistory() { return Collections.unmodifiableCollection(this.threadPoolSizeHistory); }
+
     @Override public long        getBatchWeight()                                                        { return(batchWeight); }
+    @Override public Long        getLastBatchDurationInNs()                                              { return(lastBatchDurationInNs); }
+    @Override public String      getLastBatchDuration()                                                  { Long lastBatchDurationInNs = this.lastBatchDurationInNs; return(lastBatchDurationInNs == null ? null : getHumanReadableDuration(lastBatchDurationInNs)); }
+    @Override public String      getLastBatchWeightAdjustment()                                          { return(lastBatchWeightAdjustment); }
     @Override public int         getQueueSize()                                                          { return(threadPool == null ? 0 : threadPool.getQueueSize()); }
     @Override public int         getQueueCapacity()                                                      { return(threadPool == null ? 0 : threadPool.getQueueCapacity()); }
     @Override public int         getNumberOfActiveThreads()                                              { return(threadPool == null ? 0 : threadPool.getActiveCount()); }
@@ -330,6 +342,10 @@ public class BulkImportStatusImpl
         this.currentlyScanning  = null;
         this.currentlyImporting = null;
 
+        this.lastBatchDurationInNs     = null;
+        this.lastBatchWeightAdjustment = null;
+        this.threadPoolSizeHistory.clear();
+
         this.endScanNs   = null;
         this.scanEndDate = null;
         this.endDate     = null;
@@ -391,6 +407,29 @@ public class BulkImportStatusImpl
         incrementTargetCounter(TARGET_COUNTER_ASPECTS_ASSOCIATED,           batch.numberOfAspects());
     }
 
+    @Override
+    public void batchWeightUpdated(final long batchWeight, final long lastBatchDurationInNs, final String adjustment)
+    {
+        this.batchWeight           = batchWeight;
+        this.lastBatchDurationInNs = Long.valueOf(lastBatchDurationInNs);
+
+        if (adjustment != null)
+        {
+            this.lastBatchWeightAdjustment = adjustment;
+        }
+    }
+
+    @Override
+    public void threadPoolSizeChanged(final BulkImportThreadPoolSizeChange change)
+    {
+        threadPoolSizeHistory.add(change);
+
+        while (threadPoolSizeHistory.size() > MAX_THREAD_POOL_SIZE_HISTORY)
+        {
+            threadPoolSizeHistory.poll();
+        }
+    }
+
     private Counter ensureExists(ConcurrentMap<String, Counter> map, String counterName, long initial)
     {
     	return map.putIfAbsent(counterName, new Counter(counterName, initial));
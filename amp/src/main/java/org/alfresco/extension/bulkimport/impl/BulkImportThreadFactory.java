@@ -35,10 +35,26 @@ public class BulkImportThreadFactory
 {
     private final static String THREAD_NAME_PREFIX = "BulkImport-Importer-";
     
+    private final String        threadNamePrefix;
     private final DecimalFormat decimalFormat       = new DecimalFormat("0000");
     private final AtomicLong    currentThreadNumber = new AtomicLong(0);
     
     
+    public BulkImportThreadFactory()
+    {
+        this(THREAD_NAME_PREFIX);
+    }
+    
+    
+    /**
+     * @param threadNamePrefix The prefix for the names of the threads created by this factory <i>(must not be null)</i>.
+     */
+    public BulkImportThreadFactory(final String threadNamePrefix)
+    {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+    
+    
     /**
      * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
      */
@@ -47,7 +63,7 @@ public class BulkImportThreadFactory
     {
         final Thread result = Executors.defaultThreadFactory().newThread(runnable);
         
-        result.setName(THREAD_NAME_PREFIX + decimalFormat.format(currentThreadNumber.incrementAndGet()));
+        result.setName(threadNamePrefix + decimalFormat.format(currentThreadNumber.incrementAndGet()));
         result.setDaemon(true);
         
         return(result);
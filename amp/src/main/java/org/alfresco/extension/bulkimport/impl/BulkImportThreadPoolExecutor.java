@@ -45,10 +45,15 @@ public class BulkImportThreadPoolExecutor
     private final static long     DEFAULT_KEEP_ALIVE_TIME      = 10L;
     private final static TimeUnit DEFAULT_KEEP_ALIVE_TIME_UNIT = TimeUnit.MINUTES;
     private final static int      DEFAULT_QUEUE_CAPACITY       = 100;  // Batches
+    private final static int      DEFAULT_MIN_SIZE_DIVISOR     = 2;    // The default minimum is half the initial pool size
+    private final static int      DEFAULT_MAX_SIZE_MULTIPLIER  = 2;    // The default maximum is twice the initial pool size
 
-    private final int          queueCapacity;
-    private final ThreadPauser pauser;
-    private final Semaphore    queueSemaphore;
+    private final int                 queueCapacity;
+    private final ThreadPauser        pauser;
+    private final ResizableSemaphore  queueSemaphore;
+    private final int                 minThreadPoolSize;
+    private final int                 maxThreadPoolSize;
+    private final long                tuningIntervalInMs;
 
 
     public BulkImportThreadPoolExecutor(final ThreadPauser pauser,
@@ -56,6 +61,26 @@ public class BulkImportThreadPoolExecutor
                                         final int          queueCapacity,
                                         final long         keepAliveTime,
                                         final TimeUnit     keepAliveTimeUnit)
+    {
+        this(pauser, threadPoolSize, queueCapacity, keepAliveTime, keepAliveTimeUnit, 0, 0, 0);
+    }
+
+
+    /**
+     * Note: the tuning range always includes the initial pool size, so that tuning starts from it, rather than jumping to a bound.
+     *
+     * @param minThreadPoolSize  The smallest size the pool may be tuned down to <i>(&lt;= 0 means half the initial pool size)</i>.
+     * @param maxThreadPoolSize  The largest size the pool may be tuned up to <i>(&lt;= 0 means twice the initial pool size)</i>.
+     * @param tuningIntervalInMs How often, in milliseconds, the pool size is tuned during an import <i>(&lt;= 0 means the pool size is fixed)</i>.
+     */
+    public BulkImportThreadPoolExecutor(final ThreadPauser pauser,
+                                        final int          threadPoolSize,
+                                        final int          queueCapacity,
+                                        final long         keepAliveTime,
+                                        final TimeUnit     keepAliveTimeUnit,
+                                        final int          minThreadPoolSize,
+                                        final int          maxThreadPoolSize,
+                                        final long         tuningIntervalInMs)
     {
         super(threadPoolSize    <= 0    ? DEFAULT_THREAD_POOL_SIZE     : threadPoolSize,      // Core pool size
               threadPoolSize    <= 0    ? DEFAULT_THREAD_POOL_SIZE     : threadPoolSize,      // Max pool size (same as core pool size)
@@ -70,13 +95,20 @@ public class BulkImportThreadPoolExecutor
 
         final int queuePlusPoolSize = (queueCapacity  <= 0 ? DEFAULT_QUEUE_CAPACITY   : queueCapacity) +
                                       (threadPoolSize <= 0 ? DEFAULT_THREAD_POOL_SIZE : threadPoolSize);
-        this.queueSemaphore = new Semaphore(queuePlusPoolSize);
+        this.queueSemaphore = new ResizableSemaphore(queuePlusPoolSize);
+
+        final int initialThreadPoolSize = getCorePoolSize();
+
+        this.minThreadPoolSize  = Math.min(initialThreadPoolSize, minThreadPoolSize <= 0 ? Math.max(1, initialThreadPoolSize / DEFAULT_MIN_SIZE_DIVISOR) : minThreadPoolSize);
+        this.maxThreadPoolSize  = Math.max(initialThreadPoolSize, maxThreadPoolSize <= 0 ? initialThreadPoolSize * DEFAULT_MAX_SIZE_MULTIPLIER : maxThreadPoolSize);
+        this.tuningIntervalInMs = tuningIntervalInMs;
 
         if (debug(log)) debug(log, "Created new bulk import thread pool." +
                                    " Thread Pool Size="        + (threadPoolSize    <= 0    ? DEFAULT_THREAD_POOL_SIZE     : threadPoolSize) +
                                    ", Queue Capacity="         + ((queueCapacity    <= 0    ? DEFAULT_QUEUE_CAPACITY       : queueCapacity) + 2) +
                                    ", Keep Alive Time="        + (keepAliveTime     <= 0    ? DEFAULT_KEEP_ALIVE_TIME      : keepAliveTime)  +
-                                   " "                         + String.valueOf(keepAliveTimeUnit == null ? DEFAULT_KEEP_ALIVE_TIME_UNIT : keepAliveTimeUnit));
+                                   " "                         + String.valueOf(keepAliveTimeUnit == null ? DEFAULT_KEEP_ALIVE_TIME_UNIT : keepAliveTimeUnit) +
+                                   (tuningIntervalInMs > 0 ? ", Tuned Between " + this.minThreadPoolSize + " and " + this.maxThreadPoolSize + " Threads Every " + tuningIntervalInMs + "ms" : ""));
     }
 
 
@@ -118,11 +150,39 @@ public class BulkImportThreadPoolExecutor
             throw new RuntimeException(ie);   // Checked exceptions are the bane of my existence...
         }
 
+        executePermitted(command);
+    }
+
+
+    /**
+     * Submits the given command, unless the worker threads are saturated - unlike <code>execute</code>, this never blocks.
+     *
+     * @param command The command to execute <i>(must not be null)</i>.
+     * @return True if the command was submitted, false if the worker threads are saturated.
+     */
+    public boolean tryExecute(final Runnable command)
+    {
+        boolean result = false;
+
+        if (queueSemaphore.tryAcquire())
+        {
+            executePermitted(command);
+            result = true;
+        }
+
+        return(result);
+    }
+
+
+    // Note: the caller must have acquired a permit from queueSemaphore
+    private void executePermitted(final Runnable command)
+    {
         try
         {
             if (super.isTerminating() || super.isShutdown() || super.isTerminated())
             {
                 if (debug(log)) debug(log, "New work submitted during shutdown - ignoring new work.");
+                queueSemaphore.release();
             }
             else
             {
@@ -182,4 +242,81 @@ public class BulkImportThreadPoolExecutor
         return(getQueue().isEmpty());
     }
 
+
+    /**
+     * @return The smallest size the pool may be tuned down to.
+     */
+    public int getMinThreadPoolSize()
+    {
+        return(minThreadPoolSize);
+    }
+
+
+    /**
+     * @return The largest size the pool may be tuned up to.
+     */
+    public int getMaxThreadPoolSize()
+    {
+        return(maxThreadPoolSize);
+    }
+
+
+    /**
+     * @return How often, in milliseconds, the pool size should be tuned (&lt;= 0 means never).
+     */
+    public long getTuningIntervalInMs()
+    {
+        return(tuningIntervalInMs);
+    }
+
+
+    /**
+     * Resizes the pool (both core and maximum size), along with the back-pressure limit on
+     * submitted work, which covers both queued and running batches.  Surplus threads exit
+     * once they finish their current batch.
+     *
+     * @param threadPoolSize The new size of the pool <i>(must be &gt; 0)</i>.
+     */
+    public synchronized void setThreadPoolSize(final int threadPoolSize)
+    {
+        // PRECONDITIONS
+        if (threadPoolSize <= 0) throw new IllegalArgumentException("threadPoolSize must be > 0.");
+
+        // Body
+        final int oldThreadPoolSize = getCorePoolSize();
+
+        if (threadPoolSize > oldThreadPoolSize)
+        {
+            // Core must never exceed max, so grow max first
+            setMaximumPoolSize(threadPoolSize);
+            setCorePoolSize(threadPoolSize);
+            queueSemaphore.release(threadPoolSize - oldThreadPoolSize);
+        }
+        else if (threadPoolSize < oldThreadPoolSize)
+        {
+            setCorePoolSize(threadPoolSize);
+            setMaximumPoolSize(threadPoolSize);
+            queueSemaphore.reducePermits(oldThreadPoolSize - threadPoolSize);
+        }
+    }
+
+
+    // Exposes Semaphore.reducePermits, so that the back-pressure limit can shrink along with the pool
+    private final static class ResizableSemaphore
+        extends Semaphore
+    {
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(final int permits)
+        {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(final int reduction)
+        {
+            super.reducePermits(reduction);
+        }
+    }
+
 }
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.alfresco.extension.bulkimport.util.ThreadPauser;
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -74,6 +75,14 @@ public abstract class BulkImporterImpl   // Note: this class is only abstract be
     private final ThreadPauser                      pauser;
     private final BatchImporter                     batchImporter;
     private final int                               batchWeight;
+    private final int                               minBatchWeight;
+    private final int                               maxBatchWeight;
+    private final long                              targetBatchDurationInMs;
+    private final boolean                           pipelined;
+    private final int                               maxParkedItems;
+    private final MetadataPrefetcher                metadataPrefetcher;
+    private final DictionarySymbolTable             symbolTable;
+    private final DryRunReporter                    dryRunReporter;
     private final List<BulkImportCompletionHandler> completionHandlers;
 
     private ApplicationContext appContext;
@@ -82,12 +91,35 @@ public abstract class BulkImporterImpl   // Note: this class is only abstract be
     private Thread scannerThread;
 
 
+    /**
+     * @param minBatchWeight          The smallest batch weight the batch weight may be adjusted down to <i>(&lt;= 0 means 1)</i>.
+     * @param maxBatchWeight          The largest batch weight the batch weight may be adjusted up to <i>(&lt;= 0 means no maximum)</i>.
+     * @param targetBatchDurationInMs The duration, in milliseconds, that the batch weight is adjusted to hold each batch's transaction near
+     *                                <i>(&lt;= 0 means the batch weight is not adjusted)</i>.
+     * @param pipelined               Flag indicating whether file import may start before folder import has finished (each file
+     *                                is held back until its own folder has been committed).
+     * @param maxParkedItems          In pipelined mode, the most file items that may be held back waiting for their folders before
+     *                                scanning blocks <i>(&lt;= 0 means the default)</i>.
+     * @param metadataPrefetcher      Loads the metadata of queued batches before they're imported <i>(may be null, meaning metadata
+     *                                is loaded by the thread that imports the batch)</i>.
+     * @param symbolTable             The type, aspect and property names resolved during an import, which are forgotten at the start of
+     *                                each import <i>(may be null)</i>.
+     * @param dryRunReporter          Writes the faults found by dry runs to a report file <i>(may be null)</i>.
+     */
     public BulkImporterImpl(final ServiceRegistry                   serviceRegistry,
                             final WritableBulkImportStatus          importStatus,
                             final ThreadPauser                      pauser,
                             final BatchImporter                     batchImporter,
                             final int                               batchWeight,
-                            final List<BulkImportCompletionHandler> completionHandlers)
+                            final List<BulkImportCompletionHandler> completionHandlers,
+                            final int                               minBatchWeight,
+                            final int                               maxBatchWeight,
+                            final long                              targetBatchDurationInMs,
+                            final boolean                           pipelined,
+                            final int                               maxParkedItems,
+                            final MetadataPrefetcher                metadataPrefetcher,
+                            final DictionarySymbolTable             symbolTable,
+                            final DryRunReporter                    dryRunReporter)
     {
         // PRECONDITIONS
         assert serviceRegistry != null : "serviceRegistry must not be null.";
@@ -107,6 +139,15 @@ public abstract class BulkImporterImpl   // Note: this class is only abstract be
         this.batchImporter = batchImporter;
         this.batchWeight   = batchWeight <= 0 ? DEFAULT_BATCH_WEIGHT : batchWeight;
 
+        this.minBatchWeight          = minBatchWeight;
+        this.maxBatchWeight          = maxBatchWeight;
+        this.targetBatchDurationInMs = targetBatchDurationInMs;
+        this.pipelined               = pipelined;
+        this.maxParkedItems          = maxParkedItems;
+        this.metadataPrefetcher      = metadataPrefetcher;
+        this.symbolTable             = symbolTable;
+        this.dryRunReporter          = dryRunReporter;
+
         this.completionHandlers = completionHandlers;
     }
 
@@ -201,10 +242,13 @@ public abstract class BulkImporterImpl   // Note: this class is only abstract be
         // Make sure all counters are cleared
         importStatus.resetCounters();
 
+        // Pick up any data dictionary changes made since the last import
+        if (symbolTable != null) symbolTable.clear();
+
         // Create the threads used by the bulk import tool
         scannerThread = new Thread(new Scanner(serviceRegistry,
                                                AuthenticationUtil.getRunAsUser(),
-                                               batchWeight,
+                                               new BatchWeightController(importStatus, batchWeight, minBatchWeight, maxBatchWeight, targetBatchDurationInMs),
                                                importStatus,
                                                pauser,
                                                source,
@@ -212,7 +256,11 @@ public abstract class BulkImporterImpl   // Note: this class is only abstract be
                                                target,
                                                createThreadPool(),
                                                batchImporter,
-                                               completionHandlers));
+                                               completionHandlers,
+                                               pipelined,
+                                               maxParkedItems,
+                                               metadataPrefetcher,
+                                               dryRunReporter));
 
         scannerThread.setName(SCANNER_THREAD_NAME);
         scannerThread.setDaemon(true);
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+
+import org.alfresco.extension.bulkimport.BulkImportStatus;
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class copies ("stages") large content files into the content store
+ * before the transaction that imports their metadata starts, using its own,
+ * separately sized, I/O thread pool.  The transaction then only has to bind
+ * the resulting <code>ContentData</code> to the node, so transaction times no
+ * longer depend on file size, and I/O concurrency can be tuned independently
+ * of database concurrency.
+ *
+ * Staged content isn't referenced by any node until the metadata transaction
+ * commits - if that never happens (e.g. the node already exists and isn't
+ * being replaced, or the import is stopped), the content is left orphaned, and
+ * is removed by Alfresco's orphaned content cleanup in due course.
+ */
+public final class ContentStager
+{
+    private final static Log log = LogFactory.getLog(ContentStager.class);
+
+    private final static String THREAD_NAME_PREFIX = "BulkImport-Content-";
+
+    public final static long DEFAULT_STAGING_THRESHOLD_IN_BYTES = 100L * 1024 * 1024;
+
+    private final ContentService           contentService;
+    private final WritableBulkImportStatus importStatus;
+    private final long                     stagingThresholdInBytes;
+    private final ThreadPoolExecutor       ioThreadPool;
+
+
+    /**
+     * @param threadPoolSize          The number of threads that copy content concurrently <i>(&lt;= 0 means the number of CPU cores)</i>.
+     * @param stagingThresholdInBytes The size (in bytes) at or above which content is staged, rather than being streamed in the metadata
+     *                                transaction <i>(&lt;= 0 means content is never staged)</i>.
+     */
+    public ContentStager(final ServiceRegistry          serviceRegistry,
+                         final WritableBulkImportStatus importStatus,
+                         final int                      threadPoolSize,
+                         final long                     stagingThresholdInBytes)
+    {
+        // PRECONDITIONS
+        assert serviceRegistry != null : "serviceRegistry must not be null.";
+        assert importStatus    != null : "importStatus must not be null.";
+
+        // Body
+        final int size = threadPoolSize > 0 ? threadPoolSize : Runtime.getRuntime().availableProcessors();
+
+        this.contentService          = serviceRegistry.getContentService();
+        this.importStatus            = importStatus;
+        this.stagingThresholdInBytes = stagingThresholdInBytes;
+        this.ioThreadPool            = new ThreadPoolExecutor(size,
+                                                              size,
+                                                              1,
+                                                              TimeUnit.MINUTES,
+                                                              new LinkedBlockingQueue<Runnable>(),
+                                                              new BulkImportThreadFactory(THREAD_NAME_PREFIX));
+        this.ioThreadPool.allowCoreThreadTimeOut(true);  // Don't tie up threads between imports
+    }
+
+
+    /**
+     * @return True if content is ever staged.
+     */
+    public boolean isEnabled()
+    {
+        return(stagingThresholdInBytes > 0);
+    }
+
+
+    /**
+     * @param item The item to check <i>(must not be null)</i>.
+     * @return True if (some of) the given item's content would be staged.
+     */
+    public boolean isStageable(final BulkImportItem<?> item)
+    {
+        boolean result = false;
+
+        if (isEnabled() && !item.isDirectory())
+        {
+            for (final BulkImportItemVersion version : item.getVersions())
+            {
+                if (isStageable(version))
+                {
+                    result = true;
+                    break;
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Starts copying the (large) content of each version of the given items into the content store, then waits for every copy to
+     * complete (successfully or not).
+     *
+     * @param userId The userId to copy the content as <i>(must not be null)</i>.
+     * @param items  The items whose content should be staged <i>(must not be null, but may be empty)</i>.
+     * @return The staged content of each version (keyed by identity), as completed futures - <code>get</code> rethrows any failure
+     *         to stage the content, which should be reported against the item in the usual way <i>(will not be null)</i>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting, in which case outstanding copies are cancelled.
+     */
+    public Map<BulkImportItemVersion, Future<ContentData>> stage(final String userId, final Collection<BulkImportItem<?>> items)
+        throws InterruptedException
+    {
+        final Map<BulkImportItemVersion, Future<ContentData>> result = new IdentityHashMap<>();
+
+        for (final BulkImportItem<?> item : items)
+        {
+            for (final BulkImportItemVersion version : item.getVersions())
+            {
+                if (isStageable(version))
+                {
+                    result.put(version, ioThreadPool.submit(new StageContent(userId, version)));
+                }
+            }
+        }
+
+        try
+        {
+            for (final Future<ContentData> future : result.values())
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (final ExecutionException ee)
+                {
+                    // Reported when the item is imported
+                }
+            }
+        }
+        catch (final InterruptedException ie)
+        {
+            for (final Future<ContentData> future : result.values())
+            {
+                future.cancel(true);
+            }
+
+            throw ie;
+        }
+
+        return(result);
+    }
+
+
+    private boolean isStageable(final BulkImportItemVersion version)
+    {
+        return(version.hasContent() && !version.contentIsInPlace() && version.sizeInBytes() >= stagingThresholdInBytes);
+    }
+
+
+    private final class StageContent
+        implements Callable<ContentData>
+    {
+        private final String                userId;
+        private final BulkImportItemVersion version;
+
+        private StageContent(final String userId, final BulkImportItemVersion version)
+        {
+            this.userId  = userId;
+            this.version = version;
+        }
+
+        @Override
+        public ContentData call()
+            throws Exception
+        {
+            return(AuthenticationUtil.runAs(new RunAsWork<ContentData>()
+            {
+                @Override
+                public ContentData doWork()
+                    throws Exception
+                {
+                    final long start = System.nanoTime();
+
+                    if (trace(log)) trace(log, "Staging content from '" + version.getContentSource() + "'.");
+
+                    // A writer that isn't bound to any node - the metadata transaction binds the resulting content URL to the node
+                    final ContentWriter writer = contentService.getWriter(null, null, false);
+
+                    version.putContent(writer);
+                    importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_CONTENT_STAGED);
+
+                    if (debug(log)) debug(log, "Staged " + version.sizeInBytes() + " bytes from '" + version.getContentSource() + "' in " +
+                                               getDurationInSeconds(System.nanoTime() - start) + ".");
+
+                    return(writer.getContentData());
+                }
+            }, userId));
+        }
+    }
+
+}
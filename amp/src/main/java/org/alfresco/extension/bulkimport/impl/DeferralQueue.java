@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+
+
+/**
+ * This class holds items that couldn't be imported because their parent
+ * didn't exist yet (i.e. that hit an <code>OutOfOrderBatchException</code>),
+ * keyed by the missing parent path.  Once a batch that creates that parent
+ * commits, the items become ready to be resubmitted.
+ *
+ * The parent may be committed by another batch before the item is deferred
+ * (between the item's batch failing to find it, and that batch completing), so
+ * the queue also remembers the most recently committed folders, and items
+ * waiting for one of those are ready straight away.  Older commits don't need to
+ * be remembered, since an item can only miss a commit that happened while its
+ * own batch was being imported (and items still waiting when the queue is
+ * closed get one last try anyway).
+ *
+ * An item may only be deferred a limited number of times, and once the queue
+ * has been closed (at the end of an import) no more items may be deferred.
+ *
+ * Instances are per-import, and are thread safe.
+ */
+final class DeferralQueue
+{
+    private final static int MAX_DEFERRALS_PER_ITEM = 3;
+    private final static int MAX_RECENTLY_COMMITTED = 10000;  // Folders
+
+    private final Map<String, List<BulkImportItem<?>>> waiting   = new HashMap<>();
+    private final Map<BulkImportItem<?>, Integer>      deferrals = new IdentityHashMap<>();
+    private final List<BulkImportItem<?>>              ready     = new ArrayList<>();
+    private final Set<String>                          recentlyCommitted;
+    private int                                        size      = 0;
+    private boolean                                    closed    = false;
+
+
+    DeferralQueue()
+    {
+        this.recentlyCommitted = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest)
+            {
+                return(size() > MAX_RECENTLY_COMMITTED);
+            }
+        });
+    }
+
+
+    /**
+     * @param missingParentPath The relative target path of the missing parent <i>(must not be null)</i>.
+     * @param item              The item to defer <i>(must not be null)</i>.
+     * @return True if the item was deferred (and may already be ready, if the parent has been committed in the meantime), false if
+     *         it's been deferred too many times already, or the queue is closed.
+     */
+    synchronized boolean defer(final String missingParentPath, final BulkImportItem<?> item)
+    {
+        boolean       result = false;
+        final Integer count  = deferrals.get(item);
+
+        if (!closed && (count == null || count < MAX_DEFERRALS_PER_ITEM))
+        {
+            if (recentlyCommitted.contains(missingParentPath))
+            {
+                // The parent was committed after the item's batch looked for it - no need to wait
+                ready.add(item);
+                notifyAll();
+            }
+            else
+            {
+                List<BulkImportItem<?>> items = waiting.get(missingParentPath);
+
+                if (items == null)
+                {
+                    items = new ArrayList<>();
+                    waiting.put(missingParentPath, items);
+                }
+
+                items.add(item);
+            }
+
+            deferrals.put(item, count == null ? 1 : count + 1);
+            size++;
+            result = true;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Records that the given paths have been committed, making any items waiting for them ready.
+     *
+     * @param paths The relative target paths of the folders that were committed <i>(must not be null)</i>.
+     */
+    synchronized void committed(final Collection<String> paths)
+    {
+        for (final String path : paths)
+        {
+            recentlyCommitted.add(path);
+
+            final List<BulkImportItem<?>> items = waiting.remove(path);
+
+            if (items != null)
+            {
+                ready.addAll(items);
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * @return The items that are ready to be resubmitted, removing them from the queue <i>(will not be null)</i>.
+     */
+    synchronized List<BulkImportItem<?>> drainReady()
+    {
+        final List<BulkImportItem<?>> result = new ArrayList<>(ready);
+
+        size -= ready.size();
+        ready.clear();
+
+        return(result);
+    }
+
+
+    /**
+     * Closes the queue, returning every item that's still waiting (so that it can be given one last try).
+     *
+     * @return The items that were still waiting <i>(will not be null)</i>.
+     */
+    synchronized List<BulkImportItem<?>> close()
+    {
+        final List<BulkImportItem<?>> result = new ArrayList<>();
+
+        for (final List<BulkImportItem<?>> items : waiting.values())
+        {
+            result.addAll(items);
+        }
+
+        size  -= result.size();
+        closed = true;
+        waiting.clear();
+
+        return(result);
+    }
+
+
+    /**
+     * @return True if there are no deferred items (waiting or ready).
+     */
+    synchronized boolean isEmpty()
+    {
+        return(size == 0);
+    }
+
+
+    /**
+     * @return True if there are items ready to be resubmitted.
+     */
+    synchronized boolean hasReady()
+    {
+        return(!ready.isEmpty());
+    }
+
+
+    /**
+     * Waits until items become ready, <code>signal</code> is called, or the timeout elapses.
+     */
+    synchronized void await(final long timeoutInMs)
+        throws InterruptedException
+    {
+        if (ready.isEmpty()) wait(timeoutInMs);
+    }
+
+
+    /**
+     * Wakes up any threads in <code>await</code>.
+     */
+    synchronized void signal()
+    {
+        notifyAll();
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkimport.DryRun;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+import static org.alfresco.extension.bulkimport.util.Utils.*;
+
+
+/**
+ * This class writes the faults found by a dry run to a report file as they're
+ * found, so that the results of validating a large source don't have to be
+ * gathered from the status page (or held in memory until the end).
+ *
+ * Only one import runs at a time, so a single instance is shared by every
+ * import, with each dry run writing to a new file.  Instances are thread safe.
+ */
+public final class DryRunReporter
+{
+    private final static Log log = LogFactory.getLog(DryRunReporter.class);
+
+    private final static String REPORT_FILE_PREFIX    = "bulk-import-dry-run-";
+    private final static String REPORT_FILE_SUFFIX    = ".txt";
+    private final static String REPORT_FILE_TIMESTAMP = "yyyyMMdd-HHmmss-SSS";
+    private final static int    MAX_REPORT_FILE_TRIES = 100;  // Dry runs started in the same millisecond (e.g. on other cluster nodes) get a numbered suffix
+
+    private final File reportDirectory;
+
+    private PrintWriter report      = null;
+    private File        reportFile  = null;
+    private long        faultyItems = 0;
+
+
+    /**
+     * @param reportDirectory The directory to write dry run reports to <i>(may be null or empty, meaning the JVM's temporary directory)</i>.
+     */
+    public DryRunReporter(final String reportDirectory)
+    {
+        this.reportDirectory = new File(reportDirectory == null || reportDirectory.trim().length() == 0 ? System.getProperty("java.io.tmpdir") : reportDirectory.trim());
+    }
+
+
+    /**
+     * Starts a new report, for a dry run that's just started.  If the report file can't be created, faults are only reported via the
+     * import status.
+     *
+     * @param sourceName The name of the source being dry run <i>(must not be null)</i>.
+     */
+    public synchronized void started(final String sourceName)
+    {
+        close();
+
+        final String baseName = REPORT_FILE_PREFIX + new SimpleDateFormat(REPORT_FILE_TIMESTAMP).format(new Date());
+        File         file     = new File(reportDirectory, baseName + REPORT_FILE_SUFFIX);
+
+        try
+        {
+            // Never overwrite another dry run's report - createNewFile is atomic, even across JVMs
+            for (int i = 1; !file.createNewFile(); i++)
+            {
+                if (i >= MAX_REPORT_FILE_TRIES) throw new IOException("Dry run report '" + file.getAbsolutePath() + "' already exists.");
+                file = new File(reportDirectory, baseName + "-" + i + REPORT_FILE_SUFFIX);
+            }
+
+            report      = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)));
+            reportFile  = file;
+            faultyItems = 0;
+
+            report.printf("Dry run of %s, started %s%n%n", sourceName, new Date());
+
+            if (info(log)) info(log, "Writing dry run report to '" + file.getAbsolutePath() + "'.");
+        }
+        catch (final IOException ioe)
+        {
+            if (warn(log)) warn(log, "Unable to create dry run report '" + file.getAbsolutePath() + "'. Faults will only be reported in the import status.", ioe);
+        }
+    }
+
+
+    /**
+     * Writes the faults of the given dry run to the report (if one has been started).
+     *
+     * @param dryRun The dry run of a single item <i>(must not be null)</i>.
+     */
+    public synchronized void report(final DryRun<?> dryRun)
+    {
+        if (report != null && dryRun.hasFaults())
+        {
+            faultyItems++;
+            report.println(dryRun.getErrorReport());
+            report.println(StringUtils.repeat('-', 80));
+        }
+    }
+
+
+    /**
+     * Completes the current report (if any).
+     *
+     * @return The report file <i>(will be null if no report was written)</i>.
+     */
+    public synchronized File finished()
+    {
+        final File result = reportFile;
+
+        if (report != null)
+        {
+            report.printf("%nDry run finished %s - %d item%s with faults.%n", new Date(), faultyItems, pluralise(faultyItems));
+
+            if (info(log)) info(log, "Dry run found " + faultyItems + " item" + pluralise(faultyItems) + " with faults. See '" + reportFile.getAbsolutePath() + "' for details.");
+        }
+
+        close();
+
+        return(result);
+    }
+
+
+    private void close()
+    {
+        if (report != null)
+        {
+            report.close();
+
+            if (report.checkError() && warn(log)) warn(log, "Error writing dry run report '" + reportFile.getAbsolutePath() + "'. It may be incomplete.");
+        }
+
+        report     = null;
+        reportFile = null;
+    }
+
+}
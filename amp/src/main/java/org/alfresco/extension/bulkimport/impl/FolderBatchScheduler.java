@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportTools;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class schedules the batches of the folder phase of an import onto the
+ * import thread pool, so that batches in disjoint subtrees are imported
+ * concurrently.  A batch is only started once every batch that creates one of
+ * its items' parent folders has committed - until then it waits.  Parent paths
+ * that aren't created by any batch of this import are assumed to exist already.
+ *
+ * Waiting batches are only ever dispatched by the thread calling
+ * <code>submit</code>, <code>dispatchReadyBatches</code>, <code>awaitProgress</code>
+ * or <code>awaitCompletion</code> (i.e. the scanner), never by the worker threads,
+ * since dispatching can block on the thread pool's back-pressure.  Of those,
+ * <code>dispatchReadyBatches</code> never blocks, so that the scanner can keep
+ * folder batches moving while it scans files in pipelined mode.
+ *
+ * In pipelined mode, the scanner also uses <code>isPending</code> to hold back
+ * file items until the folder they belong in has been committed, and
+ * <code>drainCommittedPaths</code> to find out which folders have been committed
+ * since it last looked (so that it only has to release the items waiting on
+ * those folders).
+ */
+final class FolderBatchScheduler
+{
+    private final static Log log = LogFactory.getLog(FolderBatchScheduler.class);
+
+    private final static long POLL_INTERVAL_IN_MS = 1000L;
+
+    private final BulkImportThreadPoolExecutor threadPool;
+
+    // Target paths created by batches that have been submitted but not yet completed, with the number of such batches for each
+    private final Map<String, Integer> pendingPaths = new HashMap<>();
+    private final List<ScheduledBatch> waiting      = new LinkedList<>();
+    private int                        running      = 0;
+    private volatile long              completions  = 0;
+    private boolean                    changed      = false;  // True if batches may have become ready since waiting was last checked
+
+    // Paths that have stopped being pending since drainCommittedPaths was last called (null if they're not being tracked)
+    private final List<String> committedPaths;
+
+
+    /**
+     * @param threadPool          The pool to import batches with <i>(must not be null)</i>.
+     * @param trackCommittedPaths Flag indicating whether to keep track of committed paths for <code>drainCommittedPaths</code>
+     *                            (if false, that method always returns an empty list).
+     */
+    FolderBatchScheduler(final BulkImportThreadPoolExecutor threadPool, final boolean trackCommittedPaths)
+    {
+        this.threadPool     = threadPool;
+        this.committedPaths = trackCommittedPaths ? new ArrayList<String>() : null;
+    }
+
+
+    /**
+     * Submits a batch, which will be run (via the given job) as soon as its parents have been committed.
+     *
+     * @param batch The batch to submit <i>(must not be null)</i>.
+     * @param job   The job that imports the batch <i>(must not be null)</i>.
+     * @throws IllegalStateException If the thread pool has been shut down (e.g. because an earlier folder batch failed).
+     */
+    void submit(final Batch<?> batch, final Runnable job)
+    {
+        final ScheduledBatch scheduled = new ScheduledBatch(batch, job);
+
+        synchronized(this)
+        {
+            for (final String path : scheduled.creates)
+            {
+                final Integer count = pendingPaths.get(path);
+                pendingPaths.put(path, count == null ? 1 : count + 1);
+            }
+
+            waiting.add(scheduled);
+            changed = true;
+        }
+
+        dispatchReadyBatches(true);
+    }
+
+
+    /**
+     * Dispatches any batches that have become ready, without blocking - batches that can't be dispatched because the thread
+     * pool is saturated are left waiting, and are dispatched by a later call.
+     *
+     * @throws IllegalStateException If the thread pool has been shut down (e.g. because an earlier folder batch failed).
+     */
+    void dispatchReadyBatches()
+    {
+        dispatchReadyBatches(false);
+    }
+
+
+    /**
+     * @param path The relative target path of a folder <i>(may be null or empty, meaning the target itself)</i>.
+     * @return True if the given folder is created by a batch that hasn't completed yet.
+     */
+    synchronized boolean isPending(final String path)
+    {
+        return(pendingPaths.containsKey(normalise(path)));
+    }
+
+
+    /**
+     * @return The relative target paths of the folders that have stopped being pending since this method was last called, in the order
+     *         they were committed <i>(will not be null, and is always empty if committed paths aren't being tracked)</i>.
+     */
+    synchronized List<String> drainCommittedPaths()
+    {
+        List<String> result = Collections.emptyList();
+
+        if (committedPaths != null && !committedPaths.isEmpty())
+        {
+            result = new ArrayList<>(committedPaths);
+            committedPaths.clear();
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The number of batches that have completed so far - this changes whenever folders stop being pending.
+     */
+    long getCompletions()
+    {
+        return(completions);
+    }
+
+
+    /**
+     * Dispatches any batches that have become ready, then waits (briefly) for another batch to complete.
+     *
+     * @return True if every submitted batch has completed.
+     * @throws InterruptedException  If the calling thread is interrupted while waiting.
+     * @throws IllegalStateException If the thread pool was shut down (e.g. because a folder batch failed) before every batch completed.
+     */
+    boolean awaitProgress()
+        throws InterruptedException
+    {
+        boolean result = false;
+
+        dispatchReadyBatches(true);
+
+        synchronized(this)
+        {
+            if (running == 0 && waiting.isEmpty())
+            {
+                result = true;
+            }
+            else
+            {
+                if (threadPool.isShutdown()) throw new IllegalStateException("Folder import terminated before all folder batches were imported.");
+
+                wait(POLL_INTERVAL_IN_MS);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Blocks until every submitted batch has completed.
+     *
+     * @throws InterruptedException  If the calling thread is interrupted while waiting.
+     * @throws IllegalStateException If the thread pool was shut down (e.g. because a folder batch failed) before every batch completed.
+     */
+    void awaitCompletion()
+        throws InterruptedException
+    {
+        while (!awaitProgress())
+        {
+            // Keep waiting
+        }
+    }
+
+
+    private void dispatchReadyBatches(final boolean block)
+    {
+        final List<ScheduledBatch> ready = new ArrayList<>();
+
+        synchronized(this)
+        {
+            if (!changed) return;
+            changed = false;
+
+            final Iterator<ScheduledBatch> iter = waiting.iterator();
+
+            while (iter.hasNext())
+            {
+                final ScheduledBatch scheduled = iter.next();
+
+                if (isReady(scheduled))
+                {
+                    iter.remove();
+                    ready.add(scheduled);
+                }
+            }
+
+            // If nothing is running and nothing is ready, the oldest batch has a parent that's created by a later batch (i.e. the source
+            // submitted a child before its parent) - run it anyway, and let it fail the same way it would have if it was run in order
+            if (ready.isEmpty() && running == 0 && !waiting.isEmpty())
+            {
+                final ScheduledBatch oldest = waiting.remove(0);
+
+                if (warn(log)) warn(log, "Batch #" + oldest.batch.getNumber() + " depends on folders submitted after it - importing it anyway.");
+                ready.add(oldest);
+            }
+
+            running += ready.size();
+        }
+
+        // Note: must not hold the lock here, as execute can block until a worker completes a batch (and workers need the lock to do so)
+        for (int i = 0; i < ready.size(); i++)
+        {
+            final ScheduledBatch scheduled = ready.get(i);
+
+            if (threadPool.isShutdown())
+            {
+                throw new IllegalStateException("Folder import terminated - batch #" + scheduled.batch.getNumber() + " was not imported.");
+            }
+
+            if (trace(log)) trace(log, "Dispatching folder batch #" + scheduled.batch.getNumber() + ".");
+
+            if (block)
+            {
+                threadPool.execute(scheduled);
+            }
+            else if (!threadPool.tryExecute(scheduled))
+            {
+                // The pool is saturated - put the rest back (at the front, to preserve their order) for a later call
+                undispatched(ready.subList(i, ready.size()));
+                break;
+            }
+        }
+    }
+
+
+    private synchronized void undispatched(final List<ScheduledBatch> scheduled)
+    {
+        waiting.addAll(0, scheduled);
+        running -= scheduled.size();
+        changed  = true;
+    }
+
+
+    private boolean isReady(final ScheduledBatch scheduled)
+    {
+        boolean result = true;
+
+        for (final String path : scheduled.requires)
+        {
+            if (pendingPaths.containsKey(path))
+            {
+                result = false;
+                break;
+            }
+        }
+
+        return(result);
+    }
+
+
+    private synchronized void completed(final ScheduledBatch scheduled)
+    {
+        running--;
+        completions++;
+        changed = true;
+
+        for (final String path : scheduled.creates)
+        {
+            final Integer count = pendingPaths.get(path);
+
+            if (count == null || count <= 1)
+            {
+                pendingPaths.remove(path);
+                if (committedPaths != null) committedPaths.add(path);
+            }
+            else
+            {
+                pendingPaths.put(path, count - 1);
+            }
+        }
+
+        notifyAll();
+    }
+
+
+    /*
+     * Returns the relative target path of the given item itself (the same key the batch importer caches parents under).
+     */
+    private static String getPath(final BulkImportItem<?> item)
+    {
+        final String parentPath = normalise(BulkImportTools.getRelativeTargetPath(item));
+        return(parentPath.length() == 0 ? item.getTargetName() : parentPath + "/" + item.getTargetName());
+    }
+
+
+    private static String normalise(final String path)
+    {
+        return(path == null ? "" : path);
+    }
+
+
+    private final class ScheduledBatch
+        implements Runnable
+    {
+        private final Batch<?>    batch;
+        private final Runnable    job;
+        private final Set<String> creates  = new HashSet<>();
+        private final Set<String> requires = new HashSet<>();
+
+        private ScheduledBatch(final Batch<?> batch, final Runnable job)
+        {
+            this.batch = batch;
+            this.job   = job;
+
+            for (final BulkImportItem<?> item : batch)
+            {
+                if (item.isDirectory()) creates.add(getPath(item));
+            }
+
+            for (final BulkImportItem<?> item : batch)
+            {
+                final String parentPath = normalise(BulkImportTools.getRelativeTargetPath(item));
+
+                // The target itself always exists, and parents created earlier in the same batch are taken care of by the batch itself
+                if (parentPath.length() > 0 && !creates.contains(parentPath)) requires.add(parentPath);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                job.run();
+            }
+            finally
+            {
+                completed(this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class loads the metadata of batches while they wait in the import
+ * thread pool's queue, using its own I/O thread pool.  Sources load metadata
+ * lazily (e.g. parsing metadata files, and constructing in-place content
+ * properties), so without prefetching that work happens on the worker thread,
+ * inside the batch's transaction.  With it, the transaction (usually) only has
+ * to write to the repository.
+ *
+ * Prefetching is best effort: failures are ignored (the worker thread will
+ * encounter, and report, the same failure when it imports the item), and a
+ * prefetch that hasn't started by the time its batch is imported is cancelled.
+ */
+public final class MetadataPrefetcher
+{
+    private final static Log log = LogFactory.getLog(MetadataPrefetcher.class);
+
+    private final static String THREAD_NAME_PREFIX = "BulkImport-Prefetch-";
+
+    private final ThreadPoolExecutor ioThreadPool;
+
+
+    /**
+     * @param threadPoolSize The number of threads that load metadata concurrently <i>(&lt;= 0 means metadata is never prefetched)</i>.
+     */
+    public MetadataPrefetcher(final int threadPoolSize)
+    {
+        if (threadPoolSize > 0)
+        {
+            this.ioThreadPool = new ThreadPoolExecutor(threadPoolSize,
+                                                       threadPoolSize,
+                                                       1,
+                                                       TimeUnit.MINUTES,
+                                                       new LinkedBlockingQueue<Runnable>(),
+                                                       new BulkImportThreadFactory(THREAD_NAME_PREFIX));
+            this.ioThreadPool.allowCoreThreadTimeOut(true);  // Don't tie up threads between imports
+        }
+        else
+        {
+            this.ioThreadPool = null;
+        }
+    }
+
+
+    /**
+     * @return True if metadata is ever prefetched.
+     */
+    public boolean isEnabled()
+    {
+        return(ioThreadPool != null);
+    }
+
+
+    /**
+     * Starts loading the metadata of the given batch in the background.
+     *
+     * @param userId The userId to load the metadata as <i>(must not be null)</i>.
+     * @param batch  The batch to load the metadata of <i>(must not be null)</i>.
+     * @return The prefetch, which should be cancelled when the batch is imported <i>(will be null if prefetching is disabled)</i>.
+     */
+    public Future<?> prefetch(final String userId, final Batch<?> batch)
+    {
+        Future<?> result = null;
+
+        if (isEnabled())
+        {
+            result = ioThreadPool.submit(new Prefetch(userId, batch));
+        }
+
+        return(result);
+    }
+
+
+    private final static class Prefetch
+        implements Runnable
+    {
+        private final String   userId;
+        private final Batch<?> batch;
+
+        private Prefetch(final String userId, final Batch<?> batch)
+        {
+            this.userId = userId;
+            this.batch  = batch;
+        }
+
+        @Override
+        public void run()
+        {
+            AuthenticationUtil.runAs(new RunAsWork<Object>()
+            {
+                @Override
+                public Object doWork()
+                    throws Exception
+                {
+                    final long start = System.nanoTime();
+
+                    for (final BulkImportItem<?> item : batch)
+                    {
+                        if (Thread.currentThread().isInterrupted()) break;
+
+                        for (final BulkImportItemVersion version : item.getVersions())
+                        {
+                            try
+                            {
+                                if (version.hasMetadata()) version.getMetadata();
+                                if (version.hasContent())  version.contentIsInPlace();
+                            }
+                            catch (final RuntimeException re)
+                            {
+                                // Ignore it - it'll be reported when the item is imported
+                                if (trace(log)) trace(log, "Unable to prefetch metadata for '" + version.getMetadataSource() + "'.", re);
+                            }
+                        }
+                    }
+
+                    if (trace(log)) trace(log, "Prefetched metadata for batch #" + batch.getNumber() + " in " + getDurationInSeconds(System.nanoTime() - start) + ".");
+
+                    return(null);
+                }
+            }, userId);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.dictionary.AspectDefinition;
+import org.alfresco.service.cmr.dictionary.ConstraintDefinition;
+import org.alfresco.service.cmr.dictionary.ConstraintException;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.dictionary.TypeDefinition;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+
+
+/**
+ * This class validates metadata against the properties of a single
+ * combination of type and aspects, as dry runs do.  The mandatory properties
+ * and property constraints of the combination are worked out once, when the
+ * validator is constructed, so that validating metadata only has to look at
+ * the mandatory properties, and at the properties the metadata contains.
+ *
+ * System properties aren't validated, since they're rarely imported, and the
+ * repository (usually) fills them in if they're missing.
+ *
+ * Instances are immutable, and so are thread safe.
+ */
+final class MetadataValidator
+{
+    private final List<QName>                            mandatoryProperties;
+    private final Map<QName, List<ConstraintDefinition>> constrainedProperties;
+
+
+    /**
+     * @param type    The type <i>(may be null)</i>.
+     * @param aspects The aspects, in addition to the type's default aspects <i>(must not be null, but may be empty)</i>.
+     */
+    MetadataValidator(final TypeDefinition type, final Collection<AspectDefinition> aspects)
+    {
+        final Map<QName, PropertyDefinition>         properties  = new HashMap<>();
+        final List<QName>                            mandatory   = new ArrayList<>();
+        final Map<QName, List<ConstraintDefinition>> constrained = new HashMap<>();
+
+        if (type != null)
+        {
+            properties.putAll(type.getProperties());
+
+            for (final AspectDefinition aspect : type.getDefaultAspects(true))
+            {
+                properties.putAll(aspect.getProperties());
+            }
+        }
+
+        for (final AspectDefinition aspect : aspects)
+        {
+            properties.putAll(aspect.getProperties());
+        }
+
+        for (final PropertyDefinition property : properties.values())
+        {
+            final QName name = property.getName();
+
+            if (NamespaceService.SYSTEM_MODEL_1_0_URI.equals(name.getNamespaceURI())) continue;
+
+            if (property.isMandatory() && property.isMandatoryEnforced())
+            {
+                mandatory.add(name);
+            }
+
+            if (property.getConstraints() != null && !property.getConstraints().isEmpty())
+            {
+                constrained.put(name, new ArrayList<>(property.getConstraints()));
+            }
+        }
+
+        this.mandatoryProperties   = Collections.unmodifiableList(mandatory);
+        this.constrainedProperties = Collections.unmodifiableMap(constrained);
+    }
+
+
+    /**
+     * @param metadata The metadata to validate <i>(must not be null)</i>.
+     * @return A description of each fault found <i>(will not be null, but will be empty if the metadata is valid)</i>.
+     */
+    List<String> validate(final Map<QName, Serializable> metadata)
+    {
+        final List<String> result = new ArrayList<>();
+
+        for (final QName property : mandatoryProperties)
+        {
+            if (metadata.get(property) == null)
+            {
+                result.add(String.format("Missing mandatory property [%s]", property));
+            }
+        }
+
+        for (final Map.Entry<QName, Serializable> entry : metadata.entrySet())
+        {
+            final List<ConstraintDefinition> constraints = constrainedProperties.get(entry.getKey());
+
+            // Note: constraints never reject null values, so there's no need to evaluate them
+            if (constraints != null && entry.getValue() != null)
+            {
+                for (final ConstraintDefinition constraint : constraints)
+                {
+                    try
+                    {
+                        constraint.getConstraint().evaluate(entry.getValue());
+                    }
+                    catch (final ConstraintException ce)
+                    {
+                        result.add(String.format("Constraint [%s] violation on property [%s]", constraint.getName(), entry.getKey()));
+                    }
+                }
+            }
+        }
+
+        return(result);
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.service.cmr.dictionary.AspectDefinition;
+import org.alfresco.service.cmr.dictionary.TypeDefinition;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
+
+
+/**
+ * This class resolves the type and aspects of the versions checked by dry
+ * runs, and hands out the <code>MetadataValidator</code> for each combination
+ * of type and aspects, so that every version with the same combination shares
+ * a single validator.
+ *
+ * The cache should be cleared at the start of each import, along with the
+ * symbol table it resolves names with.
+ *
+ * Instances are thread safe.
+ */
+final class MetadataValidatorCache
+{
+    private final DictionarySymbolTable                                      symbolTable;
+    private final ConcurrentMap<Pair<QName, Set<QName>>, MetadataValidator> validators = new ConcurrentHashMap<>();
+
+
+    /**
+     * @param symbolTable Resolves type and aspect names <i>(must not be null)</i>.
+     */
+    MetadataValidatorCache(final DictionarySymbolTable symbolTable)
+    {
+        // PRECONDITIONS
+        assert symbolTable != null : "symbolTable must not be null.";
+
+        // Body
+        this.symbolTable = symbolTable;
+    }
+
+
+    /**
+     * @param type    The name of the type <i>(may be null, meaning only the aspects are validated)</i>.
+     * @param aspects The names of the aspects, in addition to the type's default aspects <i>(may be null or empty)</i>.
+     * @param faults  Receives a description of the type, or of each of the aspects, that isn't defined <i>(must not be null)</i>.
+     * @return The (shared) validator for that combination of type and aspects <i>(will be null if the type or any of the aspects
+     *         isn't defined)</i>.
+     */
+    MetadataValidator getValidator(final String type, final Collection<String> aspects, final List<String> faults)
+    {
+        MetadataValidator result  = null;
+        TypeDefinition    typeDef = null;
+        boolean           defined = true;
+
+        if (type != null)
+        {
+            typeDef = symbolTable.getType(type);
+
+            if (typeDef == null)
+            {
+                faults.add(String.format("Missing Type [%s]", type));
+                defined = false;
+            }
+        }
+
+        // A missing type is reported on its own - its aspects (and properties) are moot
+        if (defined)
+        {
+            final Map<QName, AspectDefinition> definedAspects = new HashMap<>();
+
+            if (aspects != null)
+            {
+                for (final String aspect : aspects)
+                {
+                    final AspectDefinition aspectDef = symbolTable.getAspect(aspect);
+
+                    if (aspectDef == null)
+                    {
+                        faults.add(String.format("Missing Aspect [%s]", aspect));
+                        defined = false;
+                    }
+                    else
+                    {
+                        definedAspects.put(aspectDef.getName(), aspectDef);
+                    }
+                }
+            }
+
+            if (defined) result = getValidator(typeDef, definedAspects);
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Forgets every validator handed out so far.
+     */
+    void clear()
+    {
+        validators.clear();
+    }
+
+
+    private MetadataValidator getValidator(final TypeDefinition typeDef, final Map<QName, AspectDefinition> aspects)
+    {
+        final Pair<QName, Set<QName>> signature = new Pair<QName, Set<QName>>(typeDef == null ? null : typeDef.getName(), new TreeSet<>(aspects.keySet()));
+        MetadataValidator             result    = validators.get(signature);
+
+        if (result == null)
+        {
+            result = new MetadataValidator(typeDef, aspects.values());
+
+            final MetadataValidator existing = validators.putIfAbsent(signature, result);
+            if (existing != null) result = existing;
+        }
+
+        return(result);
+    }
+
+}
@@ -25,8 +25,10 @@ package org.alfresco.extension.bulkimport.impl;
  * out-of-order i.e. it contains a node whose parent hasn't been imported yet.
  *
  * Custom <code>BulkImportSource</code> implementations may throw this
- * exception to indicate to the core bulk import logic that the batch should be
- * rolled back and requeued.
+ * exception to indicate to the core bulk import logic that the item should be
+ * deferred.  Deferred items are left out of their batch (which still commits),
+ * and are resubmitted once the batch that creates the missing parent has
+ * committed.
  *
  * @author Peter Monks (pmonks@gmail.com)
  *
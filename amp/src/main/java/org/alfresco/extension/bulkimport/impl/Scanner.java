@@ -20,10 +20,16 @@
 package org.alfresco.extension.bulkimport.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.IllegalFormatException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.channels.ClosedByInterruptException;
 
 import org.alfresco.extension.bulkimport.util.ThreadPauser;
@@ -74,21 +80,33 @@ public final class Scanner
 
     private final static int ONE_GIGABYTE = (int)Math.pow(2, 30);
 
+    private final static int DEFAULT_MAX_PARKED_ITEMS = 100000;  // In pipelined mode, the most file items held back waiting for their folders, before scanning blocks
+
+    private final static long DEFERRAL_POLL_INTERVAL_IN_MS = 1000L;
+
     private final static BulkImportCompletionHandler loggingBulkImportCompletionHandler = new LoggingBulkImportCompletionHandler();
 
     private final String                            userId;
-    private final int                               batchWeight;
+    private final BatchWeightController             batchWeightController;
     private final WritableBulkImportStatus          importStatus;
     private final ThreadPauser                      pauser;
     private final BulkImportSource                  source;
     private final NodeRef                           target;
     private final String                            targetAsPath;
     private final BatchImporter                     batchImporter;
+    private final MetadataPrefetcher                metadataPrefetcher;
+    private final DryRunReporter                    dryRunReporter;
+    private final ThreadPoolSizeController          threadPoolSizeController;
+    private final FolderBatchScheduler              folderBatchScheduler;
+    private final DeferralQueue                     deferralQueue;
+    private final AtomicInteger                     batchesInFlight;
     private final List<BulkImportCompletionHandler> completionHandlers;
 
     // Parameters
     private final boolean replaceExisting;
     private final boolean dryRun;
+    private final boolean pipelined;
+    private final int     maxParkedItems;
 
     // Stateful unpleasantness
     private Map<String, List<String>>                   parameters;
@@ -99,10 +117,14 @@ public final class Scanner
     private boolean                                     filePhase;
     private boolean                                     multiThreadedImport;
 
+    // Pipelined mode only - file items waiting for their parent folder to be committed, keyed by parent path
+    private final Map<String, List<BulkImportItem<BulkImportItemVersion>>> parkedItems = new HashMap<>();
+    private int                                                            parkedItemCount;
+
 
     public Scanner(final ServiceRegistry                   serviceRegistry,
                    final String                            userId,
-                   final int                               batchWeight,
+                   final BatchWeightController             batchWeightController,
                    final WritableBulkImportStatus          importStatus,
                    final ThreadPauser                      pauser,
                    final BulkImportSource                  source,
@@ -110,35 +132,48 @@ public final class Scanner
                    final NodeRef                           target,
                    final BulkImportThreadPoolExecutor      importThreadPool,
                    final BatchImporter                     batchImporter,
-                   final List<BulkImportCompletionHandler> completionHandlers)
+                   final List<BulkImportCompletionHandler> completionHandlers,
+                   final boolean                           pipelined,
+                   final int                               maxParkedItems,
+                   final MetadataPrefetcher                metadataPrefetcher,
+                   final DryRunReporter                    dryRunReporter)
     {
         // PRECONDITIONS
-        assert serviceRegistry  != null : "serviceRegistry must not be null.";
-        assert userId           != null : "userId must not be null.";
-        assert batchWeight      > 0     : "batchWeight must be > 0.";
-        assert importStatus     != null : "importStatus must not be null.";
-        assert pauser           != null : "pauser must not be null.";
-        assert source           != null : "source must not be null.";
-        assert parameters       != null : "parameters must not be null.";
-        assert target           != null : "target must not be null.";
-        assert importThreadPool != null : "importThreadPool must not be null.";
-        assert batchImporter    != null : "batchImporter must not be null.";
+        assert serviceRegistry       != null : "serviceRegistry must not be null.";
+        assert userId                != null : "userId must not be null.";
+        assert batchWeightController != null : "batchWeightController must not be null.";
+        assert importStatus          != null : "importStatus must not be null.";
+        assert pauser                != null : "pauser must not be null.";
+        assert source                != null : "source must not be null.";
+        assert parameters            != null : "parameters must not be null.";
+        assert target                != null : "target must not be null.";
+        assert importThreadPool      != null : "importThreadPool must not be null.";
+        assert batchImporter         != null : "batchImporter must not be null.";
 
         // Body
-        this.userId             = userId;
-        this.batchWeight        = batchWeight;
-        this.importStatus       = importStatus;
-        this.pauser             = pauser;
-        this.source             = source;
-        this.parameters         = parameters;
-        this.target             = target;
-        this.targetAsPath       = convertNodeRefToPath(serviceRegistry, target);
-        this.importThreadPool   = importThreadPool;
-        this.batchImporter      = batchImporter;
-        this.completionHandlers = completionHandlers;
+        this.userId                = userId;
+        this.batchWeightController = batchWeightController;
+        this.importStatus          = importStatus;
+        this.pauser                = pauser;
+        this.source                = source;
+        this.parameters            = parameters;
+        this.target                = target;
+        this.targetAsPath          = convertNodeRefToPath(serviceRegistry, target);
+        this.importThreadPool      = importThreadPool;
+        this.batchImporter         = batchImporter;
+        this.completionHandlers    = completionHandlers;
+        this.metadataPrefetcher    = metadataPrefetcher;
+        this.dryRunReporter        = dryRunReporter;
+
+        this.threadPoolSizeController = new ThreadPoolSizeController(importStatus, importThreadPool);
+        this.folderBatchScheduler     = new FolderBatchScheduler(importThreadPool, pipelined);
+        this.deferralQueue            = new DeferralQueue();
+        this.batchesInFlight          = new AtomicInteger(0);
 
         this.replaceExisting = parameters.get(PARAMETER_REPLACE_EXISTING) == null ? false : Boolean.parseBoolean(parameters.get(PARAMETER_REPLACE_EXISTING).get(0));
         this.dryRun          = parameters.get(PARAMETER_DRY_RUN)          == null ? false : Boolean.parseBoolean(parameters.get(PARAMETER_DRY_RUN).get(0));
+        this.pipelined       = pipelined;
+        this.maxParkedItems  = maxParkedItems <= 0 ? DEFAULT_MAX_PARKED_ITEMS : maxParkedItems;
 
         this.currentBatchNumber   = 0;
         this.currentBatch         = null;
@@ -184,17 +219,40 @@ public final class Scanner
                                        source,
                                        targetAsPath,
                                        importThreadPool,
-                                       batchWeight,
+                                       batchWeightController.getBatchWeight(),
                                        inPlacePossible,
                                        dryRun);
 
+            if (dryRun)
+            {
+                if (dryRunReporter != null) dryRunReporter.started(source.getName());
+
+                // Nothing is written, so there's no contention to avoid - validate every file batch on the thread pool from the start
+                multiThreadedImport = true;
+                threadPoolSizeController.started();
+            }
+
             // ------------------------------------------------------------------
-            // Phase 1 - Folder scanning (single threaded)
+            // Phase 1 - Folder scanning (single threaded), with folder import
+            //           parallelised across independent subtrees
             // ------------------------------------------------------------------
 
             source.scanFolders(importStatus, this);
 
-            if (debug(log)) debug(log, "Folder import complete in " + getHumanReadableDuration(importStatus.getDurationInNs()) + ".");
+            submitCurrentBatch();
+
+            if (pipelined)
+            {
+                // File items are held back individually until their folder is committed (see submit)
+                if (debug(log)) debug(log, "Folder scan complete in " + getHumanReadableDuration(importStatus.getDurationInNs()) + ", folder import continuing in the background.");
+            }
+            else
+            {
+                // Every folder must be committed before any files are imported
+                folderBatchScheduler.awaitCompletion();
+
+                if (debug(log)) debug(log, "Folder import complete in " + getHumanReadableDuration(importStatus.getDurationInNs()) + ".");
+            }
 
             // ------------------------------------------------------------------
             // Phase 2 - File scanning
@@ -205,6 +263,18 @@ public final class Scanner
             // Maximise level of concurrency, since there's no longer any risk of out-of-order batches
             source.scanFiles(importStatus, this);
 
+            if (pipelined)
+            {
+                // Submit the remaining held back file items as their folders are committed
+                while (!folderBatchScheduler.awaitProgress())
+                {
+                    releaseParkedItems();
+                }
+
+                releaseParkedItems();
+                if (debug(log)) debug(log, "Folder import complete in " + getHumanReadableDuration(importStatus.getDurationInNs()) + ".");
+            }
+
             importStatus.freezeSourceCounters();
 
             if (debug(log)) debug(log, "File scan complete in " + getHumanReadableDuration(importStatus.getDurationInNs()) + ".");
@@ -216,6 +286,7 @@ public final class Scanner
             // ------------------------------------------------------------------
 
             submitCurrentBatch();  // Submit whatever is left in the final (partial) batch...
+            awaitDeferredItems();
             awaitCompletion();
 
             importStatus.freezeTargetCounters();
@@ -257,6 +328,8 @@ public final class Scanner
         }
         finally
         {
+            if (dryRun && dryRunReporter != null) dryRunReporter.finished();
+
             // Reset the thread factory
             if (importThreadPool.getThreadFactory() instanceof BulkImportThreadFactory)
             {
@@ -311,9 +384,28 @@ public final class Scanner
         // Body
         if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
 
+        releaseDeferredItems();
+
+        if (pipelined && filePhase)
+        {
+            // Keeps folder batches moving too, as nothing else dispatches them while files are being scanned
+            releaseParkedItems();
+
+            // If the item's folder hasn't been committed yet, hold the item back until it has
+            if (parkIfPending(BulkImportTools.getRelativeTargetPath(item), item)) return;
+        }
+
+        addToCurrentBatch(item);
+    }
+
+
+    private synchronized void addToCurrentBatch(final BulkImportItem<BulkImportItemVersion> item)
+        throws InterruptedException
+    {
         // If the weight of the new item would blow out the current batch, submit the batch as-is (i.e. *before* adding the newly submitted item).
         // This ensures that heavy items start a new batch (and possibly end up in a batch by themselves).
-        int weight = weight(item);
+        int weight      = weight(item);
+        int batchWeight = batchWeightController.getBatchWeight();
 
         if (weightOfCurrentBatch + weight > batchWeight)
         {
@@ -334,6 +426,132 @@ public final class Scanner
     }
 
 
+    /*
+     * Holds back a file item until its parent folder has been committed (if it hasn't been already), blocking if too many items are
+     * already being held back.  Returns true if the item was held back.
+     *
+     * Note: the check and the parking must be atomic with respect to releaseParkedItems (which is why this method is synchronized),
+     * otherwise the folder's committed path could be drained between the two, stranding the item.
+     */
+    private synchronized boolean parkIfPending(final String parentPath, final BulkImportItem<BulkImportItemVersion> item)
+        throws InterruptedException
+    {
+        boolean result = false;
+
+        if (folderBatchScheduler.isPending(parentPath))
+        {
+            List<BulkImportItem<BulkImportItemVersion>> items = parkedItems.get(parentPath);
+
+            if (items == null)
+            {
+                items = new ArrayList<>();
+                parkedItems.put(parentPath, items);
+            }
+
+            items.add(item);
+            parkedItemCount++;
+            result = true;
+
+            while (parkedItemCount >= maxParkedItems)
+            {
+                if (debug(log)) debug(log, parkedItemCount + " file items are waiting for their folders to be imported - scanning will block.");
+                folderBatchScheduler.awaitProgress();
+                releaseParkedItems();
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Dispatches any folder batches that have become ready (without blocking), then submits any held back file items whose parent
+     * folders have been committed since this method was last called.  Only the items waiting on those folders are looked at.
+     */
+    private synchronized void releaseParkedItems()
+        throws InterruptedException
+    {
+        folderBatchScheduler.dispatchReadyBatches();
+
+        for (final String committedPath : folderBatchScheduler.drainCommittedPaths())
+        {
+            final List<BulkImportItem<BulkImportItemVersion>> items = parkedItems.remove(committedPath);
+
+            if (items != null)
+            {
+                parkedItemCount -= items.size();
+
+                for (final BulkImportItem<BulkImportItemVersion> item : items)
+                {
+                    addToCurrentBatch(item);
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Submits any deferred items whose parent folders have since been committed.  Only ever called on the scanner thread.
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized void releaseDeferredItems()
+        throws InterruptedException
+    {
+        if (deferralQueue.hasReady())
+        {
+            for (final BulkImportItem<?> item : deferralQueue.drainReady())
+            {
+                importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_DEFERRED_ITEMS_RELEASED);
+                addToCurrentBatch((BulkImportItem<BulkImportItemVersion>)item);
+            }
+        }
+    }
+
+
+    /*
+     * Once scanning is complete, keeps submitting deferred items as their parent folders are committed, until none are left.  If items
+     * are still waiting once nothing else is being imported (so nothing can create their parents), they're given one last try, and will
+     * be reported as errors if their parents still don't exist.  That last try also picks up any item whose parent happened to commit
+     * while the item was being deferred.
+     */
+    @SuppressWarnings("unchecked")
+    private void awaitDeferredItems()
+        throws InterruptedException
+    {
+        boolean finalPass = false;
+
+        while (true)
+        {
+            releaseDeferredItems();
+            submitCurrentBatch();
+
+            if (batchesInFlight.get() == 0 && !deferralQueue.hasReady())
+            {
+                if (deferralQueue.isEmpty() || finalPass) break;
+
+                final List<BulkImportItem<?>> remaining = deferralQueue.close();
+
+                if (warn(log)) warn(log, remaining.size() + " deferred item" + pluralise(remaining.size()) + " still missing their parent folder - retrying one last time.");
+
+                for (final BulkImportItem<?> item : remaining)
+                {
+                    importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_DEFERRED_ITEMS_RELEASED);
+                    addToCurrentBatch((BulkImportItem<BulkImportItemVersion>)item);
+                }
+
+                finalPass = true;
+            }
+            else
+            {
+                if (importStatus.isStopping()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+                if (importThreadPool.isShutdown()) throw new IllegalStateException("Import thread pool terminated with deferred items outstanding.");
+
+                deferralQueue.await(DEFERRAL_POLL_INTERVAL_IN_MS);
+            }
+        }
+    }
+
+
     private synchronized void submitCurrentBatch()
         throws InterruptedException
     {
@@ -342,13 +560,18 @@ public final class Scanner
 
         if (currentBatch != null && currentBatch.size() > 0)
         {
-            final Batch<?> batch = new Batch<>(currentBatchNumber, currentBatch);
+            final Batch<?> batch = new Batch<>(currentBatchNumber, currentBatch, weightOfCurrentBatch);
 
             // Prepare for the next batch
             currentBatch = null;
             importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_BATCHES_SUBMITTED);
 
-            if (multiThreadedImport)
+            if (!filePhase)
+            {
+                // Submit the folder batch to the thread pool, once the batches that create its parents have committed
+                folderBatchScheduler.submit(batch, new BatchImportJob(batch, true));
+            }
+            else if (multiThreadedImport)
             {
                 // Submit the batch to the thread pool
                 submitBatch(batch, !filePhase);
@@ -356,17 +579,73 @@ public final class Scanner
             else
             {
                 // Import the batch directly on this thread
-                batchImporter.importBatch(userId, target, batch, replaceExisting, !filePhase, dryRun);
+                importBatch(batch, !filePhase);
 
                 // Check if the multi-threading threshold has been reached
                 multiThreadedImport = filePhase && currentBatchNumber >= MULTITHREADING_THRESHOLD;
 
+                if (multiThreadedImport) threadPoolSizeController.started();
                 if (multiThreadedImport && debug(log)) debug(log, "Multi-threading threshold (" + MULTITHREADING_THRESHOLD + " batch" + pluralise(MULTITHREADING_THRESHOLD, "es") + ") reached - switching to multi-threaded import.");
             }
         }
     }
 
 
+    /*
+     * Imports the given batch on the current thread, reports how long it took to the batch weight controller, and queues any items
+     * that were deferred.  Returns the number of transaction attempts the batch took.
+     */
+    private int importBatch(final Batch<?> batch, final boolean pessimistic)
+        throws InterruptedException
+    {
+        final long              start  = System.nanoTime();
+        final BatchImportResult result = batchImporter.importBatch(userId, target, batch, replaceExisting, pessimistic, dryRun);
+
+        batchWeightController.batchCompleted(batch, System.nanoTime() - start, result.getAttempts());
+        batchCommitted(batch, result.getDeferredItems());
+
+        return(result.getAttempts());
+    }
+
+
+    /*
+     * Queues the items of the given (committed) batch that were deferred, and releases any deferred items that were waiting for the
+     * folders it created.
+     */
+    private void batchCommitted(final Batch<?> batch, final Map<String, List<BulkImportItem<?>>> deferredItems)
+    {
+        final Set<BulkImportItem<?>> deferred = Collections.newSetFromMap(new IdentityHashMap<BulkImportItem<?>, Boolean>());
+
+        for (final Map.Entry<String, List<BulkImportItem<?>>> entry : deferredItems.entrySet())
+        {
+            for (final BulkImportItem<?> item : entry.getValue())
+            {
+                if (deferralQueue.defer(entry.getKey(), item))
+                {
+                    importStatus.incrementTargetCounter(BulkImportStatus.TARGET_COUNTER_ITEMS_DEFERRED);
+                }
+                else
+                {
+                    // Deferred too many times already (or the import is wrapping up) - give up on it
+                    importStatus.unexpectedError(BulkImportTools.getCompleteTargetPath(item), new OutOfOrderBatchException(entry.getKey()));
+                }
+
+                deferred.add(item);
+            }
+        }
+
+        // Recorded even if nothing is waiting for them yet, since items of batches that are still in flight may be deferred for them later
+        final List<String> folders = new ArrayList<>();
+
+        for (final BulkImportItem<?> item : batch)
+        {
+            if (item.isDirectory() && !deferred.contains(item)) folders.add(BulkImportTools.getCompleteTargetPath(item));
+        }
+
+        if (!folders.isEmpty()) deferralQueue.committed(folders);
+    }
+
+
     /**
      * Used to submit a batch to the import thread pool.  Note that this method
      * can block (due to the use of a blocking queue in the thread pool).
@@ -378,8 +657,13 @@ public final class Scanner
         if (batch        != null &&
             batch.size() >  0)
         {
-            if (importStatus.inProgress() &&
-                !importStatus.isStopping())
+            if (importThreadPool.isShutdown() && !importStatus.isStopping())
+            {
+                // A pessimistic batch failed and shut the pool down (in pipelined mode, that can be a folder batch that failed during file scanning)
+                throw new IllegalStateException("Import thread pool terminated - batch #" + batch.getNumber() + " was not imported.");
+            }
+            else if (importStatus.inProgress() &&
+                     !importStatus.isStopping())
             {
                 importThreadPool.execute(new BatchImportJob(batch, pessimistic));
             }
@@ -482,23 +766,33 @@ public final class Scanner
     private final class BatchImportJob
         implements Runnable
     {
-        private final Batch<?> batch;
-        private final boolean  pessimistic;
+        private final Batch<?>  batch;
+        private final boolean   pessimistic;
+        private final Future<?> prefetch;
 
         public BatchImportJob(final Batch<?> batch, boolean pessimistic)
         {
             this.batch = batch;
             this.pessimistic = pessimistic;
+
+            batchesInFlight.incrementAndGet();
+
+            // Load the batch's metadata while it waits in the queue
+            this.prefetch = metadataPrefetcher == null ? null : metadataPrefetcher.prefetch(userId, batch);
         }
 
 
+
         @Override
         public void run()
         {
         	boolean failed = true;
             try
             {
-                batchImporter.importBatch(userId, target, batch, replaceExisting, pessimistic, dryRun);
+                // If the prefetch hasn't started yet, there's no point starting it now (if it's running, the import waits for it)
+                if (prefetch != null) prefetch.cancel(false);
+
+                threadPoolSizeController.batchCompleted(batch, importBatch(batch, pessimistic));
                 failed = false;
             }
             catch (ItemImportException e)
@@ -536,6 +830,9 @@ public final class Scanner
                     if (debug(log)) debug(log, "Shutting down import thread pool.");
                     importThreadPool.shutdownNow();
                 }
+
+                batchesInFlight.decrementAndGet();
+                deferralQueue.signal();
             }
         }
     }
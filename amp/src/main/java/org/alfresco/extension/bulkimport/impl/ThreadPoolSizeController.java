@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkimport.BulkImportThreadPoolSizeChange;
+
+import static org.alfresco.extension.bulkimport.util.Utils.*;
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class tunes the size of the import thread pool during the multi-threaded
+ * phase of an import.  Once per tuning interval it compares the throughput
+ * (items imported per second) of the interval that just ended with that of
+ * the one before it:
+ * <ul>
+ *   <li>If any batches were retried during the interval, the pool is assumed to be
+ *       causing contention (typically in the database), and is shrunk by a quarter
+ *       (multiplicative decrease).</li>
+ *   <li>Otherwise the pool size keeps moving in the same direction as the last
+ *       change, one step at a time, for as long as throughput doesn't drop; when it
+ *       does drop, the direction is reversed (hill climbing).</li>
+ * </ul>
+ * The pool size is always kept between the pool's configured minimum and maximum.
+ *
+ * Throughput is measured in items rather than batches, since batch sizes may be
+ * tuned at the same time (by {@link BatchWeightController}), and a change in the
+ * number of batches per second doesn't say anything about the pool size then.
+ *
+ * Instances are per-import, and are thread safe.
+ */
+public final class ThreadPoolSizeController
+{
+    private final static Log log = LogFactory.getLog(ThreadPoolSizeController.class);
+
+    private final static double DECREASE_FACTOR = 0.75;  // Applied to the pool size when batches are being retried
+    private final static int    STEP_DIVISOR    = 8;     // Hill climbing steps are 1/8th of the current pool size (at least 1 thread)
+    private final static double TOLERANCE       = 0.05;  // Throughput changes within 5% are treated as noise
+
+    private final WritableBulkImportStatus     importStatus;
+    private final BulkImportThreadPoolExecutor threadPool;
+    private final long                         tuningIntervalInNs;
+
+    private long   intervalStartNs    = -1;
+    private long   itemsInInterval    = 0;
+    private int    retriedInInterval  = 0;
+    private double previousThroughput = -1.0;
+    private int    direction          = 1;
+
+
+    public ThreadPoolSizeController(final WritableBulkImportStatus     importStatus,
+                                    final BulkImportThreadPoolExecutor threadPool)
+    {
+        // PRECONDITIONS
+        assert importStatus != null : "importStatus must not be null.";
+        assert threadPool   != null : "threadPool must not be null.";
+
+        // Body
+        this.importStatus       = importStatus;
+        this.threadPool         = threadPool;
+        this.tuningIntervalInNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, threadPool.getTuningIntervalInMs()));
+    }
+
+
+    /**
+     * @return True if the pool size is tuned as batches complete.
+     */
+    public boolean isEnabled()
+    {
+        return(tuningIntervalInNs > 0);
+    }
+
+
+    /**
+     * Records the start of the multi-threaded phase of the import.
+     */
+    public void started()
+    {
+        started(System.nanoTime());
+    }
+
+
+    synchronized void started(final long nowInNs)
+    {
+        if (isEnabled())
+        {
+            intervalStartNs = nowInNs;
+            importStatus.threadPoolSizeChanged(new BulkImportThreadPoolSizeChange(threadPool.getCorePoolSize(), 0.0f, "Multi-threaded import started"));
+        }
+    }
+
+
+    /**
+     * Records the completion of a batch by the thread pool, tuning the pool size if a tuning interval has elapsed.
+     *
+     * @param batch    The batch that was completed <i>(must not be null)</i>.
+     * @param attempts The number of transaction attempts the batch took (1 if it wasn't retried).
+     */
+    public void batchCompleted(final Batch<?> batch, final int attempts)
+    {
+        // PRECONDITIONS
+        assert batch != null : "batch must not be null.";
+
+        // Body
+        batchCompleted(batch.size(), attempts, System.nanoTime());
+    }
+
+
+    synchronized void batchCompleted(final int items, final int attempts, final long nowInNs)
+    {
+        if (isEnabled() && intervalStartNs >= 0)
+        {
+            itemsInInterval += items;
+            if (attempts > 1) retriedInInterval++;
+
+            final long elapsed = nowInNs - intervalStartNs;
+
+            if (elapsed >= tuningIntervalInNs)
+            {
+                tune((double)itemsInInterval * TimeUnit.SECONDS.toNanos(1) / elapsed);
+
+                intervalStartNs   = nowInNs;
+                itemsInInterval   = 0;
+                retriedInInterval = 0;
+            }
+        }
+    }
+
+
+    private void tune(final double throughput)
+    {
+        final int oldSize = threadPool.getCorePoolSize();
+        final int step    = Math.max(1, oldSize / STEP_DIVISOR);
+        int       newSize = oldSize;
+        String    reason  = null;
+
+        if (retriedInInterval > 0)
+        {
+            direction = -1;
+            newSize   = Math.min(oldSize - 1, (int)(oldSize * DECREASE_FACTOR));
+            reason    = retriedInInterval + " batch" + pluralise(retriedInInterval, "es") + " retried";
+        }
+        else
+        {
+            if (previousThroughput >= 0 && throughput < previousThroughput * (1.0 - TOLERANCE))
+            {
+                direction = -direction;
+                reason    = "Throughput dropped";
+            }
+            else
+            {
+                reason = previousThroughput < 0 ? "Exploring" : "Throughput held";
+            }
+
+            newSize = oldSize + direction * step;
+        }
+
+        newSize = Math.max(threadPool.getMinThreadPoolSize(), Math.min(threadPool.getMaxThreadPoolSize(), newSize));
+
+        if (newSize != oldSize)
+        {
+            threadPool.setThreadPoolSize(newSize);
+            importStatus.threadPoolSizeChanged(new BulkImportThreadPoolSizeChange(newSize, (float)throughput, reason));
+
+            if (debug(log)) debug(log, String.format("%s at %.3f items/sec - thread pool resized from %d to %d.", reason, throughput, oldSize, newSize));
+        }
+        else if (direction > 0 ? newSize >= threadPool.getMaxThreadPoolSize() : newSize <= threadPool.getMinThreadPoolSize())
+        {
+            direction = -direction;  // Pinned at a bound - probe the other way next time
+        }
+
+        previousThroughput = throughput;
+    }
+
+}
@@ -20,6 +20,7 @@
 
 package org.alfresco.extension.bulkimport.impl;
 
+import org.alfresco.extension.bulkimport.BulkImportThreadPoolSizeChange;
 import org.alfresco.extension.bulkimport.source.BulkImportSource;
 import org.alfresco.extension.bulkimport.source.BulkImportSourceStatus;
 
@@ -49,6 +50,8 @@ public interface WritableBulkImportStatus
 
     void setCurrentlyImporting(String name);
     void batchCompleted(Batch<?> batch);
+    void batchWeightUpdated(long batchWeight, long lastBatchDurationInNs, String adjustment);
+    void threadPoolSizeChanged(BulkImportThreadPoolSizeChange change);
 
     void preregisterTargetCounters(String[] counterNames);
     void incrementTargetCounter(String counterName);
@@ -28,12 +28,8 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
-import org.apache.commons.lang3.concurrent.ConcurrentUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.alfresco.service.ServiceRegistry;
@@ -42,6 +38,10 @@ import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.dictionary.PropertyDefinition;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.extension.bulkimport.impl.WritableBulkImportStatus;
+import org.alfresco.extension.bulkimport.source.BulkImportSourceStatus;
+import org.alfresco.extension.bulkimport.util.BoundedConcurrentCache;
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
 
 import static org.alfresco.extension.bulkimport.util.LogUtils.*;
 
@@ -67,14 +67,26 @@ public abstract class AbstractMapBasedMetadataLoader
 
     private final static String DEFAULT_SEPARATOR = ",";
 
+    public final static int DEFAULT_METADATA_CACHE_SIZE = 100000;
+
+    // Status counters
+    public final static String COUNTER_NAME_METADATA_CACHE_HITS      = "Metadata cache hits";
+    public final static String COUNTER_NAME_METADATA_CACHE_MISSES    = "Metadata cache misses";
+    public final static String COUNTER_NAME_METADATA_CACHE_EVICTIONS = "Metadata cache evictions";
+
+    private final static String[] COUNTER_NAMES = { COUNTER_NAME_METADATA_CACHE_HITS,
+                                                    COUNTER_NAME_METADATA_CACHE_MISSES,
+                                                    COUNTER_NAME_METADATA_CACHE_EVICTIONS };
+
     protected final NamespaceService  namespaceService;
     protected final DictionaryService dictionaryService;
     protected final String            defaultSeparator;
     protected final String            metadataFileExtension;
 
-    private final ConcurrentMap<QName, PropertyDefinition> propertyDefinitions = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, QName> qNames = new ConcurrentHashMap<>();
-    private final Map<File, Metadata> metadataCache;
+    private final DictionarySymbolTable                  symbolTable;
+    private final BoundedConcurrentCache<File, Metadata> metadataCache;
+
+    private volatile WritableBulkImportStatus importStatus = null;
 
 
 
@@ -84,8 +96,22 @@ public abstract class AbstractMapBasedMetadataLoader
     }
 
 
-    @SuppressWarnings("unchecked")
 	protected AbstractMapBasedMetadataLoader(final ServiceRegistry serviceRegistry, final String defaultSeparator, final String fileExtension)
+    {
+        this(serviceRegistry, defaultSeparator, fileExtension, DEFAULT_METADATA_CACHE_SIZE);
+    }
+
+
+    protected AbstractMapBasedMetadataLoader(final ServiceRegistry serviceRegistry, final String defaultSeparator, final String fileExtension, final int metadataCacheSize)
+    {
+        this(serviceRegistry, defaultSeparator, fileExtension, metadataCacheSize, null);
+    }
+
+
+    /**
+     * @param symbolTable Resolves property names, shared with the rest of the import <i>(may be null, meaning this loader resolves names itself)</i>.
+     */
+    protected AbstractMapBasedMetadataLoader(final ServiceRegistry serviceRegistry, final String defaultSeparator, final String fileExtension, final int metadataCacheSize, final DictionarySymbolTable symbolTable)
     {
         // PRECONDITIONS
         assert serviceRegistry  != null : "serviceRegistry must not be null";
@@ -97,26 +123,77 @@ public abstract class AbstractMapBasedMetadataLoader
         this.dictionaryService     = serviceRegistry.getDictionaryService();
         this.defaultSeparator      = defaultSeparator;
         this.metadataFileExtension = fileExtension;
-        this.metadataCache         = new LRUMap(100000); // TODO: is 100,000 enough?
+        this.symbolTable           = symbolTable != null ? symbolTable : new DictionarySymbolTable(serviceRegistry);
+        this.metadataCache         = new BoundedConcurrentCache<File, Metadata>(metadataCacheSize > 0 ? metadataCacheSize : DEFAULT_METADATA_CACHE_SIZE)
+        {
+            @Override
+            protected void onHit(final File key)
+            {
+                incrementCounter(COUNTER_NAME_METADATA_CACHE_HITS);
+            }
+
+            @Override
+            protected void onMiss(final File key)
+            {
+                incrementCounter(COUNTER_NAME_METADATA_CACHE_MISSES);
+            }
+
+            @Override
+            protected void onEviction(final File key)
+            {
+                incrementCounter(COUNTER_NAME_METADATA_CACHE_EVICTIONS);
+            }
+        };
+    }
+
+
+    /**
+     * Prepares this loader for a new import: clears the metadata cache, and
+     * starts reporting cache statistics to the given status object.  This must
+     * only be called once per import, as the cache is shared by every scan
+     * (and every importing thread) within it.
+     *
+     * Most metadata is loaded lazily by the importing threads, long after
+     * scanning has finished (and the source counters have been frozen), so the
+     * statistics are reported as target counters.
+     *
+     * @param importStatus The status object to report cache statistics to <i>(may be null)</i>.
+     */
+    public void init(final BulkImportSourceStatus importStatus)
+    {
+        metadataCache.clear();
+
+        if (importStatus instanceof WritableBulkImportStatus)
+        {
+            this.importStatus = (WritableBulkImportStatus)importStatus;
+            this.importStatus.preregisterTargetCounters(COUNTER_NAMES);
+        }
+        else
+        {
+            this.importStatus = null;
+        }
+    }
+
+
+    private void incrementCounter(final String counterName)
+    {
+        final WritableBulkImportStatus status = importStatus;
+
+        if (status != null)
+        {
+            status.incrementTargetCounter(counterName);
+        }
     }
 
 
     protected final QName getQName(final String key) {
         assert key != null : "key must not be null";
-    	return ConcurrentUtils.createIfAbsentUnchecked(qNames, key, new ConcurrentInitializer<QName>() {
-    		public QName get() {
-    			return QName.createQName(key, namespaceService);
-    		}
-    	});
+    	return symbolTable.getQName(key);
     }
 
     protected final PropertyDefinition getPropertyDefinition(final QName name) {
         assert name != null : "name must not be null";
-    	return ConcurrentUtils.createIfAbsentUnchecked(propertyDefinitions, name, new ConcurrentInitializer<PropertyDefinition>() {
-    		public PropertyDefinition get() {
-    	    	return dictionaryService.getProperty(name);
-    		}
-    	});
+    	return symbolTable.getProperty(name);
     }
 
     protected final PropertyDefinition getPropertyDefinition(String key) {
@@ -162,22 +239,14 @@ public abstract class AbstractMapBasedMetadataLoader
     		metadataFile = metadataFile.getAbsoluteFile();
     	}
 
-    	Metadata ret = null;
-    	String path = metadataFile.getAbsolutePath();
-    	synchronized (metadataCache)
-    	{
-    		info(log, String.format("Fetching metadata for [%s]", path));
-    		ret = Metadata.class.cast(metadataCache.get(metadataFile));
-    		if (ret == null)
-    		{
-        		info(log, String.format("Loading metadata for [%s]", path));
-    			ret = loadMetadataImpl(metadataFile);
-    			metadataCache.put(metadataFile, ret);
-    		} else {
-        		info(log, String.format("Returning cached metadata for [%s]", path));
+    	final File key = metadataFile;
+
+    	return metadataCache.get(key, new ConcurrentInitializer<Metadata>() {
+    		public Metadata get() {
+    			if (trace(log)) trace(log, String.format("Loading metadata for [%s]", key.getAbsolutePath()));
+    			return loadMetadataImpl(key);
     		}
-    	}
-    	return ret;
+    	});
     }
 
     private final Metadata loadMetadataImpl(final File metadataFile) {
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.source.fs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class is a compact, immutable snapshot of the basic attributes of a
+ * file, captured once (typically while listing the directory containing it)
+ * so that later stages of the import don't need to "stat" the file again.
+ */
+final class CapturedFileAttributes
+    implements BasicFileAttributes
+{
+    private final static byte TYPE_REGULAR_FILE  = 1;
+    private final static byte TYPE_DIRECTORY     = 2;
+    private final static byte TYPE_SYMBOLIC_LINK = 3;
+    private final static byte TYPE_OTHER         = 4;
+
+    private final byte type;
+    private final long sizeInBytes;
+    private final long lastModifiedTimeInMs;
+    private final long lastAccessTimeInMs;
+    private final long creationTimeInMs;
+
+
+    private CapturedFileAttributes(final byte type,
+                                   final long sizeInBytes,
+                                   final long lastModifiedTimeInMs,
+                                   final long lastAccessTimeInMs,
+                                   final long creationTimeInMs)
+    {
+        this.type                 = type;
+        this.sizeInBytes          = sizeInBytes;
+        this.lastModifiedTimeInMs = lastModifiedTimeInMs;
+        this.lastAccessTimeInMs   = lastAccessTimeInMs;
+        this.creationTimeInMs     = creationTimeInMs;
+    }
+
+
+    /**
+     * @param attributes The attributes to take a snapshot of <i>(must not be null)</i>.
+     * @return A snapshot of the given attributes <i>(will not be null)</i>.
+     */
+    static CapturedFileAttributes of(final BasicFileAttributes attributes)
+    {
+        // PRECONDITIONS
+        assert attributes != null : "attributes must not be null.";
+
+        // Body
+        CapturedFileAttributes result = null;
+
+        if (attributes instanceof CapturedFileAttributes)
+        {
+            result = (CapturedFileAttributes)attributes;
+        }
+        else
+        {
+            final byte type = attributes.isRegularFile()  ? TYPE_REGULAR_FILE  :
+                              attributes.isDirectory()    ? TYPE_DIRECTORY     :
+                              attributes.isSymbolicLink() ? TYPE_SYMBOLIC_LINK :
+                                                            TYPE_OTHER;
+
+            result = new CapturedFileAttributes(type,
+                                                attributes.size(),
+                                                toMillis(attributes.lastModifiedTime()),
+                                                toMillis(attributes.lastAccessTime()),
+                                                toMillis(attributes.creationTime()));
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Writes these attributes to the given output, in a form that can be read back with <code>read</code>.
+     */
+    void write(final DataOutput out)
+        throws IOException
+    {
+        out.writeByte(type);
+        out.writeLong(sizeInBytes);
+        out.writeLong(lastModifiedTimeInMs);
+        out.writeLong(lastAccessTimeInMs);
+        out.writeLong(creationTimeInMs);
+    }
+
+
+    /**
+     * Reads attributes previously written with <code>write</code>.
+     */
+    static CapturedFileAttributes read(final DataInput in)
+        throws IOException
+    {
+        return(new CapturedFileAttributes(in.readByte(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+    }
+
+
+    @Override
+    public FileTime lastModifiedTime()
+    {
+        return(FileTime.fromMillis(lastModifiedTimeInMs));
+    }
+
+    @Override
+    public FileTime lastAccessTime()
+    {
+        return(FileTime.fromMillis(lastAccessTimeInMs));
+    }
+
+    @Override
+    public FileTime creationTime()
+    {
+        return(FileTime.fromMillis(creationTimeInMs));
+    }
+
+    @Override
+    public boolean isRegularFile()
+    {
+        return(type == TYPE_REGULAR_FILE);
+    }
+
+    @Override
+    public boolean isDirectory()
+    {
+        return(type == TYPE_DIRECTORY);
+    }
+
+    @Override
+    public boolean isSymbolicLink()
+    {
+        return(type == TYPE_SYMBOLIC_LINK);
+    }
+
+    @Override
+    public boolean isOther()
+    {
+        return(type == TYPE_OTHER);
+    }
+
+    @Override
+    public long size()
+    {
+        return(sizeInBytes);
+    }
+
+    @Override
+    public Object fileKey()
+    {
+        return(null);  // Not captured, as nothing in the import tool needs it
+    }
+
+
+    private static long toMillis(final FileTime fileTime)
+    {
+        return(fileTime == null ? 0L : fileTime.to(TimeUnit.MILLISECONDS));
+    }
+
+}
@@ -20,11 +20,19 @@
 package org.alfresco.extension.bulkimport.source.fs;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -74,14 +82,45 @@ public final class DirectoryAnalyser
     private final ServiceRegistry serviceRegistry;
     private final ContentStore    configuredContentStore;
     private final MetadataLoader  metadataLoader;
+    private final boolean         useNio;
+    private final boolean         zeroCopy;
 
     private BulkImportSourceStatus importStatus;
+    private PathTranslationTrie    targetPaths;
 
 
 
     public DirectoryAnalyser(final ServiceRegistry serviceRegistry,
                              final ContentStore    configuredContentStore,
                              final MetadataLoader  metadataLoader)
+    {
+        this(serviceRegistry, configuredContentStore, metadataLoader, false);
+    }
+
+
+    /**
+     * @param useNio If true, directories are listed with <code>java.nio.file.DirectoryStream</code> and the basic
+     *               attributes of each entry are read exactly once, then carried along with the resulting item
+     *               versions. If false, <code>java.io.File</code> is used (the historical behaviour).
+     */
+    public DirectoryAnalyser(final ServiceRegistry serviceRegistry,
+                             final ContentStore    configuredContentStore,
+                             final MetadataLoader  metadataLoader,
+                             final boolean         useNio)
+    {
+        this(serviceRegistry, configuredContentStore, metadataLoader, useNio, false);
+    }
+
+
+    /**
+     * @param zeroCopy If true, content is copied into the repository with <code>FileChannel.transferTo</code>. If false,
+     *                 <code>ContentWriter.putContent(File)</code> is used (the historical behaviour).
+     */
+    public DirectoryAnalyser(final ServiceRegistry serviceRegistry,
+                             final ContentStore    configuredContentStore,
+                             final MetadataLoader  metadataLoader,
+                             final boolean         useNio,
+                             final boolean         zeroCopy)
     {
         // PRECONDITIONS
         assert serviceRegistry        != null : "serviceRegistry must not be null.";
@@ -93,14 +132,22 @@ public final class DirectoryAnalyser
         this.serviceRegistry        = serviceRegistry;
         this.configuredContentStore = configuredContentStore;
         this.metadataLoader         = metadataLoader;
+        this.useNio                 = useNio;
+        this.zeroCopy               = zeroCopy;
     }
 
 
     public void init(final BulkImportSourceStatus importStatus)
     {
         this.importStatus = importStatus;
+        this.targetPaths  = new PathTranslationTrie();
 
         importStatus.preregisterSourceCounters(COUNTER_NAMES);
+
+        if (metadataLoader instanceof AbstractMapBasedMetadataLoader)
+        {
+            ((AbstractMapBasedMetadataLoader)metadataLoader).init(importStatus);
+        }
     }
 
 	/**
@@ -113,6 +160,24 @@ public final class DirectoryAnalyser
      */
     public Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> analyseDirectory(final File sourceDirectory, final File directory, final boolean submitFiles, final long scannerPass)
         throws InterruptedException
+    {
+        return(analyseDirectory(sourceDirectory, directory, !submitFiles, submitFiles, scannerPass));
+    }
+
+
+    /**
+     * Analyses the given directory, counting directories and/or files as requested.  Single pass scans count both.
+     *
+     * @param sourceDirectory The source directory for the entire import (note: <u>must</u> be a directory) <i>(must not be null)</i>.
+     * @param directory The directory to analyse (note: <u>must</u> be a directory) <i>(must not be null)</i>.
+     * @param countDirectories Whether the directories in the listing should be counted.
+     * @param countFiles Whether the (non-metadata) files in the listing should be counted.
+     * @param scannerPass The scanner pass (metadata files are only counted on the first pass).
+     * @return An <code>AnalysedDirectory</code> object <i>(will not be null)</i>.
+     * @throws InterruptedException If the thread executing the method is interrupted.
+     */
+    public Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> analyseDirectory(final File sourceDirectory, final File directory, final boolean countDirectories, final boolean countFiles, final long scannerPass)
+        throws InterruptedException
     {
         // PRECONDITIONS
         if (sourceDirectory == null) throw new IllegalArgumentException("sourceDirectory cannot be null.");
@@ -122,61 +187,152 @@ public final class DirectoryAnalyser
         if (debug(log)) debug(log, "Analysing directory " + getFileName(directory) + "...");
 
         Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> result                        = null;
-        File[]                                                               directoryListing              = null;
+        Map<File, BasicFileAttributes>                                       directoryListing              = null;
         long                                                                 analysisStart                 = 0L;
         long                                                                 analysisEnd                   = 0L;
         long                                                                 start                         = 0L;
         long                                                                 end                           = 0L;
         String                                                               sourceRelativeParentDirectory = sourceDirectory.toPath().relativize(directory.toPath()).toString();  // Note: JDK 1.7 specific
 
-        List<String> itemParentPathElements = (sourceRelativeParentDirectory == null) ? null : Arrays.asList(sourceRelativeParentDirectory.split(REGEX_SPLIT_PATH_ELEMENTS));
-
-        String path = null;
-        String newSourceRelativeParentDirectory = null;
-        if (itemParentPathElements != null && itemParentPathElements.size() > 0) {
-               path = "/" + itemParentPathElements.get(0);
-               String t = getNameProperty(sourceDirectory.toPath() + path + ".metadata.properties.xml");
-               if (t != null) {
-                       newSourceRelativeParentDirectory = t;
-               } else {
-                       newSourceRelativeParentDirectory = itemParentPathElements.get(0);
-               }
-               for (int i = 1; i < itemParentPathElements.size(); i++) {
-                       path = path + "/" + itemParentPathElements.get(i);
-                       t = getNameProperty(sourceDirectory.toPath() + path + ".metadata.properties.xml");
-                       if (t != null) {
-                               newSourceRelativeParentDirectory = newSourceRelativeParentDirectory + "/" + t;
-                       } else {
-                               debug(log, "Could not find cm:name");
-                               newSourceRelativeParentDirectory = newSourceRelativeParentDirectory + "/" + itemParentPathElements.get(i);
-                       }
-               }
-        }
+        final List<String> itemParentPathElements           = splitPath(sourceRelativeParentDirectory);
+        final String       newSourceRelativeParentDirectory = translatePath(sourceDirectory, itemParentPathElements);
 
         // List the directory
         start         = System.nanoTime();
         analysisStart = start;
-        directoryListing = directory.listFiles();
+        directoryListing = useNio ? listDirectoryWithNio(directory) : listDirectory(directory);
         end = System.nanoTime();
-        if (trace(log)) trace(log, "List directory (" + directoryListing.length + " entries) took: " + (float)(end - start) / (1000 * 1000 * 1000) + "s.");
+        if (trace(log)) trace(log, "List directory (" + (directoryListing == null ? 0 : directoryListing.size()) + " entries) took: " + (float)(end - start) / (1000 * 1000 * 1000) + "s.");
 
         // Build up the list of items from the directory listing
         start = System.nanoTime();
-        result = analyseDirectory(sourceRelativeParentDirectory, newSourceRelativeParentDirectory, directoryListing, submitFiles, scannerPass);
+        result = analyseDirectory(sourceRelativeParentDirectory, newSourceRelativeParentDirectory, directoryListing, countDirectories, countFiles, scannerPass);
         end = System.nanoTime();
         if (trace(log)) trace(log, "Convert directory listing to set of filesystem import items took: " + (float)(end - start) / (1000 * 1000 * 1000) + "s.");
 
+        // Record the target names of the subdirectories, so that their own analysis doesn't have to reload them
+        if (result != null)
+        {
+            for (final FilesystemBulkImportItem directoryItem : result.getFirst())
+            {
+                targetPaths.register(itemParentPathElements, directoryItem.getSourceName(), directoryItem.getTargetName());
+            }
+        }
+
         analysisEnd = end;
         if (debug(log)) debug(log, "Finished analysing directory " + getFileName(directory) + ", in " + (float)(analysisEnd - analysisStart) / (1000 * 1000 * 1000) + "s.");
 
         return(result);
     }
 
-    private String getNameProperty(String metadataFile)
+    /*
+     * Lists the given directory using java.io.File.  Attributes aren't captured, so the values in the result are all
+     * null.
+     */
+    private Map<File, BasicFileAttributes> listDirectory(final File directory)
+    {
+        Map<File, BasicFileAttributes> result  = null;
+        final File[]                   listing = directory.listFiles();
+
+        if (listing != null)
+        {
+            result = new LinkedHashMap<>(listing.length * 2);
+
+            for (final File file : listing)
+            {
+                result.put(file, null);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Lists the given directory using java.nio.file, capturing the basic attributes of each entry - that's the only
+     * filesystem call made per entry here.  Readability is checked later, and only for the entries that turn out to be
+     * files (unreadable directories are caught when they're listed in turn).
+     */
+    private Map<File, BasicFileAttributes> listDirectoryWithNio(final File directory)
+    {
+        Map<File, BasicFileAttributes> result = null;
+
+        try (final DirectoryStream<Path> listing = Files.newDirectoryStream(directory.toPath()))
+        {
+            result = new LinkedHashMap<>();
+
+            for (final Path path : listing)
+            {
+                final File file = path.toFile();
+
+                try
+                {
+                    result.put(file, CapturedFileAttributes.of(Files.readAttributes(path, BasicFileAttributes.class)));
+                }
+                catch (final IOException ioe)
+                {
+                    skipUnreadable(file);
+                }
+            }
+        }
+        catch (final AccessDeniedException ade)
+        {
+            skipUnreadable(directory);
+            result = null;
+        }
+        catch (final IOException ioe)
+        {
+            if (warn(log)) warn(log, "Unable to list directory '" + getFileName(directory) + "'.", ioe);
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    private final static List<String> splitPath(final String sourceRelativePath)
+    {
+        List<String> result = null;
+
+        if (sourceRelativePath == null || sourceRelativePath.isEmpty())
+        {
+            result = Collections.emptyList();
+        }
+        else
+        {
+            result = Arrays.asList(sourceRelativePath.split(REGEX_SPLIT_PATH_ELEMENTS));
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Translates a source-relative directory path into a target path, via the trie of directory target names.  The
+     * metadata of an ancestor directory is only loaded if that directory wasn't registered while analysing its parent.
+     */
+    private String translatePath(final File sourceDirectory, final List<String> sourcePathElements)
+    {
+        return(targetPaths.translate(sourcePathElements, new PathTranslationTrie.TargetNameResolver()
+        {
+            @Override
+            public String resolve(final String sourceRelativePath, final String sourceName)
+            {
+                final String result = getNameProperty(new File(sourceDirectory, sourceRelativePath + MetadataLoader.METADATA_SUFFIX + metadataLoader.getMetadataFileExtension()));
+
+                if (result == null && debug(log)) debug(log, "Could not find cm:name for " + sourceRelativePath + ".");
+
+                return(result == null ? sourceName : result);
+            }
+        }));
+    }
+
+
+    private String getNameProperty(final File metadataFile)
     {
         String rv = null;
 
-        Metadata p = metadataLoader.loadMetadata(new File(metadataFile));
+        Metadata p = metadataLoader.loadMetadata(metadataFile);
         Map<String, Serializable> properties = p.getProperties();
         if (properties.containsKey("cm:name")) {
                 debug(log, "Found cm:name");
@@ -204,7 +360,7 @@ public final class DirectoryAnalyser
     	return value.toString();
     }
 
-    private Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> analyseDirectory(final String sourceRelativeParentDirectory, final String altSourceRelativeParentDirectory, final File[] directoryListing, final boolean countFiles, final long scannerPass)
+    private Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> analyseDirectory(final String sourceRelativeParentDirectory, final String altSourceRelativeParentDirectory, final Map<File, BasicFileAttributes> directoryListing, final boolean countDirectories, final boolean countFiles, final long scannerPass)
         throws InterruptedException
     {
         Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> result = null;
@@ -212,18 +368,18 @@ public final class DirectoryAnalyser
         if (directoryListing != null)
         {
             // This needs some Clojure, desperately...
-            Map<String, SortedMap<BigDecimal, Pair<File, File>>> categorisedFiles = categoriseFiles(directoryListing, countFiles, scannerPass);
+            Map<String, SortedMap<BigDecimal, Pair<File, File>>> categorisedFiles = categoriseFiles(directoryListing, countDirectories, countFiles, scannerPass);
 
             if (debug(log)) debug(log, "Categorised files: " + String.valueOf(categorisedFiles));
 
-            result = constructImportItems(sourceRelativeParentDirectory, altSourceRelativeParentDirectory, categorisedFiles);
+            result = constructImportItems(sourceRelativeParentDirectory, altSourceRelativeParentDirectory, categorisedFiles, directoryListing);
         }
 
         return(result);
     }
 
 
-    private Map<String, SortedMap<BigDecimal, Pair<File, File>>> categoriseFiles(final File[] directoryListing, final boolean countFiles, final long scannerPass)
+    private Map<String, SortedMap<BigDecimal, Pair<File, File>>> categoriseFiles(final Map<File, BasicFileAttributes> directoryListing, final boolean countDirectories, final boolean countFiles, final long scannerPass)
         throws InterruptedException
     {
         Map<String, SortedMap<BigDecimal, Pair<File, File>>> result = null;
@@ -232,11 +388,11 @@ public final class DirectoryAnalyser
         {
             result = new HashMap<>();
 
-            for (final File file : directoryListing)
+            for (final Map.Entry<File, BasicFileAttributes> entry : directoryListing.entrySet())
             {
                 if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
 
-                categoriseFile(result, file, countFiles, scannerPass);
+                categoriseFile(result, entry.getKey(), entry.getValue(), countDirectories, countFiles, scannerPass);
             }
         }
 
@@ -248,12 +404,13 @@ public final class DirectoryAnalyser
      * This method does the hard work of figuring out where the file belongs (which parent item, and where in that item's
      * version history).
      */
-    private void categoriseFile(final Map<String, SortedMap<BigDecimal, Pair<File, File>>> categorisedFiles, final File file, boolean countFiles, final long scannerPass)
+    private void categoriseFile(final Map<String, SortedMap<BigDecimal, Pair<File, File>>> categorisedFiles, final File file, final BasicFileAttributes attributes, final boolean countDirectories, final boolean countFiles, final long scannerPass)
     {
         if (file != null)
         {
-            if (file.canRead())
+            if (isReadable(file, attributes))
             {
+                final boolean    isDirectory    = attributes != null ? attributes.isDirectory() : file.isDirectory();
                 final String     fileName       = file.getName();
                 final String     parentName     = getParentName(metadataLoader, fileName);
                 final boolean    isMetadata     = isMetadataFile(metadataLoader, fileName);
@@ -287,34 +444,62 @@ public final class DirectoryAnalyser
                 }
 
                 versions.put(versionNumber, version);
-            	if (file.isDirectory() && !countFiles)
+            	if (isDirectory && countDirectories)
             	{
                     importStatus.incrementSourceCounter(COUNTER_NAME_DIRECTORIES_SCANNED);
             	}
             	else
-                if (!file.isDirectory() && isMetadata)
+                if (!isDirectory && isMetadata)
                 {
                 	// Only count them on the first pass
                 	if (scannerPass == 0) importStatus.incrementSourceCounter(COUNTER_NAME_METADATA_SCANNED);
                 }
                 else
-                if (!file.isDirectory() && countFiles)
+                if (!isDirectory && countFiles)
                 {
                     importStatus.incrementSourceCounter(COUNTER_NAME_FILES_SCANNED);
                 }
             }
             else
             {
-                if (warn(log)) warn(log, "Skipping '" + getFileName(file) + "' as Alfresco does not have permission to read it.");
-                importStatus.incrementSourceCounter(COUNTER_NAME_UNREADABLE_ENTRIES);
+                skipUnreadable(file);
             }
         }
     }
 
 
+    /*
+     * Entries listed with java.nio come with their attributes, but haven't had their readability checked yet - only the
+     * files (i.e. content and metadata files) are checked here, as unreadable directories are caught when they're listed.
+     */
+    private final static boolean isReadable(final File file, final BasicFileAttributes attributes)
+    {
+        boolean result = false;
+
+        if (attributes == null)
+        {
+            result = file.canRead();
+        }
+        else
+        {
+            result = attributes.isDirectory() || Files.isReadable(file.toPath());
+        }
+
+        return(result);
+    }
+
+
+    private void skipUnreadable(final File file)
+    {
+        if (warn(log)) warn(log, "Skipping '" + getFileName(file) + "' as Alfresco does not have permission to read it.");
+        importStatus.incrementSourceCounter(COUNTER_NAME_UNREADABLE_ENTRIES);
+    }
+
+
     private Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> constructImportItems(final String                                             sourceRelativeParentDirectory,
                                                                                                       final String                                             altSourceRelativeParentDirectory,
-                                                                                                      final Map<String, SortedMap<BigDecimal,Pair<File,File>>> categorisedFiles)
+                                                                                                      final Map<String, SortedMap<BigDecimal,Pair<File,File>>> categorisedFiles,
+                                                                                                      final Map<File, BasicFileAttributes>                     directoryListing)
         throws InterruptedException
     {
         Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> result = null;
@@ -333,7 +518,7 @@ public final class DirectoryAnalyser
                 final SortedMap<BigDecimal,Pair<File,File>>         itemVersions = categorisedFiles.get(parentName);
                 final Pair<File, File>                              lastVersion  = itemVersions.get(itemVersions.lastKey());
                 final File                                          sourceFile   = (lastVersion.getFirst() != null ? lastVersion.getFirst() : lastVersion.getSecond());
-                final NavigableSet<FilesystemBulkImportItemVersion> versions     = constructImportItemVersions(itemVersions);
+                final NavigableSet<FilesystemBulkImportItemVersion> versions     = constructImportItemVersions(itemVersions, directoryListing);
                 final boolean                                       isDirectory  = versions.last().isDirectory();
                 final FilesystemBulkImportItem                      item         = new FilesystemBulkImportItem(sourceFile.getName(),
                                                                                                                 getNameProperty(versions.last(), parentName),
@@ -356,7 +541,8 @@ public final class DirectoryAnalyser
     }
 
 
-    private final NavigableSet<FilesystemBulkImportItemVersion> constructImportItemVersions(final SortedMap<BigDecimal,Pair<File,File>> itemVersions)
+    private final NavigableSet<FilesystemBulkImportItemVersion> constructImportItemVersions(final SortedMap<BigDecimal,Pair<File,File>> itemVersions,
+                                                                                            final Map<File, BasicFileAttributes>       directoryListing)
         throws InterruptedException
     {
         // PRECONDITIONS
@@ -370,18 +556,53 @@ public final class DirectoryAnalyser
         {
             if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
 
-            final Pair<File,File>   contentAndMetadataFiles = itemVersions.get(versionNumber);
-            final FilesystemBulkImportItemVersion version   = new FilesystemBulkImportItemVersion(serviceRegistry,
-                                                                                                  configuredContentStore,
-                                                                                                  metadataLoader,
-                                                                                                  versionNumber,
-                                                                                                  contentAndMetadataFiles.getFirst(),
-                                                                                                  contentAndMetadataFiles.getSecond());
+            final Pair<File,File> contentAndMetadataFiles = itemVersions.get(versionNumber);
 
-            result.add(version);
+            final File            contentFile             = contentAndMetadataFiles.getFirst();
+
+            result.add(createImportItemVersion(versionNumber,
+                                               contentFile,
+                                               contentAndMetadataFiles.getSecond(),
+                                               contentFile == null ? null : directoryListing.get(contentFile)));
         }
 
         return(result);
     }
 
+
+    /**
+     * Constructs a single item version from its constituent files.
+     *
+     * @param versionNumber The version number of the version <i>(must not be null)</i>.
+     * @param contentFile The content file of the version <i>(may be null)</i>.
+     * @param metadataFile The metadata file of the version <i>(may be null)</i>.
+     * @return The new version <i>(will not be null)</i>.
+     */
+    public FilesystemBulkImportItemVersion createImportItemVersion(final BigDecimal versionNumber, final File contentFile, final File metadataFile)
+    {
+        return(createImportItemVersion(versionNumber, contentFile, metadataFile, null));
+    }
+
+
+    /**
+     * Constructs a single item version from its constituent files, reusing previously captured content file attributes.
+     *
+     * @param versionNumber The version number of the version <i>(must not be null)</i>.
+     * @param contentFile The content file of the version <i>(may be null)</i>.
+     * @param metadataFile The metadata file of the version <i>(may be null)</i>.
+     * @param contentAttributes The attributes of the content file <i>(may be null)</i>.
+     * @return The new version <i>(will not be null)</i>.
+     */
+    public FilesystemBulkImportItemVersion createImportItemVersion(final BigDecimal versionNumber, final File contentFile, final File metadataFile, final BasicFileAttributes contentAttributes)
+    {
+        return(new FilesystemBulkImportItemVersion(serviceRegistry,
+                                                   configuredContentStore,
+                                                   metadataLoader,
+                                                   versionNumber,
+                                                   contentFile,
+                                                   metadataFile,
+                                                   contentAttributes,
+                                                   zeroCopy));
+    }
+
 }
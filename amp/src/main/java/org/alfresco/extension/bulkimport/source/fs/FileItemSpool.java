@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.source.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.alfresco.extension.bulkimport.BulkImportCallback;
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.*;
+
+
+/**
+ * This class is a compact, append-only, on-disk queue of file items.  It's
+ * used by the single pass scanning mode of the filesystem source: file items
+ * discovered while scanning for folders are spooled here, then replayed
+ * during the file phase, so that each directory only has to be listed once.
+ *
+ * Only the information needed to reconstruct an item is spooled (names,
+ * paths, version numbers and any captured content file attributes) -
+ * everything else is rebuilt on replay.
+ */
+final class FileItemSpool
+    implements BulkImportCallback
+{
+    private final static Log log = LogFactory.getLog(FileItemSpool.class);
+
+    private final static String SPOOL_FILE_PREFIX = "bulk-import-files-";
+    private final static String SPOOL_FILE_SUFFIX = ".spool";
+
+    private final static byte RECORD_ITEM    = 1;
+    private final static byte RECORD_THE_END = 0;
+
+    private final DirectoryAnalyser directoryAnalyser;
+    private final File              spoolFile;
+
+    private DataOutputStream out;
+    private long             numberOfItems;
+
+
+    FileItemSpool(final DirectoryAnalyser directoryAnalyser)
+        throws IOException
+    {
+        // PRECONDITIONS
+        assert directoryAnalyser != null : "directoryAnalyser must not be null.";
+
+        // Body
+        this.directoryAnalyser = directoryAnalyser;
+        this.spoolFile         = File.createTempFile(SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+        this.out               = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile)));
+        this.numberOfItems     = 0;
+
+        spoolFile.deleteOnExit();
+
+        if (debug(log)) debug(log, "Spooling file items to " + spoolFile.getAbsolutePath() + ".");
+    }
+
+
+    /**
+     * Appends the given file item to the spool.  This method is thread safe.
+     *
+     * @see org.alfresco.extension.bulkimport.BulkImportCallback#submit(org.alfresco.extension.bulkimport.source.BulkImportItem)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public synchronized void submit(final BulkImportItem item)
+        throws InterruptedException
+    {
+        // PRECONDITIONS
+        if (item == null)                                  throw new IllegalArgumentException("item cannot be null.");
+        if (!(item instanceof FilesystemBulkImportItem))   throw new IllegalArgumentException("Only filesystem items can be spooled.");
+        if (out == null)                                   throw new IllegalStateException("Spool " + spoolFile.getAbsolutePath() + " has already been closed.");
+
+        // Body
+        final FilesystemBulkImportItem fileItem = (FilesystemBulkImportItem)item;
+
+        try
+        {
+            out.writeByte(RECORD_ITEM);
+            out.writeUTF(fileItem.getSourceName());
+            out.writeUTF(fileItem.getTargetName());
+            writeNullableString(fileItem.getSourceRelativePathOfParent());
+            writeNullableString(fileItem.getTargetRelativePathOfParent());
+            out.writeInt(fileItem.getVersions().size());
+
+            for (final FilesystemBulkImportItemVersion version : fileItem.getVersions())
+            {
+                out.writeUTF(version.getVersionNumber().toString());
+                writeNullableFile(version.getContentFile());
+                writeNullableFile(version.getMetadataFile());
+                out.writeBoolean(version.getContentAttributes() != null);
+
+                if (version.getContentAttributes() != null)
+                {
+                    CapturedFileAttributes.of(version.getContentAttributes()).write(out);
+                }
+            }
+
+            numberOfItems++;
+        }
+        catch (final IOException ioe)
+        {
+            throw new RuntimeException("Unable to spool " + fileItem.getSourceName() + " to " + spoolFile.getAbsolutePath() + ".", ioe);  // Checked exceptions == #fail
+        }
+    }
+
+
+    /**
+     * Closes the spool for writing.  Must be called before <code>replay</code>.
+     */
+    synchronized void close()
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.writeByte(RECORD_THE_END);
+                out.close();
+            }
+            catch (final IOException ioe)
+            {
+                throw new RuntimeException("Unable to close spool " + spoolFile.getAbsolutePath() + ".", ioe);  // Checked exceptions == #fail
+            }
+            finally
+            {
+                out = null;
+            }
+
+            if (debug(log)) debug(log, "Spooled " + numberOfItems + " file items to " + spoolFile.getAbsolutePath() + " (" + spoolFile.length() + " bytes).");
+        }
+    }
+
+
+    /**
+     * Reconstructs each spooled file item, in the order they were spooled, and submits it to the given callback.
+     *
+     * @param callback The callback to submit the reconstructed items to <i>(must not be null)</i>.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    void replay(final BulkImportCallback callback)
+        throws InterruptedException
+    {
+        // PRECONDITIONS
+        if (callback == null) throw new IllegalArgumentException("callback cannot be null.");
+
+        // Body
+        close();
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile))))
+        {
+            while (in.readByte() == RECORD_ITEM)
+            {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+
+                final String                                        sourceName         = in.readUTF();
+                final String                                        targetName         = in.readUTF();
+                final String                                        sourcePathOfParent = readNullableString(in);
+                final String                                        targetPathOfParent = readNullableString(in);
+                final int                                           numberOfVersions   = in.readInt();
+                final NavigableSet<FilesystemBulkImportItemVersion> versions           = new TreeSet<>();
+
+                for (int i = 0; i < numberOfVersions; i++)
+                {
+                    final BigDecimal             versionNumber     = new BigDecimal(in.readUTF());
+                    final File                   contentFile       = readNullableFile(in);
+                    final File                   metadataFile      = readNullableFile(in);
+                    final CapturedFileAttributes contentAttributes = in.readBoolean() ? CapturedFileAttributes.read(in) : null;
+
+                    versions.add(directoryAnalyser.createImportItemVersion(versionNumber, contentFile, metadataFile, contentAttributes));
+                }
+
+                callback.submit(new FilesystemBulkImportItem(sourceName, targetName, false, sourcePathOfParent, targetPathOfParent, versions));
+            }
+        }
+        catch (final IOException ioe)
+        {
+            throw new RuntimeException("Unable to replay spool " + spoolFile.getAbsolutePath() + ".", ioe);  // Checked exceptions == #fail
+        }
+    }
+
+
+    /**
+     * Discards the spool, deleting the underlying file.  Safe to call more than once.
+     */
+    void delete()
+    {
+        try
+        {
+            close();
+        }
+        catch (final RuntimeException re)
+        {
+            if (debug(log)) debug(log, "Unable to close spool " + spoolFile.getAbsolutePath() + " - it will be deleted regardless.", re);
+        }
+
+        if (spoolFile.exists() && !spoolFile.delete())
+        {
+            if (warn(log)) warn(log, "Unable to delete spool " + spoolFile.getAbsolutePath() + ". It will be deleted when Alfresco shuts down.");
+        }
+    }
+
+
+    private void writeNullableString(final String value)
+        throws IOException
+    {
+        out.writeBoolean(value != null);
+
+        if (value != null)
+        {
+            out.writeUTF(value);
+        }
+    }
+
+
+    private void writeNullableFile(final File value)
+        throws IOException
+    {
+        writeNullableString(value == null ? null : value.getPath());
+    }
+
+
+    private static String readNullableString(final DataInputStream in)
+        throws IOException
+    {
+        return(in.readBoolean() ? in.readUTF() : null);
+    }
+
+
+    private static File readNullableFile(final DataInputStream in)
+        throws IOException
+    {
+        final String path = readNullableString(in);
+
+        return(path == null ? null : new File(path));
+    }
+
+}
@@ -25,8 +25,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Date;
 import java.util.Map;
@@ -39,6 +43,7 @@ import org.alfresco.model.ContentModel;
 import org.alfresco.repo.content.ContentStore;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentIOException;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.MimetypeService;
 import org.alfresco.service.namespace.NamespaceService;
@@ -56,7 +61,6 @@ import static org.alfresco.extension.bulkimport.source.fs.FilesystemSourceUtils.
 public final class FilesystemBulkImportItemVersion
     extends AbstractBulkImportItemVersion<File, File>
 {
-    @SuppressWarnings("unused")
     private final static Log log = LogFactory.getLog(FilesystemBulkImportItemVersion.class);
 
     private final ServiceRegistry  serviceRegistry;
@@ -64,14 +68,21 @@ public final class FilesystemBulkImportItemVersion
     private final NamespaceService namespaceService;
     private final ContentStore     configuredContentStore;
     private final MetadataLoader   metadataLoader;
+    private final boolean          zeroCopy;
 
     // Cached file info (to avoid repeated calls to stat syscall on the same file)
-    private final boolean isDirectory;
-    private final long    cachedSizeInBytes;
+    private final boolean             isDirectory;
+    private final boolean             contentIsDirectory;
+    private final long                cachedSizeInBytes;
+    private final BasicFileAttributes cachedContentAttributes;
 
     private Metadata cachedMetadata   = null;
     private boolean  contentIsInPlace = false;
 
+    // Content type info - detected at most once per content file, then reused by both in-place and streamed imports
+    private volatile String cachedMimeType = null;
+    private volatile String cachedEncoding = null;
+
 
     public FilesystemBulkImportItemVersion(final ServiceRegistry serviceRegistry,
                                            final ContentStore    configuredContentStore,
@@ -79,9 +90,48 @@ public final class FilesystemBulkImportItemVersion
                                            final BigDecimal      versionNumber,
                                            final File            contentFile,
                                            final File            metadataFile)
+    {
+        this(serviceRegistry, configuredContentStore, metadataLoader, versionNumber, contentFile, metadataFile, null);
+    }
+
+
+    /**
+     * @param contentAttributes The attributes of the content file, if they've already been read (e.g. while listing
+     *                          the directory) <i>(may be null, in which case they'll be read from disk as needed)</i>.
+     */
+    public FilesystemBulkImportItemVersion(final ServiceRegistry     serviceRegistry,
+                                           final ContentStore        configuredContentStore,
+                                           final MetadataLoader      metadataLoader,
+                                           final BigDecimal          versionNumber,
+                                           final File                contentFile,
+                                           final File                metadataFile,
+                                           final BasicFileAttributes contentAttributes)
+    {
+        this(serviceRegistry, configuredContentStore, metadataLoader, versionNumber, contentFile, metadataFile, contentAttributes, false);
+    }
+
+
+    /**
+     * @param zeroCopy If true, content is copied to the writer's channel with <code>FileChannel.transferTo</code>, and the encoding
+     *                 is detected from the start of the content as it's copied.  If false, content is copied with
+     *                 <code>ContentWriter.putContent(File)</code>, and the encoding is detected by reading the start of the content
+     *                 file before it's copied.  Note that the operating system only copies the file itself (i.e. without it passing
+     *                 through the JVM) if the writer's channel is the JDK's own file channel - Alfresco's writers wrap their
+     *                 channels, in which case the JDK copies through a buffer, and the only saving is the separate read of the
+     *                 start of the file.
+     */
+    public FilesystemBulkImportItemVersion(final ServiceRegistry     serviceRegistry,
+                                           final ContentStore        configuredContentStore,
+                                           final MetadataLoader      metadataLoader,
+                                           final BigDecimal          versionNumber,
+                                           final File                contentFile,
+                                           final File                metadataFile,
+                                           final BasicFileAttributes contentAttributes,
+                                           final boolean             zeroCopy)
     {
         super(calculateType(metadataLoader,
                             contentFile,
+                            contentAttributes,
                             metadataFile,
                             ContentModel.TYPE_FOLDER.toPrefixString(serviceRegistry.getNamespaceService()),
                             ContentModel.TYPE_CONTENT.toPrefixString(serviceRegistry.getNamespaceService())),
@@ -92,19 +142,22 @@ public final class FilesystemBulkImportItemVersion
         this.namespaceService       = serviceRegistry.getNamespaceService();
         this.configuredContentStore = configuredContentStore;
         this.metadataLoader         = metadataLoader;
+        this.zeroCopy               = zeroCopy;
         this.contentReference       = contentFile;
         this.metadataReference      = metadataFile;
 
-        // "stat" the content file then cache the results
-        this.isDirectory = serviceRegistry.getDictionaryService().isSubClass(createQName(serviceRegistry, getType()), ContentModel.TYPE_FOLDER);
+        // "stat" the content file (unless that's already been done) then cache the results
+        this.isDirectory             = serviceRegistry.getDictionaryService().isSubClass(createQName(serviceRegistry, getType()), ContentModel.TYPE_FOLDER);
+        this.cachedContentAttributes = contentAttributes;
+        this.contentIsDirectory      = isDirectory(contentFile, contentAttributes);
 
-        if (contentFile == null || contentFile.isDirectory())
+        if (contentFile == null || contentIsDirectory)
         {
             cachedSizeInBytes = 0L;
         }
         else
         {
-            cachedSizeInBytes = contentFile.length();
+            cachedSizeInBytes = contentAttributes != null ? contentAttributes.size() : contentFile.length();
         }
     }
 
@@ -113,6 +166,19 @@ public final class FilesystemBulkImportItemVersion
         return(contentReference);
     }
 
+    public File getMetadataFile()
+    {
+        return(metadataReference);
+    }
+
+    /**
+     * @return The attributes of the content file captured when this version was constructed <i>(may be null)</i>.
+     */
+    public BasicFileAttributes getContentAttributes()
+    {
+        return(cachedContentAttributes);
+    }
+
     public boolean isDirectory()
     {
         return(isDirectory);
@@ -174,7 +240,7 @@ public final class FilesystemBulkImportItemVersion
     @Override
     public boolean hasContent()
     {
-        return(contentReference != null && !contentReference.isDirectory());
+        return(contentReference != null && !contentIsDirectory);
     }
 
     /**
@@ -205,23 +271,153 @@ public final class FilesystemBulkImportItemVersion
         return(contentIsInPlace);
     }
 
+    /**
+     * @return The mimetype of the content file, guessed from its name <i>(will be null if this version has no content)</i>.
+     */
+    public String getMimeType()
+    {
+        if (cachedMimeType == null && hasContent())
+        {
+            cachedMimeType = guessMimetype(mimeTypeService, contentReference.getName());
+        }
+
+        return(cachedMimeType);
+    }
+
+    /**
+     * @return The encoding of the content file, detected from the start of the file <i>(will be null if this version has no content)</i>.
+     */
+    public String getEncoding()
+    {
+        if (cachedEncoding == null && hasContent())
+        {
+            cachedEncoding = guessEncoding(mimeTypeService, contentReference, getMimeType());
+        }
+
+        return(cachedEncoding);
+    }
+
     /**
      * @see org.alfresco.extension.bulkimport.source.BulkImportItemVersion#putContent(org.alfresco.service.cmr.repository.ContentWriter)
      */
     @Override
     public void putContent(final ContentWriter writer)
     {
-        writer.guessMimetype(contentReference.getName());
-        writer.putContent(contentReference);
-        writer.guessEncoding();
+        final long start  = System.nanoTime();
+        String     method = null;
+
+        writer.setMimetype(getMimeType());
+
+        if (zeroCopy)
+        {
+            try
+            {
+                putContentViaChannel(writer);
+                method = "channel";
+            }
+            catch (final UnsupportedOperationException uoe)
+            {
+                // The writer doesn't support channels - fall through to the stream copy
+            }
+            catch (final IOException ioe)
+            {
+                throw new ContentIOException("Unable to copy content from '" + getContentSource() + "'.", ioe);
+            }
+        }
+
+        if (method == null)
+        {
+            writer.setEncoding(getEncoding());
+            writer.putContent(contentReference);
+            method = "stream";
+        }
+
+        if (debug(log))
+        {
+            final long   durationInNs = System.nanoTime() - start;
+            final long   bytes        = writer.getSize();
+            final double mbPerSecond  = durationInNs <= 0 ? 0.0 : (bytes / (1024.0 * 1024.0)) / (durationInNs / 1000000000.0);
+
+            debug(log, String.format("Copied %d bytes from '%s' via %s in %s (%.3f MB/sec).",
+                                     bytes, getContentSource(), method, getDurationInSeconds(durationInNs), mbPerSecond));
+        }
+    }
+
+
+    /*
+     * Copies the content file to the writer's channel.  The start of the file is read into memory first, so that the encoding can be
+     * detected from it (if that hasn't been done already) without reading the file twice, then the remainder of the file is transferred
+     * with FileChannel.transferTo.  That's only done by the operating system when the target is the JDK's own file (or socket) channel
+     * implementation - for any other channel (such as the callback wrappers Alfresco's content writers return) the JDK falls back to
+     * copying through a buffer.
+     */
+    private void putContentViaChannel(final ContentWriter writer)
+        throws IOException
+    {
+        try (final FileChannel source = FileChannel.open(contentReference.toPath(), StandardOpenOption.READ))
+        {
+            final WritableByteChannel target = writer.getWritableChannel();
+
+            try
+            {
+                final long       size = source.size();
+                final ByteBuffer head = ByteBuffer.allocate((int)Math.min(ENCODING_DETECTION_BUFFER_SIZE, size));
+
+                while (head.hasRemaining() && source.read(head) >= 0)
+                {
+                    // Keep reading
+                }
+
+                head.flip();
+
+                if (cachedEncoding == null)
+                {
+                    cachedEncoding = guessEncoding(mimeTypeService, head.array(), head.limit(), getMimeType());
+                }
+
+                writer.setEncoding(cachedEncoding);
+
+                while (head.hasRemaining())
+                {
+                    target.write(head);
+                }
+
+                long position = head.limit();
+
+                while (position < size)
+                {
+                    final long transferred = source.transferTo(position, size - position, target);
+
+                    if (transferred <= 0) break;  // The file has been truncated since we started
+                    position += transferred;
+                }
+            }
+            finally
+            {
+                target.close();
+            }
+        }
     }
 
 
-    private final static String calculateType(final MetadataLoader metadataLoader,
-                                              final File           contentFile,
-                                              final File           metadataFile,
-                                              final String         typeFolder,
-                                              final String         typeFile)
+    private final static boolean isDirectory(final File contentFile, final BasicFileAttributes contentAttributes)
+    {
+        boolean result = false;
+
+        if (contentFile != null)
+        {
+            result = contentAttributes != null ? contentAttributes.isDirectory() : contentFile.isDirectory();
+        }
+
+        return(result);
+    }
+
+    private final static String calculateType(final MetadataLoader      metadataLoader,
+                                              final File                contentFile,
+                                              final BasicFileAttributes contentAttributes,
+                                              final File                metadataFile,
+                                              final String              typeFolder,
+                                              final String              typeFile)
     {
         String result = null;
         final Metadata metadata = metadataLoader.loadMetadata(metadataFile);
@@ -232,7 +428,7 @@ public final class FilesystemBulkImportItemVersion
         {
             if (contentFile != null)
             {
-                result = contentFile.isDirectory() ? typeFolder : typeFile;
+                result = isDirectory(contentFile, contentAttributes) ? typeFolder : typeFile;
             }
             else
             {
@@ -256,7 +452,7 @@ public final class FilesystemBulkImportItemVersion
                 try
                 {
                     final Path                path       = contentReference.toPath();
-                    final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    final BasicFileAttributes attributes = cachedContentAttributes != null ? cachedContentAttributes : Files.readAttributes(path, BasicFileAttributes.class);
                     final String              user       = serviceRegistry.getAuthenticationService().getCurrentUserName();
 
                     // If not set in the metadata file, set the creation timestamp to what's on disk
@@ -296,9 +492,9 @@ public final class FilesystemBulkImportItemVersion
                     }
 
                     // If an in-place import is possible, attempt to construct a content URL
-                    if (!contentReference.isDirectory() && isInContentStore(configuredContentStore, contentReference))
+                    if (!contentIsDirectory && isInContentStore(configuredContentStore, contentReference))
                     {
-                        final ContentData contentData = buildContentProperty(mimeTypeService, configuredContentStore, contentReference);
+                        final ContentData contentData = buildContentProperty(configuredContentStore, contentReference, cachedSizeInBytes, getMimeType(), getEncoding());
 
                         if (contentData != null)
                         {
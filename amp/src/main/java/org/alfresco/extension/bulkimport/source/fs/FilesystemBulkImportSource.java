@@ -23,12 +23,22 @@ package org.alfresco.extension.bulkimport.source.fs;
 import static org.alfresco.extension.bulkimport.source.fs.FilesystemSourceUtils.isInContentStore;
 import static org.alfresco.extension.bulkimport.util.LogUtils.debug;
 import static org.alfresco.extension.bulkimport.util.LogUtils.info;
+import static org.alfresco.extension.bulkimport.util.Utils.getRootCause;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.extension.bulkimport.BulkImportCallback;
@@ -58,6 +68,9 @@ public final class FilesystemBulkImportSource
 
     private final static String PARAMETER_SOURCE_DIRECTORY = "sourceDirectory";
 
+    private final static String SCANNER_THREAD_NAME_PREFIX          = "BulkImport-Scanner-";
+    private final static String COUNTER_NAME_DIRECTORIES_SCANNED_BY = "Directories scanned by ";
+
     private static final ScannerCache NO_CACHE = new ScannerCache()
     {
 		@Override
@@ -80,14 +93,36 @@ public final class FilesystemBulkImportSource
     private final List<ImportFilter> importFilters;
     private final ScannerCache       scannerCache;
     private final AtomicLong         scannerPass;
+    private final int                scannerThreads;
+    private final boolean            singlePass;
 
-    private File sourceDirectory = null;
+    private File          sourceDirectory = null;
+    private FileItemSpool fileItemSpool   = null;
 
     public FilesystemBulkImportSource(final BulkImportSourceStatus importStatus,
                                       final DirectoryAnalyser      directoryAnalyser,
                                       final ContentStore           configuredContentStore,
                                       final List<ImportFilter>     importFilters,
                                       final ScannerCache           scannerCache)
+    {
+        this(importStatus, directoryAnalyser, configuredContentStore, importFilters, scannerCache, 1, false);
+    }
+
+
+    /**
+     * @param scannerThreads The number of threads to scan the source directory tree with. 1 means scan on the
+     *                       calling thread (the historical behaviour), &lt;= 0 means autosize based on the number
+     *                       of CPU cores in the server.
+     * @param singlePass     If true, each directory is listed once: file items found during the folder scan are
+     *                       spooled to disk and replayed during the file scan, instead of rescanning the source.
+     */
+    public FilesystemBulkImportSource(final BulkImportSourceStatus importStatus,
+                                      final DirectoryAnalyser      directoryAnalyser,
+                                      final ContentStore           configuredContentStore,
+                                      final List<ImportFilter>     importFilters,
+                                      final ScannerCache           scannerCache,
+                                      final int                    scannerThreads,
+                                      final boolean                singlePass)
     {
         super(importStatus, IMPORT_SOURCE_NAME, IMPORT_SOURCE_DESCRIPTION, IMPORT_SOURCE_CONFIG_UI_URI, null);
 
@@ -101,6 +136,8 @@ public final class FilesystemBulkImportSource
         this.importFilters          = importFilters;
         this.scannerCache           = (scannerCache != null ? scannerCache : NO_CACHE);
         this.scannerPass            = new AtomicLong(0);
+        this.scannerThreads         = scannerThreads <= 0 ? Runtime.getRuntime().availableProcessors() : scannerThreads;
+        this.singlePass             = singlePass;
     }
 
 
@@ -193,17 +230,43 @@ public final class FilesystemBulkImportSource
     public void scanFolders(final BulkImportSourceStatus status, final BulkImportCallback callback)
         throws InterruptedException
     {
-    	if (!loadFolderCache(sourceDirectory, callback))
-    	{
-        	try
-        	{
-            	scanDirectory(status, callback, sourceDirectory, sourceDirectory, false, this.scannerPass.getAndIncrement());
-        	}
-        	finally
-        	{
-        		importStatus.freezeSourceCounter(DirectoryAnalyser.COUNTER_NAME_DIRECTORIES_SCANNED);
-        	}
-    	}
+        if (!loadFolderCache(sourceDirectory, callback))
+        {
+            boolean succeeded = false;
+
+            if (singlePass)
+            {
+                try
+                {
+                    fileItemSpool = new FileItemSpool(directoryAnalyser);
+                }
+                catch (final IOException ioe)
+                {
+                    throw new RuntimeException("Unable to create file item spool.", ioe);  // Checked exceptions == #fail
+                }
+            }
+
+            try
+            {
+                scanDirectory(status, callback, fileItemSpool, sourceDirectory, sourceDirectory, this.scannerPass.getAndIncrement());
+                succeeded = true;
+            }
+            finally
+            {
+                importStatus.freezeSourceCounter(DirectoryAnalyser.COUNTER_NAME_DIRECTORIES_SCANNED);
+
+                if (fileItemSpool != null)
+                {
+                    importStatus.freezeSourceCounter(DirectoryAnalyser.COUNTER_NAME_FILES_SCANNED);
+
+                    if (!succeeded)
+                    {
+                        fileItemSpool.delete();
+                        fileItemSpool = null;
+                    }
+                }
+            }
+        }
     }
 
 
@@ -214,28 +277,49 @@ public final class FilesystemBulkImportSource
     public void scanFiles(BulkImportSourceStatus status, BulkImportCallback callback)
         throws InterruptedException
     {
-    	if (!loadFileCache(sourceDirectory, callback))
-    	{
-	    	try
-	    	{
-	    		scanDirectory(status, callback, sourceDirectory, sourceDirectory, true, this.scannerPass.getAndIncrement());
-	    	}
-	    	finally
-	    	{
-	    		importStatus.freezeSourceCounter(DirectoryAnalyser.COUNTER_NAME_FILES_SCANNED);
-	    	}
-    	}
+        try
+        {
+            if (!loadFileCache(sourceDirectory, callback))
+            {
+                if (fileItemSpool != null)
+                {
+                    if (debug(log)) debug(log, "Replaying spooled file items.");
+                    fileItemSpool.replay(callback);
+                }
+                else
+                {
+                    try
+                    {
+                        scanDirectory(status, null, callback, sourceDirectory, sourceDirectory, this.scannerPass.getAndIncrement());
+                    }
+                    finally
+                    {
+                        importStatus.freezeSourceCounter(DirectoryAnalyser.COUNTER_NAME_FILES_SCANNED);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (fileItemSpool != null)
+            {
+                fileItemSpool.delete();
+                fileItemSpool = null;
+            }
+        }
     }
 
 
     /**
-     * This method actually does the work of scanning.
+     * This method actually does the work of scanning, either on the calling
+     * thread or in parallel, depending on how many scanner threads have been
+     * configured.
      */
     private void scanDirectory(final BulkImportSourceStatus status,
-                               final BulkImportCallback     callback,
+                               final BulkImportCallback     folderCallback,
+                               final BulkImportCallback     fileCallback,
                                final File                   sourceDirectory,
                                final File                   directory,
-                               final boolean                submitFiles,
                                final long                   scannerPass)
         throws InterruptedException
     {
@@ -244,46 +328,139 @@ public final class FilesystemBulkImportSource
         if (directory       == null) throw new IllegalArgumentException("directory cannot be null.");
 
         // Body
-        if (debug(log)) debug(log, "Scanning directory " + directory.getAbsolutePath() + " for " + (submitFiles ? "Files" : "Folders") + "...");
+        if (scannerThreads > 1)
+        {
+            scanDirectoryInParallel(status, folderCallback, fileCallback, sourceDirectory, directory, scannerPass);
+        }
+        else
+        {
+            scanDirectorySequentially(status, folderCallback, fileCallback, sourceDirectory, directory, scannerPass);
+        }
+    }
+
+
+    private void scanDirectorySequentially(final BulkImportSourceStatus status,
+                                           final BulkImportCallback     folderCallback,
+                                           final BulkImportCallback     fileCallback,
+                                           final File                   sourceDirectory,
+                                           final File                   directory,
+                                           final long                   scannerPass)
+        throws InterruptedException
+    {
+        final List<File> subdirectories = scanSingleDirectory(status, folderCallback, fileCallback, sourceDirectory, directory, scannerPass, null);
+
+        for (final File subdirectory : subdirectories)
+        {
+            scanDirectorySequentially(status, folderCallback, fileCallback, sourceDirectory, subdirectory, scannerPass);
+        }
+    }
+
+
+    /*
+     * Scans the directory tree using a dedicated fork-join pool.  Each directory is analysed by a separate task, which
+     * submits the directory's children to the callback *before* forking tasks for its subdirectories - this guarantees
+     * that every item is submitted after its parent, which is the only ordering constraint the folder phase has.
+     *
+     * As soon as any task fails (or sees a stop request), the remaining tasks stop submitting items and forking, and
+     * the pool is shut down immediately, so nothing is submitted to the callbacks once this method has thrown.
+     */
+    private void scanDirectoryInParallel(final BulkImportSourceStatus status,
+                                         final BulkImportCallback     folderCallback,
+                                         final BulkImportCallback     fileCallback,
+                                         final File                   sourceDirectory,
+                                         final File                   directory,
+                                         final long                   scannerPass)
+        throws InterruptedException
+    {
+        final AtomicBoolean      cancelled = new AtomicBoolean(false);
+        final ForkJoinPool       pool      = new ForkJoinPool(scannerThreads, new ScannerThreadFactory(), null, false);
+        final ForkJoinTask<Void> task      = pool.submit(new DirectoryScanTask(status, folderCallback, fileCallback, sourceDirectory, directory, scannerPass, cancelled));
+
+        if (debug(log)) debug(log, "Scanning " + directory.getAbsolutePath() + " for " + describe(folderCallback, fileCallback) + " with " + scannerThreads + " threads.");
+
+        try
+        {
+            task.get();
+        }
+        catch (final ExecutionException ee)
+        {
+            // ForkJoin may rethrow a copy of the task's exception that wraps the original, so look all the way down
+            final Throwable cause     = ee.getCause();
+            final Throwable rootCause = getRootCause(ee);
+
+            if (rootCause instanceof InterruptedException) throw (InterruptedException)rootCause;
+            if (cause instanceof RuntimeException)         throw (RuntimeException)cause;
+            if (cause instanceof Error)                    throw (Error)cause;
+
+            throw new RuntimeException(cause);  // Checked exceptions == #fail
+        }
+        finally
+        {
+            // Whether we completed, failed or were interrupted, make sure no task is still running (and submitting items)
+            cancelled.set(true);
+            pool.shutdownNow();
+        }
+    }
+
+
+    /*
+     * Analyses a single directory, submits the relevant items within it, and returns the subdirectories that should be
+     * scanned next.  If the (optional) cancelled flag is set part way through, no further items are submitted and no
+     * subdirectories are returned.
+     */
+    private List<File> scanSingleDirectory(final BulkImportSourceStatus status,
+                                           final BulkImportCallback     folderCallback,
+                                           final BulkImportCallback     fileCallback,
+                                           final File                   sourceDirectory,
+                                           final File                   directory,
+                                           final long                   scannerPass,
+                                           final AtomicBoolean          cancelled)
+        throws InterruptedException
+    {
+        final List<File> result = new ArrayList<>();
+
+        if (debug(log)) debug(log, "Scanning directory " + directory.getAbsolutePath() + " for " + describe(folderCallback, fileCallback) + "...");
 
         status.setCurrentlyScanning(sourceDirectory.getAbsolutePath());
 
-        final Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> analysedDirectory = directoryAnalyser.analyseDirectory(sourceDirectory, directory, submitFiles, scannerPass);
+        final Pair<List<FilesystemBulkImportItem>, List<FilesystemBulkImportItem>> analysedDirectory = directoryAnalyser.analyseDirectory(sourceDirectory, directory, folderCallback != null, fileCallback != null, scannerPass);
 
         if (analysedDirectory != null)
         {
             final List<FilesystemBulkImportItem> directoryItems = analysedDirectory.getFirst();
             final List<FilesystemBulkImportItem> fileItems      = analysedDirectory.getSecond();
 
-            if (!submitFiles && directoryItems != null)
+            if (folderCallback != null && directoryItems != null)
             {
                 for (final FilesystemBulkImportItem directoryItem : directoryItems)
                 {
                     if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+                    if (isCancelled(cancelled)) return(result);
 
                     if (!filter(directoryItem))
                     {
-                        callback.submit(directoryItem);
+                        folderCallback.submit(directoryItem);
                     }
                 }
             }
 
-            if (submitFiles && fileItems != null)
+            if (fileCallback != null && fileItems != null)
             {
                 for (final FilesystemBulkImportItem fileItem : fileItems)
                 {
                     if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+                    if (isCancelled(cancelled)) return(result);
 
                     if (!filter(fileItem))
                     {
-                        callback.submit(fileItem);
+                        fileCallback.submit(fileItem);
                     }
                 }
             }
 
             if (debug(log)) debug(log, "Finished scanning directory " + directory.getAbsolutePath() + ".");
 
-            // Recurse into subdirectories and scan them too
+            // Collect the subdirectories that need to be scanned too
             if (directoryItems != null && directoryItems.size() > 0)
             {
                 if (debug(log)) debug(log, "Recursing into " + directoryItems.size() + " subdirectories of " + directory.getAbsolutePath());
@@ -298,12 +475,7 @@ public final class FilesystemBulkImportSource
 
                         if (lastVersion.getContentFile() != null)
                         {
-                            scanDirectory(status,
-                                          callback,
-                                          sourceDirectory,
-                                          lastVersion.getContentFile(),
-                                          submitFiles,
-                                          scannerPass);
+                            result.add(lastVersion.getContentFile());
                         }
                         else
                         {
@@ -317,6 +489,20 @@ public final class FilesystemBulkImportSource
                 if (debug(log)) debug(log, directory.getAbsolutePath() + " has no subdirectories.");
             }
         }
+
+        return(result);
+    }
+
+
+    private final static boolean isCancelled(final AtomicBoolean cancelled)
+    {
+        return(cancelled != null && cancelled.get());
+    }
+
+
+    private final static String describe(final BulkImportCallback folderCallback, final BulkImportCallback fileCallback)
+    {
+        return(folderCallback != null ? (fileCallback != null ? "Folders and Files" : "Folders") : "Files");
     }
 
 
@@ -339,4 +525,96 @@ public final class FilesystemBulkImportSource
         return(result);
     }
 
+
+    /*
+     * Fork-join task that scans a single directory, then forks a task per subdirectory.
+     */
+    private final class DirectoryScanTask
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final BulkImportSourceStatus status;
+        private final BulkImportCallback     folderCallback;
+        private final BulkImportCallback     fileCallback;
+        private final File                   sourceDirectory;
+        private final File                   directory;
+        private final long                   scannerPass;
+        private final AtomicBoolean          cancelled;
+
+        private DirectoryScanTask(final BulkImportSourceStatus status,
+                                  final BulkImportCallback     folderCallback,
+                                  final BulkImportCallback     fileCallback,
+                                  final File                   sourceDirectory,
+                                  final File                   directory,
+                                  final long                   scannerPass,
+                                  final AtomicBoolean          cancelled)
+        {
+            this.status          = status;
+            this.folderCallback  = folderCallback;
+            this.fileCallback    = fileCallback;
+            this.sourceDirectory = sourceDirectory;
+            this.directory       = directory;
+            this.scannerPass     = scannerPass;
+            this.cancelled       = cancelled;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            // Another task has failed (or the scan is over) - quietly do nothing, so that the original failure is the one reported
+            if (cancelled.get()) return;
+
+            try
+            {
+                final List<File>              subdirectories = scanSingleDirectory(status, folderCallback, fileCallback, sourceDirectory, directory, scannerPass, cancelled);
+                final List<DirectoryScanTask> subtasks       = new ArrayList<>(subdirectories.size());
+
+                importStatus.incrementSourceCounter(COUNTER_NAME_DIRECTORIES_SCANNED_BY + Thread.currentThread().getName());
+
+                if (!cancelled.get())
+                {
+                    for (final File subdirectory : subdirectories)
+                    {
+                        subtasks.add(new DirectoryScanTask(status, folderCallback, fileCallback, sourceDirectory, subdirectory, scannerPass, cancelled));
+                    }
+
+                    invokeAll(subtasks);
+                }
+            }
+            catch (final InterruptedException ie)
+            {
+                cancelled.set(true);
+                throw new RuntimeException(ie);  // Checked exceptions == #fail
+            }
+            catch (final RuntimeException | Error e)
+            {
+                cancelled.set(true);
+                throw e;
+            }
+        }
+    }
+
+
+    /*
+     * Gives the scanner threads meaningful names, so that per-thread scan rates can be reported.
+     */
+    private final static class ScannerThreadFactory
+        implements ForkJoinPool.ForkJoinWorkerThreadFactory
+    {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public ForkJoinWorkerThread newThread(final ForkJoinPool pool)
+        {
+            final ForkJoinWorkerThread result = new ForkJoinWorkerThread(pool) {};
+
+            result.setName(SCANNER_THREAD_NAME_PREFIX + String.format("%02d", threadNumber.getAndIncrement()));
+            result.setDaemon(true);
+
+            return(result);
+        }
+    }
+
 }
@@ -19,7 +19,7 @@
 
 package org.alfresco.extension.bulkimport.source.fs;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -30,12 +30,15 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.concurrent.ConcurrentException;
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
 import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.content.encoding.ContentCharsetFinder;
 import org.alfresco.repo.content.filestore.FileContentStore;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.MimetypeService;
 import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+import org.alfresco.extension.bulkimport.util.BoundedConcurrentCache;
 
 
 /**
@@ -49,6 +52,14 @@ public final class FilesystemSourceUtils
 {
     private final static String DEFAULT_TEXT_ENCODING  = "UTF-8";
     private final static int    MAX_CONTENT_URL_LENGTH = 255;
+
+    // The encoding of a text file is detected from (at most) this many bytes at the start of the file
+    public  final static int    ENCODING_DETECTION_BUFFER_SIZE = 8192;
+
+    // Mimetypes are guessed from filename extensions alone, so they're cached by extension
+    private final static int                                    MAX_CACHED_EXTENSIONS  = 1000;
+    private final static int                                    MAX_EXTENSION_LENGTH   = 16;
+    private final static BoundedConcurrentCache<String, String> MIMETYPES_BY_EXTENSION = new BoundedConcurrentCache<>(MAX_CACHED_EXTENSIONS);
     
     // Regexes for matching version files
     public  final static String  VERSION_LABEL_REGEX      = "([\\d]+)(\\.([\\d]+))?"; // Group 0 = version label, Group 1 = major version #, group 3 (if not null) = minor version #
@@ -166,6 +177,42 @@ public final class FilesystemSourceUtils
      * @return The constructed <code>ContentData</code>, or null if the contentFile cannot be in-place imported for any reason.
      */
     public final static ContentData buildContentProperty(final MimetypeService mimeTypeService, final ContentStore contentStore, final File contentFile)
+    {
+        return(buildContentProperty(mimeTypeService, contentStore, contentFile, contentFile.length()));
+    }
+
+
+    /**
+     * This method does the magic of constructing the content URL for
+     * "in-place" content, for a content file whose size is already known.
+     * 
+     * @param mimeTypeService The Alfresco MimetypeService <i>(must not be null)</i>.
+     * @param contentStore    The content store Alfresco is configured to use <i>(must not be null)</i>.
+     * @param contentFile     The content file to build a content URL for <i>(must not be null)</i>.
+     * @param sizeInBytes     The size of the content file, in bytes.
+     * @return The constructed <code>ContentData</code>, or null if the contentFile cannot be in-place imported for any reason.
+     */
+    public final static ContentData buildContentProperty(final MimetypeService mimeTypeService, final ContentStore contentStore, final File contentFile, final long sizeInBytes)
+    {
+        final String mimeType = guessMimetype(mimeTypeService, contentFile.getName());
+
+        return(buildContentProperty(contentStore, contentFile, sizeInBytes, mimeType, guessEncoding(mimeTypeService, contentFile, mimeType)));
+    }
+
+
+    /**
+     * This method does the magic of constructing the content URL for
+     * "in-place" content, for a content file whose size, mimetype and
+     * encoding are already known.
+     * 
+     * @param contentStore The content store Alfresco is configured to use <i>(must not be null)</i>.
+     * @param contentFile  The content file to build a content URL for <i>(must not be null)</i>.
+     * @param sizeInBytes  The size of the content file, in bytes.
+     * @param mimeType     The mimetype of the content file <i>(must not be null)</i>.
+     * @param encoding     The encoding of the content file <i>(must not be null)</i>.
+     * @return The constructed <code>ContentData</code>, or null if the contentFile cannot be in-place imported for any reason.
+     */
+    public final static ContentData buildContentProperty(final ContentStore contentStore, final File contentFile, final long sizeInBytes, final String mimeType, final String encoding)
     {
         ContentData result = null;
         
@@ -187,10 +234,7 @@ public final class FilesystemSourceUtils
             // If the resulting content URL would be too long, we can't in-place import
             if (contentUrl.length() <= MAX_CONTENT_URL_LENGTH)
             {
-                final String mimeType = mimeTypeService.guessMimetype(contentFile.getName());
-                final String encoding = guessEncoding(mimeTypeService, contentFile, mimeType);
-                
-                result = new ContentData(contentUrl, mimeType, contentFile.length(), encoding);
+                result = new ContentData(contentUrl, mimeType, sizeInBytes, encoding);
             }
         }
         
@@ -199,7 +243,40 @@ public final class FilesystemSourceUtils
     
     
     /**
-     * Attempt to guess the encoding of a text file , falling back to a default text encoding.
+     * Guesses the mimetype of a file from its name.  Since the guess is based on the filename extension alone, results are cached by extension.
+     *
+     * @param mimeTypeService The Alfresco MimetypeService <i>(must not be null)</i>.
+     * @param fileName        The name of the file <i>(must not be null)</i>.
+     * @return The mimetype <i>(will not be null)</i>.
+     */
+    public final static String guessMimetype(final MimetypeService mimeTypeService, final String fileName)
+    {
+        String       result    = null;
+        final String extension = FilenameUtils.getExtension(fileName).toLowerCase();
+
+        if (extension.length() == 0 || extension.length() > MAX_EXTENSION_LENGTH)
+        {
+            result = mimeTypeService.guessMimetype(fileName);
+        }
+        else
+        {
+            result = MIMETYPES_BY_EXTENSION.get(extension, new ConcurrentInitializer<String>()
+            {
+                @Override
+                public String get()
+                    throws ConcurrentException
+                {
+                    return(mimeTypeService.guessMimetype(fileName));
+                }
+            });
+        }
+
+        return(result);
+    }
+    
+    
+    /**
+     * Attempt to guess the encoding of a text file , falling back to a default text encoding.  Only the start of the file is read.
      *
      * @param mimeTypeService The Alfresco MimetypeService <i>(must not be null)</i>.
      * @param file            The {@link java.io.File} to test <i>(must not be null)</i>.
@@ -208,16 +285,18 @@ public final class FilesystemSourceUtils
      */
     public final static String guessEncoding(final MimetypeService mimeTypeService, final File file, final String mimeType)
     {
-        String                     result        = DEFAULT_TEXT_ENCODING;
-        InputStream                is            = null;
-        final ContentCharsetFinder charsetFinder = mimeTypeService.getContentCharsetFinder();
+        String result = DEFAULT_TEXT_ENCODING;
 
         if (mimeTypeService.isText(mimeType))
         {
+            InputStream is = null;
+
             try
             {
-               is     = new BufferedInputStream(new FileInputStream(file));
-               result = charsetFinder.getCharset(is, mimeType).name();
+               final byte[] buffer = new byte[ENCODING_DETECTION_BUFFER_SIZE];
+
+               is     = new FileInputStream(file);
+               result = guessEncoding(mimeTypeService, buffer, IOUtils.read(is, buffer), mimeType);
             }
             catch (final IOException ioe)
             {
@@ -233,6 +312,30 @@ public final class FilesystemSourceUtils
     }
     
     
+    /**
+     * Attempt to guess the encoding of text content from the start of that content, falling back to a default text encoding.
+     *
+     * @param mimeTypeService The Alfresco MimetypeService <i>(must not be null)</i>.
+     * @param buffer          A buffer holding the start of the content <i>(must not be null)</i>.
+     * @param length          The number of bytes of content in the buffer.
+     * @param mimeType        The MIME type of the content. Used to first distinguish between binary and text content <i>(must not be null)</i>.
+     * @return The text encoding as a {@link String}.
+     */
+    public final static String guessEncoding(final MimetypeService mimeTypeService, final byte[] buffer, final int length, final String mimeType)
+    {
+        String result = DEFAULT_TEXT_ENCODING;
+
+        if (mimeTypeService.isText(mimeType))
+        {
+            final ContentCharsetFinder charsetFinder = mimeTypeService.getContentCharsetFinder();
+
+            result = charsetFinder.getCharset(new ByteArrayInputStream(buffer, 0, length), mimeType).name();
+        }
+
+        return(result);
+    }
+    
+    
     /**
      * Strips the version suffix (if any) from a filename.
      * 
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.source.fs;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * This class is a thread safe trie, keyed by source-relative path elements,
+ * that records the target (repository) name of each source directory.  It
+ * allows the target path of a directory to be computed by walking the trie,
+ * rather than by reloading the metadata of every ancestor directory.
+ *
+ * Directories are normally registered by the analysis of their parent, which
+ * always happens before they themselves are analysed.  When that isn't the
+ * case (e.g. the folder scan was satisfied from a scanner cache), the missing
+ * target name is resolved via a <code>TargetNameResolver</code>, exactly once.
+ */
+final class PathTranslationTrie
+{
+    /**
+     * Resolves the target name of a source directory that hasn't been registered.
+     */
+    interface TargetNameResolver
+    {
+        /**
+         * @param sourceRelativePath The source-relative path of the directory, with '/' separators <i>(will not be null or empty)</i>.
+         * @param sourceName         The source name of the directory (the last element of <code>sourceRelativePath</code>) <i>(will not be null)</i>.
+         * @return The target name of the directory <i>(must not be null)</i>.
+         */
+        String resolve(String sourceRelativePath, String sourceName);
+    }
+
+
+    private final Node root = new Node();
+
+
+    /**
+     * Records the target name of a directory.
+     *
+     * @param parentPathElements The source path elements of the directory's parent <i>(must not be null, may be empty)</i>.
+     * @param sourceName         The source name of the directory <i>(must not be null)</i>.
+     * @param targetName         The target name of the directory <i>(must not be null)</i>.
+     */
+    void register(final List<String> parentPathElements, final String sourceName, final String targetName)
+    {
+        Node node = root;
+
+        for (final String element : parentPathElements)
+        {
+            node = node.child(element);
+        }
+
+        node.child(sourceName).targetName = targetName;
+    }
+
+
+    /**
+     * Translates the given source-relative directory path into a target path.
+     *
+     * @param pathElements The source path elements of the directory <i>(must not be null, may be empty)</i>.
+     * @param resolver     The resolver to use for any directories that haven't been registered <i>(must not be null)</i>.
+     * @return The '/' separated target path of the directory <i>(will not be null, will be empty for the root)</i>.
+     */
+    String translate(final List<String> pathElements, final TargetNameResolver resolver)
+    {
+        final StringBuilder result     = new StringBuilder();
+        final StringBuilder sourcePath = new StringBuilder();
+        Node                node       = root;
+
+        for (final String element : pathElements)
+        {
+            node = node.child(element);
+
+            if (sourcePath.length() > 0) sourcePath.append('/');
+            sourcePath.append(element);
+
+            String targetName = node.targetName;
+
+            if (targetName == null)
+            {
+                targetName      = resolver.resolve(sourcePath.toString(), element);
+                node.targetName = targetName;  // Benign race - concurrent resolutions of the same directory yield the same name
+            }
+
+            if (result.length() > 0) result.append('/');
+            result.append(targetName);
+        }
+
+        return(result.toString());
+    }
+
+
+    private final static class Node
+    {
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+
+        private volatile String targetName = null;
+
+        private Node child(final String name)
+        {
+            Node result = children.get(name);
+
+            if (result == null)
+            {
+                final Node newNode = new Node();
+
+                result = children.putIfAbsent(name, newNode);
+
+                if (result == null)
+                {
+                    result = newNode;
+                }
+            }
+
+            return(result);
+        }
+    }
+
+}
@@ -28,12 +28,17 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.alfresco.service.ServiceRegistry;
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
 
 import static org.alfresco.extension.bulkimport.util.LogUtils.*;
 import static org.alfresco.extension.bulkimport.source.fs.FilesystemSourceUtils.*;
@@ -75,6 +80,8 @@ import static org.alfresco.extension.bulkimport.source.fs.FilesystemSourceUtils.
  * Notes:
  * <ul>
  *   <li>Java XML properties files fully support Unicode characters.</li>
+ *   <li>the files are read with a streaming (StAX) parser - the DOCTYPE is
+ *       not resolved, so it may be omitted.</li>
  *   <li>the metadata must conform to the type and aspect definitions
  *       configured in Alfresco (including mandatory fields, constraints and data
  *       types).  Any violations will terminate the bulk import process.</li>
@@ -94,6 +101,13 @@ public final class XmlPropertiesFileMetadataLoader
     
     private final static String METADATA_FILE_EXTENSION = "properties.xml";
 
+    private final static String ELEMENT_NAME_PROPERTIES = "properties";
+    private final static String ELEMENT_NAME_ENTRY      = "entry";
+    private final static String ATTRIBUTE_NAME_KEY      = "key";
+
+    // Configured once, then only used to create readers, which is thread safe
+    private final static XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
     
     public XmlPropertiesFileMetadataLoader(final ServiceRegistry serviceRegistry)
     {
@@ -106,6 +120,18 @@ public final class XmlPropertiesFileMetadataLoader
         super(serviceRegistry, defaultMultiValuedSeparator, METADATA_FILE_EXTENSION);
     }
 
+
+    public XmlPropertiesFileMetadataLoader(final ServiceRegistry serviceRegistry, final String defaultMultiValuedSeparator, final int metadataCacheSize)
+    {
+        super(serviceRegistry, defaultMultiValuedSeparator, METADATA_FILE_EXTENSION, metadataCacheSize);
+    }
+
+
+    public XmlPropertiesFileMetadataLoader(final ServiceRegistry serviceRegistry, final String defaultMultiValuedSeparator, final int metadataCacheSize, final DictionarySymbolTable symbolTable)
+    {
+        super(serviceRegistry, defaultMultiValuedSeparator, METADATA_FILE_EXTENSION, metadataCacheSize, symbolTable);
+    }
+
     
     /**
      * @see org.alfresco.extension.bulkimport.source.fs.AbstractMapBasedMetadataLoader#loadMetadataFromFile(java.io.File)
@@ -118,26 +144,109 @@ public final class XmlPropertiesFileMetadataLoader
         
         try
         {
-            Properties props = new Properties();
-            
             metadataInputStream = new BufferedInputStream(new FileInputStream(metadataFile)); 
-            props.loadFromXML(metadataInputStream);
-            
-            @SuppressWarnings({"rawtypes", "unchecked"})
-            Map<String, Serializable> properties = (Map)props;
-
-            result = new HashMap<>(properties);
+            result              = readProperties(metadataInputStream);
         }
-        catch (final IOException ioe)
+        catch (final IOException | XMLStreamException e)
         {
-            if (warn(log)) warn(log, "Metadata file '" + getFileName(metadataFile) + "' could not be read.", ioe);
+            if (warn(log)) warn(log, "Metadata file '" + getFileName(metadataFile) + "' could not be read.", e);
         }
         finally
         {
-            IOUtils.closeQuietly(metadataInputStream);   // Note: this shouldn't normally be needed as loadFromXML closes the stream passed to it
+            IOUtils.closeQuietly(metadataInputStream);
         }
         
         return(result);
     }
 
+
+    /**
+     * Reads a Java properties XML document, in a single streaming pass.  This
+     * is equivalent to <code>java.util.Properties.loadFromXML</code>, but
+     * doesn't build a DOM, resolve or validate against the DTD, or go via an
+     * intermediate <code>Properties</code> object.
+     *
+     * @param in The stream to read from <i>(must not be null)</i>.  The caller is responsible for closing it.
+     * @return The entries in the document, in a newly allocated (mutable) map <i>(will not be null)</i>.
+     * @throws XMLStreamException If the document is not well formed, or is not a properties document.
+     */
+    static Map<String, Serializable> readProperties(final InputStream in)
+        throws XMLStreamException
+    {
+        final Map<String, Serializable> result = new HashMap<>();
+        final XMLStreamReader           xml    = xmlInputFactory.createXMLStreamReader(in);
+
+        try
+        {
+            // Skip the prolog (including any DOCTYPE) and check the root element
+            int event = xml.next();
+
+            while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_DOCUMENT)
+            {
+                event = xml.next();
+            }
+
+            if (event != XMLStreamConstants.START_ELEMENT || !ELEMENT_NAME_PROPERTIES.equals(xml.getLocalName()))
+            {
+                throw new XMLStreamException("Root element is not <" + ELEMENT_NAME_PROPERTIES + ">.", xml.getLocation());
+            }
+
+            while (xml.nextTag() == XMLStreamConstants.START_ELEMENT)
+            {
+                if (ELEMENT_NAME_ENTRY.equals(xml.getLocalName()))
+                {
+                    final String key = xml.getAttributeValue(null, ATTRIBUTE_NAME_KEY);
+
+                    if (key == null) throw new XMLStreamException("<" + ELEMENT_NAME_ENTRY + "> element is missing the '" + ATTRIBUTE_NAME_KEY + "' attribute.", xml.getLocation());
+
+                    result.put(key, xml.getElementText());
+                }
+                else
+                {
+                    skipElement(xml);   // <comment>, or anything else we don't care about
+                }
+            }
+        }
+        finally
+        {
+            xml.close();
+        }
+
+        return(result);
+    }
+
+
+    private static void skipElement(final XMLStreamReader xml)
+        throws XMLStreamException
+    {
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            final int event = xml.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                depth--;
+            }
+        }
+    }
+
+
+    private static XMLInputFactory createXmlInputFactory()
+    {
+        final XMLInputFactory result = XMLInputFactory.newInstance();
+
+        result.setProperty(XMLInputFactory.SUPPORT_DTD,                     Boolean.FALSE);
+        result.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        result.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,              Boolean.FALSE);
+        result.setProperty(XMLInputFactory.IS_COALESCING,                   Boolean.TRUE);
+
+        return(result);
+    }
+
 }
@@ -0,0 +1,520 @@
+package org.alfresco.extension.bulkimport.source.fs.cache;
+
+import static org.alfresco.extension.bulkimport.util.LogUtils.debug;
+import static org.alfresco.extension.bulkimport.util.LogUtils.info;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.alfresco.extension.bulkimport.BulkImportCallback;
+import org.alfresco.extension.bulkimport.source.BulkImportSourceStatus;
+import org.alfresco.extension.bulkimport.source.fs.DirectoryAnalyser;
+import org.alfresco.extension.bulkimport.source.fs.MetadataLoader;
+import org.alfresco.extension.bulkimport.source.fs.ScannerCache;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.service.ServiceRegistry;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link ScannerCache} that replays items from compact binary files (<code>scan.folders.bin</code>
+ * and <code>scan.files.bin</code>), written by {@link BinaryScannerCacheWriter}. Unlike the XML
+ * cache there's no parsing or unmarshalling involved, so replay runs at close to disk speed.
+ *
+ * The folder cache is always replayed in order, on the calling thread. The file cache (whose order
+ * doesn't matter) is split into chunks that are decoded by up to <code>replayThreads</code> threads
+ * concurrently, each of which submits its items to the callback directly.
+ *
+ * If a binary file is missing, the scan is delegated to the (optional) fallback cache - normally
+ * the {@link XmlScannerCache}. Existing XML caches can be converted with {@link #convert(File, File)}
+ * or by running this class with the directory containing them as its argument.
+ */
+public class BinaryScannerCache implements ScannerCache
+{
+	static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final static String FILE_CACHE_FILE = "scan.files.bin";
+	private final static String FOLDER_CACHE_FILE = "scan.folders.bin";
+	private final static String XML_FILE_CACHE_FILE = "scan.files.xml";
+	private final static String XML_FOLDER_CACHE_FILE = "scan.folders.xml";
+
+	private final static String REPLAY_THREAD_NAME_PREFIX = "BulkImport-CacheReplay-";
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private final ServiceRegistry        serviceRegistry;
+	private final ContentStore           configuredContentStore;
+	private final MetadataLoader         metadataLoader;
+	private final ScannerCache           fallback;
+	private final int                    replayThreads;
+	private final boolean                zeroCopy;
+
+	public BinaryScannerCache(final ServiceRegistry serviceRegistry,
+	                          final ContentStore    configuredContentStore,
+	                          final MetadataLoader  metadataLoader,
+	                          final ScannerCache    fallback)
+	{
+		this(serviceRegistry, configuredContentStore, metadataLoader, fallback, 1, false);
+	}
+
+	/**
+	 * @param replayThreads The number of threads to replay the file cache with <i>(&lt;= 0 means one per CPU)</i>.
+	 * @param zeroCopy      Whether the replayed items copy their content with <code>FileChannel.transferTo</code> (see
+	 *                      <code>FilesystemBulkImportItemVersion</code>).
+	 */
+	public BinaryScannerCache(final ServiceRegistry serviceRegistry,
+	                          final ContentStore    configuredContentStore,
+	                          final MetadataLoader  metadataLoader,
+	                          final ScannerCache    fallback,
+	                          final int             replayThreads,
+	                          final boolean         zeroCopy)
+	{
+		this.serviceRegistry        = serviceRegistry;
+		this.configuredContentStore = configuredContentStore;
+		this.metadataLoader         = metadataLoader;
+		this.fallback               = fallback;
+		this.replayThreads          = (replayThreads > 0 ? replayThreads : Runtime.getRuntime().availableProcessors());
+		this.zeroCopy               = zeroCopy;
+	}
+
+	private final File getFile(File baseDirectory, String fileName)
+	{
+		File f = CacheItem.canonicalize(baseDirectory != null ? new File(baseDirectory, fileName) : new File(fileName), log);
+		if (!f.isFile() || !f.canRead())
+		{
+			if (debug(log)) log.debug(String.format("Binary cache file [%s] does not exist, or is not a readable regular file", f.getAbsolutePath()));
+			return null;
+		}
+		return f;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.alfresco.extension.bulkimport.source.fs.ScannerCache#scanFiles(java.io.File, org.alfresco.extension.bulkimport.BulkImportCallback, org.alfresco.extension.bulkimport.source.BulkImportSourceStatus)
+	 */
+	@Override
+	public final boolean scanFiles(final File baseDir, final BulkImportCallback callback, final BulkImportSourceStatus importStatus)
+		throws InterruptedException
+	{
+		final File cacheFile = getFile(baseDir, FILE_CACHE_FILE);
+		if (cacheFile == null) return (fallback != null && fallback.scanFiles(baseDir, callback, importStatus));
+
+		try
+		{
+			return scan(baseDir, cacheFile, callback, importStatus, false);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(String.format("Failed to load the binary file cache from [%s]", cacheFile.getAbsolutePath()), e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.alfresco.extension.bulkimport.source.fs.ScannerCache#scanFolders(java.io.File, org.alfresco.extension.bulkimport.BulkImportCallback, org.alfresco.extension.bulkimport.source.BulkImportSourceStatus)
+	 */
+	@Override
+	public final boolean scanFolders(final File baseDir, final BulkImportCallback callback, final BulkImportSourceStatus importStatus)
+		throws InterruptedException
+	{
+		final File cacheFile = getFile(baseDir, FOLDER_CACHE_FILE);
+		if (cacheFile == null) return (fallback != null && fallback.scanFolders(baseDir, callback, importStatus));
+
+		try
+		{
+			return scan(baseDir, cacheFile, callback, importStatus, true);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(String.format("Failed to load the binary folder cache from [%s]", cacheFile.getAbsolutePath()), e);
+		}
+	}
+
+	protected void process(File baseDirectory, CacheItem cacheItem, BulkImportCallback callback) throws InterruptedException
+	{
+		callback.submit(cacheItem.generate(baseDirectory, serviceRegistry, configuredContentStore, metadataLoader, zeroCopy));
+	}
+
+	private final boolean scan(final File baseDirectory, final File cacheFile, final BulkImportCallback callback, final BulkImportSourceStatus importStatus, boolean directoryMode)
+		throws InterruptedException, IOException
+	{
+		final Replay replay = new Replay(baseDirectory, cacheFile, callback, importStatus, directoryMode);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), BUFFER_SIZE));
+		try
+		{
+			if (in.readInt() != BinaryScannerCacheWriter.MAGIC) throw new IOException(String.format("[%s] is not a binary scanner cache", cacheFile.getAbsolutePath()));
+			final int formatVersion = in.readInt();
+			switch (formatVersion)
+			{
+				case BinaryScannerCacheWriter.FORMAT_VERSION_STREAM:
+					replay.replayStream(in);
+					break;
+
+				case BinaryScannerCacheWriter.FORMAT_VERSION_CHUNKED:
+					if (directoryMode || (replayThreads == 1))
+					{
+						Chunk chunk;
+						while ((chunk = readChunk(in, replay.chunksRead++)) != null)
+						{
+							replay.replayChunk(chunk);
+						}
+					}
+					else
+					{
+						replayChunksInParallel(in, replay);
+					}
+					break;
+
+				default:
+					throw new IOException(String.format("[%s] has unsupported format version %d", cacheFile.getAbsolutePath(), formatVersion));
+			}
+
+			// We return a value of TRUE if and only if we read at least one entry...if we did,
+			// we cannot safely revert to scanning. If we did not, we can safely scan...
+			return (replay.count.get() > 0);
+		}
+		finally
+		{
+			replay.showCompletion();
+			importStatus.freezeSourceCounter(replay.counterName);
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private void replayChunksInParallel(final DataInputStream in, final Replay replay)
+		throws InterruptedException, IOException
+	{
+		// A short, bounded queue keeps the number of chunks held in memory down - once it's full the
+		// reading thread decodes the next chunk itself, rather than reading ahead any further
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(replayThreads, replayThreads, 0L, TimeUnit.MILLISECONDS,
+		                                                       new ArrayBlockingQueue<Runnable>(replayThreads * 2),
+		                                                       new ReplayThreadFactory(),
+		                                                       new ThreadPoolExecutor.CallerRunsPolicy());
+		if (debug(log)) log.debug(String.format("Replaying [%s] with %d threads", replay.cacheFile.getAbsolutePath(), replayThreads));
+
+		try
+		{
+			Chunk chunk;
+			while ((replay.failure.get() == null) && ((chunk = readChunk(in, replay.chunksRead++)) != null))
+			{
+				final Chunk toReplay = chunk;
+				pool.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (replay.failure.get() != null) return;
+						try
+						{
+							replay.replayChunk(toReplay);
+						}
+						catch (final Throwable t)
+						{
+							replay.failure.compareAndSet(null, t);
+						}
+					}
+				});
+			}
+
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		final Throwable failure = replay.failure.get();
+		if (failure instanceof InterruptedException) throw (InterruptedException)failure;
+		if (failure instanceof IOException) throw (IOException)failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+		if (failure instanceof Error) throw (Error)failure;
+		if (failure != null) throw new RuntimeException(failure);
+	}
+
+	private static Chunk readChunk(final DataInputStream in, final long number) throws IOException
+	{
+		final byte record = in.readByte();
+		if (record == BinaryScannerCacheWriter.RECORD_END) return null;
+		if (record != BinaryScannerCacheWriter.RECORD_CHUNK) throw new IOException(String.format("Unexpected record type %d at chunk %d", record, number));
+
+		final int itemCount = in.readInt();
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new Chunk(number, itemCount, bytes);
+	}
+
+	private static List<String> newInternedPaths()
+	{
+		final List<String> result = new ArrayList<>();
+		result.add(BinaryScannerCacheWriter.ROOT_PATH);
+		return result;
+	}
+
+	private static CacheItem readItem(final DataInputStream in, final List<String> internedPaths) throws IOException
+	{
+		final CacheItem item = new CacheItem();
+		item.directory = in.readBoolean();
+		item.sourceName = readNullableString(in);
+		item.targetName = readNullableString(in);
+		item.sourcePath = readPath(in, internedPaths);
+		item.targetPath = readPath(in, internedPaths);
+
+		final int versionCount = readVarInt(in);
+		item.versions = new ArrayList<>(versionCount);
+		for (int i = 0; i < versionCount; i++)
+		{
+			final CacheItemVersion v = new CacheItemVersion();
+			final String number = readNullableString(in);
+			v.setNumber(number != null ? new BigDecimal(number) : null);
+			v.content = readPath(in, internedPaths);
+			v.metadata = readPath(in, internedPaths);
+			item.versions.add(v);
+		}
+		return item;
+	}
+
+	private static String readPath(final DataInputStream in, final List<String> internedPaths) throws IOException
+	{
+		final int token = readVarInt(in);
+		switch (token)
+		{
+			case BinaryScannerCacheWriter.PATH_NULL:
+				return null;
+
+			case BinaryScannerCacheWriter.PATH_INTERNED:
+			case BinaryScannerCacheWriter.PATH_LITERAL:
+				final String parent = readPath(in, internedPaths);
+				final String path = BinaryScannerCacheWriter.join(parent, in.readUTF());
+				if (token == BinaryScannerCacheWriter.PATH_INTERNED) internedPaths.add(path);
+				return path;
+
+			default:
+				final int id = token - BinaryScannerCacheWriter.PATH_REFERENCE;
+				if (id >= internedPaths.size()) throw new IOException(String.format("Invalid path reference %d (only %d paths defined)", id, internedPaths.size()));
+				return internedPaths.get(id);
+		}
+	}
+
+	private static String readNullableString(final DataInputStream in) throws IOException
+	{
+		return (in.readBoolean() ? in.readUTF() : null);
+	}
+
+	private static int readVarInt(final DataInputStream in) throws IOException
+	{
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			final byte b = in.readByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return result;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	/**
+	 * The state of a single replay of a cache file, shared by all of the threads replaying it.
+	 */
+	private final class Replay
+	{
+		private final File baseDirectory;
+		private final File cacheFile;
+		private final BulkImportCallback callback;
+		private final BulkImportSourceStatus importStatus;
+		private final boolean directoryMode;
+		private final String counterName;
+		private final long start = System.currentTimeMillis();
+		private final AtomicLong count = new AtomicLong(0);
+		private final AtomicLong chunksReplayed = new AtomicLong(0);
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+		private long chunksRead = 0;  // Only touched by the reading thread
+
+		private Replay(File baseDirectory, File cacheFile, BulkImportCallback callback, BulkImportSourceStatus importStatus, boolean directoryMode)
+		{
+			this.baseDirectory = baseDirectory;
+			this.cacheFile = cacheFile;
+			this.callback = callback;
+			this.importStatus = importStatus;
+			this.directoryMode = directoryMode;
+			this.counterName = (directoryMode ? DirectoryAnalyser.COUNTER_NAME_DIRECTORIES_SCANNED : DirectoryAnalyser.COUNTER_NAME_FILES_SCANNED);
+		}
+
+		// Format version 1: a single stream of items, on the calling thread
+		private void replayStream(final DataInputStream in) throws InterruptedException, IOException
+		{
+			final List<String> internedPaths = newInternedPaths();
+			while (in.readByte() == BinaryScannerCacheWriter.RECORD_ITEM)
+			{
+				replayItem(readItem(in, internedPaths));
+			}
+		}
+
+		private void replayChunk(final Chunk chunk) throws InterruptedException, IOException
+		{
+			final long chunkStart = System.currentTimeMillis();
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk.bytes));
+			final List<String> internedPaths = newInternedPaths();
+			for (int i = 0; i < chunk.itemCount; i++)
+			{
+				replayItem(readItem(in, internedPaths));
+			}
+			chunksReplayed.incrementAndGet();
+
+			if (debug(log))
+			{
+				final long duration = System.currentTimeMillis() - chunkStart;
+				log.debug(String.format("Binary Scanner Cache (%s): chunk %d (%d items) replayed in %s - %d items processed so far",
+					cacheFile.getName(), chunk.number, chunk.itemCount, DurationFormatUtils.formatDuration(duration, "HH:mm:ss.SSS"), count.get()));
+			}
+		}
+
+		private void replayItem(final CacheItem cacheItem) throws InterruptedException
+		{
+			if (importStatus.isStopping() || Thread.currentThread().isInterrupted()) throw new InterruptedException(Thread.currentThread().getName() + " was interrupted. Terminating early.");
+
+			if (cacheItem.directory != directoryMode)
+			{
+				// Same as the XML cache: an entry of the wrong kind counts as a failure
+				importStatus.incrementSourceCounter(DirectoryAnalyser.COUNTER_NAME_UNREADABLE_ENTRIES);
+				return;
+			}
+
+			process(baseDirectory, cacheItem, callback);
+			count.incrementAndGet();
+			for (CacheItemVersion v : cacheItem.versions)
+			{
+				if (v.content != null) importStatus.incrementSourceCounter(counterName);
+				if (v.metadata != null) importStatus.incrementSourceCounter(DirectoryAnalyser.COUNTER_NAME_METADATA_SCANNED);
+			}
+		}
+
+		private void showCompletion()
+		{
+			if (!info(log)) return;
+			final long duration = System.currentTimeMillis() - start;
+			final double rate = (duration > 0 ? (1000.0 * count.get()) / duration : 0.0);
+			log.info(String.format("Binary Scanner Cache (%s): %d processed in %d chunks in %s (%.3f/sec)",
+				cacheFile.getName(), count.get(), chunksReplayed.get(), DurationFormatUtils.formatDuration(duration, "HH:mm:ss.SSS"), rate));
+		}
+	}
+
+	private static final class Chunk
+	{
+		private final long number;
+		private final int itemCount;
+		private final byte[] bytes;
+
+		private Chunk(long number, int itemCount, byte[] bytes)
+		{
+			this.number = number;
+			this.itemCount = itemCount;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final class ReplayThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			final Thread result = new Thread(runnable, REPLAY_THREAD_NAME_PREFIX + String.format("%02d", threadNumber.getAndIncrement()));
+			result.setDaemon(true);
+			return result;
+		}
+	}
+
+	/**
+	 * Converts an XML scanner cache file (as read by {@link XmlScannerCache}) into the binary format.
+	 *
+	 * @return The number of items converted.
+	 */
+	public static long convert(final File xmlFile, final File binaryFile) throws IOException, JAXBException, XMLStreamException
+	{
+		final InputStream in = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE);
+		try
+		{
+			final XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			try (final BinaryScannerCacheWriter writer = new BinaryScannerCacheWriter(binaryFile))
+			{
+				// Find and skip the root element
+				if (xml.nextTag() != XMLStreamConstants.START_ELEMENT) return 0;
+
+				final Unmarshaller u = JAXBContext.newInstance(CacheItem.class, CacheItemVersion.class).createUnmarshaller();
+				while (xml.nextTag() == XMLStreamConstants.START_ELEMENT)
+				{
+					if (!xml.getLocalName().equals("item"))
+					{
+						// Bad element...skip it!
+						continue;
+					}
+
+					final JAXBElement<CacheItem> xmlItem = u.unmarshal(xml, CacheItem.class);
+					if ((xmlItem != null) && (xmlItem.getValue() != null))
+					{
+						writer.write(xmlItem.getValue());
+					}
+				}
+				return writer.getCount();
+			}
+			finally
+			{
+				xml.close();
+			}
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Converts the XML scanner cache files in the given directory into binary scanner cache files, alongside them.
+	 */
+	public static void main(final String[] args) throws Exception
+	{
+		if (args.length != 1)
+		{
+			System.err.println("Usage: " + BinaryScannerCache.class.getName() + " <directory containing " + XML_FOLDER_CACHE_FILE + " and/or " + XML_FILE_CACHE_FILE + ">");
+			System.exit(1);
+		}
+
+		final File directory = new File(args[0]);
+		final String[][] conversions = { { XML_FOLDER_CACHE_FILE, FOLDER_CACHE_FILE }, { XML_FILE_CACHE_FILE, FILE_CACHE_FILE } };
+		for (final String[] conversion : conversions)
+		{
+			final File xmlFile = new File(directory, conversion[0]);
+			if (!xmlFile.isFile()) continue;
+			final File binaryFile = new File(directory, conversion[1]);
+			final long count = convert(xmlFile, binaryFile);
+			System.out.println(String.format("Converted %d items from [%s] to [%s] (%d bytes -> %d bytes)",
+				count, xmlFile.getAbsolutePath(), binaryFile.getAbsolutePath(), xmlFile.length(), binaryFile.length()));
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.alfresco.extension.bulkimport.source.fs.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes scanner cache items in the binary format read by {@link BinaryScannerCache}.
+ *
+ * The file starts with a magic number and a format version, followed by a sequence of
+ * length-prefixed chunks, and ends with an end marker. Each chunk holds up to a fixed number
+ * of items and is self-contained, so chunks can be skipped over without decoding them, and
+ * decoded independently (and concurrently) of each other.
+ *
+ * Within a chunk, integers are written as variable length quantities, and paths are written
+ * as a reference to their (interned) parent directory plus their last element, so each distinct
+ * directory path is only written out once per chunk.
+ */
+public class BinaryScannerCacheWriter implements Closeable
+{
+	static final int MAGIC = 0x42495343; // "BISC"
+	static final int FORMAT_VERSION_STREAM = 1;  // Single stream of items, paths interned across the whole file
+	static final int FORMAT_VERSION_CHUNKED = 2; // Self-contained, length-prefixed chunks of items
+	static final int FORMAT_VERSION = FORMAT_VERSION_CHUNKED;
+
+	static final byte RECORD_END = 0;
+	static final byte RECORD_ITEM = 1;  // Format version 1 only
+	static final byte RECORD_CHUNK = 2;
+
+	public static final int DEFAULT_ITEMS_PER_CHUNK = 10000;
+
+	// Path tokens - anything >= PATH_REFERENCE is a reference to interned path (token - PATH_REFERENCE)
+	static final int PATH_NULL = 0;
+	static final int PATH_INTERNED = 1;
+	static final int PATH_LITERAL = 2;
+	static final int PATH_REFERENCE = 3;
+
+	static final String ROOT_PATH = "";
+	static final char SEPARATOR = '/';
+
+	private final DataOutputStream out;
+	private final int itemsPerChunk;
+	private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(64 * 1024);
+	private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+	private final Map<String, Integer> internedPaths = new HashMap<>();
+	private int chunkCount = 0;
+	private long count = 0;
+	private long chunks = 0;
+	private boolean closed = false;
+
+	public BinaryScannerCacheWriter(File file) throws IOException
+	{
+		this(file, DEFAULT_ITEMS_PER_CHUNK);
+	}
+
+	public BinaryScannerCacheWriter(File file, int itemsPerChunk) throws IOException
+	{
+		if (itemsPerChunk <= 0) throw new IllegalArgumentException("itemsPerChunk must be > 0");
+		this.itemsPerChunk = itemsPerChunk;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BinaryScannerCache.BUFFER_SIZE));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(FORMAT_VERSION);
+		resetInternedPaths();
+	}
+
+	/**
+	 * Appends the given item to the cache file.
+	 */
+	public void write(CacheItem item) throws IOException
+	{
+		if (closed) throw new IllegalStateException("This writer has already been closed");
+
+		chunk.writeBoolean(item.directory);
+		writeNullableString(item.sourceName);
+		writeNullableString(item.targetName);
+		writePath(item.sourcePath, true);
+		writePath(item.targetPath, true);
+
+		final int versionCount = (item.versions != null ? item.versions.size() : 0);
+		writeVarInt(versionCount);
+		for (int i = 0; i < versionCount; i++)
+		{
+			final CacheItemVersion v = item.versions.get(i);
+			writeNullableString(v.numberBd != null ? v.numberBd.toString() : null);
+			// Content and metadata paths are (almost always) unique, so only their parents get interned
+			writePath(v.content, false);
+			writePath(v.metadata, false);
+		}
+		count++;
+
+		if (++chunkCount >= itemsPerChunk) flushChunk();
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public long getChunks()
+	{
+		return chunks;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+		try
+		{
+			flushChunk();
+			out.writeByte(RECORD_END);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private void flushChunk() throws IOException
+	{
+		if (chunkCount == 0) return;
+
+		chunk.flush();
+		out.writeByte(RECORD_CHUNK);
+		out.writeInt(chunkCount);
+		out.writeInt(chunkBytes.size());
+		chunkBytes.writeTo(out);
+
+		chunks++;
+		chunkCount = 0;
+		chunkBytes.reset();
+		resetInternedPaths();
+	}
+
+	private void resetInternedPaths()
+	{
+		internedPaths.clear();
+		internedPaths.put(ROOT_PATH, 0);
+	}
+
+	private void writePath(String path, boolean intern) throws IOException
+	{
+		if (path == null)
+		{
+			writeVarInt(PATH_NULL);
+			return;
+		}
+
+		final Integer id = internedPaths.get(path);
+		if (id != null)
+		{
+			writeVarInt(PATH_REFERENCE + id);
+			return;
+		}
+
+		final int split = path.lastIndexOf(SEPARATOR);
+		final String parent = (split > 0 ? path.substring(0, split) : ROOT_PATH);
+		final String name = (split > 0 ? path.substring(split + 1) : path);
+
+		writeVarInt(intern ? PATH_INTERNED : PATH_LITERAL);
+		writePath(parent, true);
+		chunk.writeUTF(name);
+
+		if (intern)
+		{
+			internedPaths.put(path, internedPaths.size());
+		}
+	}
+
+	private void writeNullableString(String value) throws IOException
+	{
+		chunk.writeBoolean(value != null);
+		if (value != null) chunk.writeUTF(value);
+	}
+
+	private void writeVarInt(int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			chunk.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		chunk.writeByte(value);
+	}
+
+	static String join(String parent, String name)
+	{
+		return (parent.isEmpty() ? name : parent + SEPARATOR + name);
+	}
+}
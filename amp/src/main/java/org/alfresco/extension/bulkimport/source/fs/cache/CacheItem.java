@@ -126,7 +126,8 @@ public class CacheItem
 	public FilesystemBulkImportItem generate(final File            basePath,
                                              final ServiceRegistry serviceRegistry,
                                              final ContentStore    contentStore,
-                                             final MetadataLoader  metadataLoader)
+                                             final MetadataLoader  metadataLoader,
+                                             final boolean         zeroCopy)
 	{
 		NavigableSet<FilesystemBulkImportItemVersion> versions = new TreeSet<>();
 
@@ -134,7 +135,7 @@ public class CacheItem
 		{
 			for (CacheItemVersion v : this.versions)
 			{
-				versions.add(v.generate(basePath, serviceRegistry, contentStore, metadataLoader));
+				versions.add(v.generate(basePath, serviceRegistry, contentStore, metadataLoader, zeroCopy));
 			}
 		}
 
@@ -90,11 +90,11 @@ public class CacheItemVersion
 		this.metadata = metadata;
 	}
 
-	public FilesystemBulkImportItemVersion generate(File baseDir, ServiceRegistry serviceRegistry, ContentStore contentStore, MetadataLoader metadataLoader)
+	public FilesystemBulkImportItemVersion generate(File baseDir, ServiceRegistry serviceRegistry, ContentStore contentStore, MetadataLoader metadataLoader, boolean zeroCopy)
 	{
 		final File content = (this.content != null ? new File(baseDir, this.content) : null);
 		final File metadata = (this.metadata != null ? new File(baseDir, this.metadata) : null);
-		return new FilesystemBulkImportItemVersion(serviceRegistry, contentStore, metadataLoader, numberBd, content, metadata);
+		return new FilesystemBulkImportItemVersion(serviceRegistry, contentStore, metadataLoader, numberBd, content, metadata, null, zeroCopy);
 	}
 
 	@Override
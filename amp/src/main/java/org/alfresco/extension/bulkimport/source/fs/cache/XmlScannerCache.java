@@ -1,6 +1,7 @@
 package org.alfresco.extension.bulkimport.source.fs.cache;
 
 import static org.alfresco.extension.bulkimport.util.LogUtils.debug;
+import static org.alfresco.extension.bulkimport.util.LogUtils.info;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -32,20 +33,35 @@ public class XmlScannerCache implements ScannerCache
 {
     private final static String FILE_CACHE_FILE = "scan.files.xml";
     private final static String FOLDER_CACHE_FILE = "scan.folders.xml";
+    private final static long PROGRESS_BLOCK_SIZE = BinaryScannerCacheWriter.DEFAULT_ITEMS_PER_CHUNK;
 
 	protected final Log log = LogFactory.getLog(getClass());
 
 	private final ServiceRegistry        serviceRegistry;
     private final ContentStore           configuredContentStore;
     private final MetadataLoader         metadataLoader;
+    private final boolean                zeroCopy;
 
 	public XmlScannerCache(final ServiceRegistry serviceRegistry,
                         final ContentStore    configuredContentStore,
                         final MetadataLoader  metadataLoader)
+	{
+		this(serviceRegistry, configuredContentStore, metadataLoader, false);
+	}
+
+	/**
+	 * @param zeroCopy Whether the replayed items copy their content with <code>FileChannel.transferTo</code> (see
+	 *                 <code>FilesystemBulkImportItemVersion</code>).
+	 */
+	public XmlScannerCache(final ServiceRegistry serviceRegistry,
+                        final ContentStore    configuredContentStore,
+                        final MetadataLoader  metadataLoader,
+                        final boolean         zeroCopy)
 	{
         this.serviceRegistry        = serviceRegistry;
         this.configuredContentStore = configuredContentStore;
         this.metadataLoader         = metadataLoader;
+        this.zeroCopy               = zeroCopy;
 	}
 
 	private final File getFile(File baseDirectory, String fileName)
@@ -107,16 +123,25 @@ public class XmlScannerCache implements ScannerCache
 
 	protected void process(File baseDirectory, CacheItem cacheItem, BulkImportCallback callback) throws InterruptedException
 	{
-		callback.submit(cacheItem.generate(baseDirectory, serviceRegistry, configuredContentStore, metadataLoader));
+		callback.submit(cacheItem.generate(baseDirectory, serviceRegistry, configuredContentStore, metadataLoader, zeroCopy));
 	}
 
 	private void showProgress(long start, long count, String cacheName, boolean end)
 	{
-		if ((count % 1000) != 0) return;
+		// Progress is logged once per block of items (at DEBUG), and on completion (at INFO)
+		if (end ? !info(log) : (((count % PROGRESS_BLOCK_SIZE) != 0) || !debug(log))) return;
 		final long duration = System.currentTimeMillis() - start;
-		double rate = (1000.0 * count) / (1.0 * duration);
-		log.warn(String.format("XML Scanner Cache (%s): %d processed in %s (%.3f/sec%s)",
-			cacheName, count, DurationFormatUtils.formatDuration(duration, "HH:mm:ss.SSS"), rate, end ? " - completed" : ""));
+		double rate = (duration > 0 ? (1000.0 * count) / (1.0 * duration) : 0.0);
+		final String message = String.format("XML Scanner Cache (%s): %d processed in %s (%.3f/sec%s)",
+			cacheName, count, DurationFormatUtils.formatDuration(duration, "HH:mm:ss.SSS"), rate, end ? " - completed" : "");
+		if (end)
+		{
+			log.info(message);
+		}
+		else
+		{
+			log.debug(message);
+		}
 	}
 
 	protected void itemUnmarshalled(CacheItem item, boolean directoryMode)
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.apache.commons.lang3.concurrent.ConcurrentUtils;
+
+
+/**
+ * This class is a size-bounded cache that is safe for concurrent use without
+ * a global lock.  Values are loaded per key: concurrent loads of the same key
+ * are coalesced into one, while loads of different keys proceed in parallel.
+ *
+ * Eviction uses the "clock" (second chance) approximation of LRU: entries are
+ * evicted in insertion order, unless they've been read since they were last
+ * considered for eviction, in which case they get another trip around.
+ *
+ * Subclasses may override <code>onHit</code>, <code>onMiss</code> and
+ * <code>onEviction</code> to publish statistics.
+ *
+ * @param <K> The type of the keys <i>(must implement equals and hashCode)</i>.
+ * @param <V> The type of the values.
+ */
+public class BoundedConcurrentCache<K, V>
+{
+    private final static int MAX_EVICTION_ATTEMPTS = 1000;  // Per admission, to bound the time spent skipping recently used entries
+
+    private final int                           capacity;
+    private final ConcurrentMap<K, Entry<K, V>> entries;
+    private final Queue<Entry<K, V>>            evictionQueue;
+    private final AtomicInteger                 size;
+    private final AtomicLong                    hits;
+    private final AtomicLong                    misses;
+    private final AtomicLong                    evictions;
+
+
+    /**
+     * @param capacity The maximum number of entries to retain <i>(must be &gt; 0)</i>.
+     */
+    public BoundedConcurrentCache(final int capacity)
+    {
+        // PRECONDITIONS
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0.");
+
+        // Body
+        this.capacity      = capacity;
+        this.entries       = new ConcurrentHashMap<>();
+        this.evictionQueue = new ConcurrentLinkedQueue<>();
+        this.size          = new AtomicInteger(0);
+        this.hits          = new AtomicLong(0);
+        this.misses        = new AtomicLong(0);
+        this.evictions     = new AtomicLong(0);
+    }
+
+
+    /**
+     * Returns the cached value for the given key, without loading it.
+     *
+     * @param key The key to look up <i>(must not be null)</i>.
+     * @return The cached value, or null if there isn't one.
+     */
+    public V get(final K key)
+    {
+        final Entry<K, V> entry  = entries.get(key);
+        final V           result = entry == null ? null : entry.value;
+
+        if (result != null)
+        {
+            hit(key, entry);
+        }
+        else
+        {
+            miss(key);
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Returns the cached value for the given key, loading it with the given
+     * loader (on the calling thread) if it isn't cached.  Only the threads
+     * requesting this key wait for the load.
+     *
+     * @param key    The key to look up <i>(must not be null)</i>.
+     * @param loader The loader to use on a miss <i>(must not be null)</i>.
+     * @return The value <i>(will only be null if the loader returned null, in which case nothing is cached)</i>.
+     * @throws org.apache.commons.lang3.concurrent.ConcurrentRuntimeException If the loader fails, in which case nothing is cached either.
+     */
+    public V get(final K key, final ConcurrentInitializer<V> loader)
+    {
+        V       result = null;
+        boolean done   = false;
+
+        while (!done)
+        {
+            Entry<K, V> entry = entries.get(key);
+
+            if (entry == null)
+            {
+                // Placeholders only hold the key's place while it's being loaded - they aren't admitted (counted) until the load succeeds
+                final Entry<K, V> placeholder = new Entry<>(key, null);
+
+                entry = entries.putIfAbsent(key, placeholder);
+
+                if (entry == null)
+                {
+                    entry = placeholder;
+                }
+            }
+
+            if (entry.value != null)
+            {
+                hit(key, entry);
+                result = entry.value;
+                done   = true;
+            }
+            else
+            {
+                synchronized(entry)
+                {
+                    // Otherwise the placeholder was replaced (by a load that completed while we waited for it, or a put) or
+                    // discarded (by a load that failed) - try again
+                    if (entries.get(key) == entry)
+                    {
+                        miss(key);
+
+                        try
+                        {
+                            result = ConcurrentUtils.initializeUnchecked(loader);
+                        }
+                        finally
+                        {
+                            if (result == null)
+                            {
+                                entries.remove(key, entry);  // Nothing is cached
+                            }
+                            else
+                            {
+                                final Entry<K, V> loaded = new Entry<>(key, result);
+
+                                if (entries.replace(key, entry, loaded))
+                                {
+                                    admitted(loaded);
+                                }
+                            }
+                        }
+
+                        done = true;
+                    }
+                }
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Caches the given value, replacing any existing value for the key.
+     *
+     * @param key   The key <i>(must not be null)</i>.
+     * @param value The value <i>(must not be null)</i>.
+     */
+    public void put(final K key, final V value)
+    {
+        final Entry<K, V> entry    = new Entry<>(key, value);
+        final Entry<K, V> replaced = entries.put(key, entry);
+
+        if (replaced == null || replaced.value == null)
+        {
+            admitted(entry);
+        }
+        else
+        {
+            evictionQueue.offer(entry);  // The replaced entry is still queued, but will be skipped when it reaches the head
+        }
+    }
+
+
+    /**
+     * Caches the given value, unless there's already a value cached for the key.
+     *
+     * @param key   The key <i>(must not be null)</i>.
+     * @param value The value <i>(must not be null)</i>.
+     * @return The value cached for the key once this method returns <i>(will not be null)</i>.
+     */
+    public V putIfAbsent(final K key, final V value)
+    {
+        final Entry<K, V> newEntry = new Entry<>(key, value);
+        V                 result   = null;
+
+        while (result == null)
+        {
+            final Entry<K, V> entry = entries.putIfAbsent(key, newEntry);
+
+            if (entry == null || (entry.value == null && entries.replace(key, entry, newEntry)))  // Pre-empts any load in progress
+            {
+                admitted(newEntry);
+                result = value;
+            }
+            else
+            {
+                result = entry.value;  // Null if the entry was a placeholder that's since been replaced or discarded - try again
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Removes the entry for the given key, if there is one.
+     *
+     * @param key The key <i>(must not be null)</i>.
+     */
+    public void remove(final K key)
+    {
+        final Entry<K, V> removed = entries.remove(key);
+
+        if (removed != null && removed.value != null)
+        {
+            size.decrementAndGet();  // The removed entry is still queued, but will be skipped when it reaches the head
+        }
+    }
+
+
+    /**
+     * Removes all entries from the cache.  Statistics are retained.
+     */
+    public void clear()
+    {
+        entries.clear();
+        evictionQueue.clear();
+        size.set(0);
+    }
+
+
+    public int size()
+    {
+        return(size.get());
+    }
+
+    public int getCapacity()
+    {
+        return(capacity);
+    }
+
+    public long getHits()
+    {
+        return(hits.get());
+    }
+
+    public long getMisses()
+    {
+        return(misses.get());
+    }
+
+    public long getEvictions()
+    {
+        return(evictions.get());
+    }
+
+
+    /**
+     * Called whenever a lookup finds a cached value.
+     */
+    protected void onHit(final K key)
+    {
+    }
+
+    /**
+     * Called whenever a lookup doesn't find a cached value.
+     */
+    protected void onMiss(final K key)
+    {
+    }
+
+    /**
+     * Called whenever an entry is evicted to keep the cache within its capacity.
+     */
+    protected void onEviction(final K key)
+    {
+    }
+
+
+    private void hit(final K key, final Entry<K, V> entry)
+    {
+        entry.referenced = true;
+        hits.incrementAndGet();
+        onHit(key);
+    }
+
+
+    private void miss(final K key)
+    {
+        misses.incrementAndGet();
+        onMiss(key);
+    }
+
+
+    private void admitted(final Entry<K, V> entry)
+    {
+        evictionQueue.offer(entry);
+
+        if (size.incrementAndGet() > capacity)
+        {
+            evict();
+        }
+    }
+
+
+    private void evict()
+    {
+        for (int attempts = 0; size.get() > capacity && attempts < MAX_EVICTION_ATTEMPTS; attempts++)
+        {
+            final Entry<K, V> candidate = evictionQueue.poll();
+
+            if (candidate == null) break;
+
+            if (entries.get(candidate.key) != candidate)
+            {
+                // Stale queue entry (the key has since been replaced or removed) - ignore it
+                continue;
+            }
+
+            if (candidate.referenced)
+            {
+                // Recently used - give it a second chance
+                candidate.referenced = false;
+                evictionQueue.offer(candidate);
+            }
+            else if (entries.remove(candidate.key, candidate))
+            {
+                size.decrementAndGet();
+                evictions.incrementAndGet();
+                onEviction(candidate.key);
+            }
+        }
+    }
+
+
+    private final static class Entry<K, V>
+    {
+        private final K key;
+        private final V value;  // Null for placeholders
+
+        private volatile boolean referenced = false;
+
+        private Entry(final K key, final V value)
+        {
+            this.key   = key;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.dictionary.AspectDefinition;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.dictionary.TypeDefinition;
+import org.alfresco.service.namespace.QName;
+
+import static org.alfresco.extension.bulkimport.util.Utils.*;
+
+
+/**
+ * This class resolves the names used in import metadata (e.g. "cm:title" or
+ * "{http://www.alfresco.org/model/content/1.0}title") to QNames, and QNames to
+ * their type, aspect and property definitions, remembering the results so that
+ * each name is only resolved once.  Lookups don't lock, so the table can be
+ * shared by every thread (and every component) of an import.
+ *
+ * Names that aren't defined in the data dictionary are remembered too (as
+ * undefined), since metadata routinely contains residual properties.
+ *
+ * The table should be cleared at the start of each import, so that changes to
+ * the data dictionary (e.g. newly deployed models) made between imports are
+ * picked up.
+ */
+public final class DictionarySymbolTable
+{
+    // Stands in for "not defined in the data dictionary", since concurrent maps can't hold nulls
+    private final static Object UNDEFINED = new Object();
+
+    private final ServiceRegistry   serviceRegistry;
+    private final DictionaryService dictionaryService;
+
+    private final ConcurrentMap<String, QName> qNames     = new ConcurrentHashMap<>();
+    private final ConcurrentMap<QName, Object> types      = new ConcurrentHashMap<>();
+    private final ConcurrentMap<QName, Object> aspects    = new ConcurrentHashMap<>();
+    private final ConcurrentMap<QName, Object> properties = new ConcurrentHashMap<>();
+
+
+    public DictionarySymbolTable(final ServiceRegistry serviceRegistry)
+    {
+        // PRECONDITIONS
+        assert serviceRegistry != null : "serviceRegistry must not be null.";
+
+        // Body
+        this.serviceRegistry   = serviceRegistry;
+        this.dictionaryService = serviceRegistry.getDictionaryService();
+    }
+
+
+    /**
+     * @param name The name to resolve, either prefixed or fully namespaced <i>(may be null)</i>.
+     * @return The QName <i>(will be null if the name is null)</i>.
+     */
+    public QName getQName(final String name)
+    {
+        QName result = null;
+
+        if (name != null)
+        {
+            result = qNames.get(name);
+
+            if (result == null)
+            {
+                result = createQName(serviceRegistry, name);
+                qNames.putIfAbsent(name, result);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param name The QName of the type <i>(may be null)</i>.
+     * @return The definition of the type <i>(will be null if the type isn't defined)</i>.
+     */
+    public TypeDefinition getType(final QName name)
+    {
+        TypeDefinition result = null;
+
+        if (name != null)
+        {
+            Object definition = types.get(name);
+
+            if (definition == null)
+            {
+                definition = orUndefined(dictionaryService.getType(name));
+                types.putIfAbsent(name, definition);
+            }
+
+            result = definition == UNDEFINED ? null : (TypeDefinition)definition;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param name The QName of the aspect <i>(may be null)</i>.
+     * @return The definition of the aspect <i>(will be null if the aspect isn't defined)</i>.
+     */
+    public AspectDefinition getAspect(final QName name)
+    {
+        AspectDefinition result = null;
+
+        if (name != null)
+        {
+            Object definition = aspects.get(name);
+
+            if (definition == null)
+            {
+                definition = orUndefined(dictionaryService.getAspect(name));
+                aspects.putIfAbsent(name, definition);
+            }
+
+            result = definition == UNDEFINED ? null : (AspectDefinition)definition;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param name The QName of the property <i>(may be null)</i>.
+     * @return The definition of the property <i>(will be null if the property isn't defined, i.e. is residual)</i>.
+     */
+    public PropertyDefinition getProperty(final QName name)
+    {
+        PropertyDefinition result = null;
+
+        if (name != null)
+        {
+            Object definition = properties.get(name);
+
+            if (definition == null)
+            {
+                definition = orUndefined(dictionaryService.getProperty(name));
+                properties.putIfAbsent(name, definition);
+            }
+
+            result = definition == UNDEFINED ? null : (PropertyDefinition)definition;
+        }
+
+        return(result);
+    }
+
+
+    public TypeDefinition getType(final String name)
+    {
+        return(getType(getQName(name)));
+    }
+
+    public AspectDefinition getAspect(final String name)
+    {
+        return(getAspect(getQName(name)));
+    }
+
+    public PropertyDefinition getProperty(final String name)
+    {
+        return(getProperty(getQName(name)));
+    }
+
+
+    /**
+     * Forgets everything that's been resolved so far.
+     */
+    public void clear()
+    {
+        qNames.clear();
+        types.clear();
+        aspects.clear();
+        properties.clear();
+    }
+
+
+    private final static Object orUndefined(final Object definition)
+    {
+        return(definition == null ? UNDEFINED : definition);
+    }
+
+}
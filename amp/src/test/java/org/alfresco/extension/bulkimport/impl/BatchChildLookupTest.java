@@ -0,0 +1,265 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchChildLookupTest
+{
+	private static final NodeRef PARENT = node("parent");
+
+	// The children of PARENT: association local name -> (cm:name, node)
+	private final Map<String, Object[]> children = new HashMap<>();
+	private final List<List<String>> queries = new ArrayList<>();
+	private final List<NodeRef> nameReads = new ArrayList<>();
+
+	private ServiceRegistry serviceRegistry;
+	private DictionarySymbolTable symbolTable;
+
+	private static NodeRef node(String id)
+	{
+		return new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+	}
+
+	private void child(String assocName, String name, NodeRef nodeRef)
+	{
+		this.children.put(assocName, new Object[] { name, nodeRef });
+	}
+
+	private static String longName(char last)
+	{
+		final StringBuilder result = new StringBuilder();
+		while (result.length() < 120)
+		{
+			result.append("x");
+		}
+		return result.append(last).toString();
+	}
+
+	@SafeVarargs
+	private final BatchChildLookup lookup(BulkImportItem<BulkImportItemVersion>... items)
+	{
+		return new BatchChildLookup(this.serviceRegistry, this.symbolTable, new Batch<>(1, Arrays.asList(items)));
+	}
+
+	@Before
+	public void setUp()
+	{
+		// Stands in for the repository: getChildrenByName matches on the (case insensitive) cm:name, like the real query
+		final NodeService nodeService = (NodeService) Proxy.newProxyInstance(NodeService.class.getClassLoader(),
+			new Class<?>[] { NodeService.class }, new InvocationHandler()
+			{
+				@Override
+				@SuppressWarnings("unchecked")
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					switch (method.getName())
+					{
+						case "getChildrenByName":
+						{
+							Assert.assertEquals(PARENT, args[0]);
+							Assert.assertEquals(ContentModel.ASSOC_CONTAINS, args[1]);
+							final List<String> names = new ArrayList<>((Collection<String>) args[2]);
+							BatchChildLookupTest.this.queries.add(names);
+
+							final List<ChildAssociationRef> result = new ArrayList<>();
+							for (Map.Entry<String, Object[]> child : BatchChildLookupTest.this.children.entrySet())
+							{
+								for (String name : names)
+								{
+									if (name.equalsIgnoreCase((String) child.getValue()[0]))
+									{
+										result.add(new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, PARENT,
+											QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, child.getKey()), (NodeRef) child.getValue()[1]));
+										break;
+									}
+								}
+							}
+							return result;
+						}
+						case "getProperty":
+						{
+							Assert.assertEquals(ContentModel.PROP_NAME, args[1]);
+							BatchChildLookupTest.this.nameReads.add((NodeRef) args[0]);
+							for (Object[] child : BatchChildLookupTest.this.children.values())
+							{
+								if (child[1].equals(args[0])) return (Serializable) child[0];
+							}
+							return null;
+						}
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				}
+			});
+
+		this.serviceRegistry = (ServiceRegistry) Proxy.newProxyInstance(ServiceRegistry.class.getClassLoader(),
+			new Class<?>[] { ServiceRegistry.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					return "getNodeService".equals(method.getName()) ? nodeService : null;
+				}
+			});
+		this.symbolTable = new DictionarySymbolTable(this.serviceRegistry);
+	}
+
+	@Test
+	public void testMatchesChildrenByAssociationName()
+	{
+		final NodeRef a = node("a");
+		final NodeRef b = node("b");
+		child("a.txt", "a.txt", a);
+		child("b.txt", "b.txt", b);
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", "a.txt"), TestBulkImportItem.file("x", "b.txt"));
+
+		Assert.assertEquals(a, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "a.txt"));
+		Assert.assertEquals(b, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "b.txt"));
+
+		// Both names were looked up in a single query, without reading any cm:name properties
+		Assert.assertEquals(Arrays.asList(Arrays.asList("a.txt", "b.txt")), this.queries);
+		Assert.assertTrue(this.nameReads.isEmpty());
+	}
+
+	@Test
+	public void testMissingNamesAreVerified()
+	{
+		final NodeRef a = node("a");
+		child("a.txt", "a.txt", a);
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", "a.txt"), TestBulkImportItem.file("x", "b.txt"));
+
+		Assert.assertEquals(a, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "a.txt"));
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "b.txt"));
+
+		// "b.txt" is unaccounted for, so the child matched by association name has to be checked
+		Assert.assertEquals(Arrays.asList(a), this.nameReads);
+	}
+
+	@Test
+	public void testNewNamesAreNotVerified()
+	{
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", "a.txt"), TestBulkImportItem.file("x", "b.txt"));
+
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "a.txt"));
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "b.txt"));
+		Assert.assertEquals(1, this.queries.size());
+		Assert.assertTrue(this.nameReads.isEmpty());
+	}
+
+	@Test
+	public void testNamesAreCaseInsensitive()
+	{
+		final NodeRef a = node("a");
+		child("A.TXT", "A.TXT", a);
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", "a.txt"));
+
+		Assert.assertEquals(a, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "a.txt"));
+		Assert.assertEquals(a, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "A.Txt"));
+		Assert.assertEquals(1, this.queries.size());
+		Assert.assertTrue(this.nameReads.isEmpty());
+	}
+
+	@Test
+	public void testAmbiguousAssociationNamesFallBackOnName()
+	{
+		// These two names only differ after the association name is truncated, so the association name alone can't tell them apart
+		final String name1 = longName('1');
+		final String name2 = longName('2');
+		final NodeRef node1 = node("1");
+		child(QName.createValidLocalName(name1), name1, node1);
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", name1), TestBulkImportItem.file("x", name2));
+
+		Assert.assertEquals(node1, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, name1));
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, name2));
+		Assert.assertEquals(Arrays.asList(node1), this.nameReads);
+	}
+
+	@Test
+	public void testRenamedChildrenFallBackOnName()
+	{
+		// "old.txt" was renamed to "new.txt" without its association being renamed too
+		final NodeRef renamed = node("renamed");
+		child("old.txt", "new.txt", renamed);
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", "new.txt"), TestBulkImportItem.file("x", "old.txt"));
+
+		// The child's association matches "old.txt", but it isn't called that any more
+		Assert.assertEquals(renamed, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "new.txt"));
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "old.txt"));
+		Assert.assertEquals(Arrays.asList(renamed), this.nameReads);
+	}
+
+	@Test
+	public void testNamesOutsideTheBatchAreLookedUpIndividually()
+	{
+		final NodeRef c = node("c");
+		child("c.txt", "c.txt", c);
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.file("x", "a.txt"));
+
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "a.txt"));
+		Assert.assertEquals(c, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "c.txt"));
+		Assert.assertEquals(c, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "c.txt"));
+		Assert.assertEquals(Arrays.asList(Arrays.asList("a.txt"), Arrays.asList("c.txt")), this.queries);
+	}
+
+	@Test
+	public void testQueriesAreChunked()
+	{
+		final List<BulkImportItem<BulkImportItemVersion>> items = new ArrayList<>();
+		for (int i = 0; i < 1201; i++)
+		{
+			items.add(TestBulkImportItem.file("x", "file" + i + ".txt"));
+		}
+		final NodeRef last = node("last");
+		child("file1200.txt", "file1200.txt", last);
+		final BatchChildLookup lookup = new BatchChildLookup(this.serviceRegistry, this.symbolTable, new Batch<>(1, items));
+
+		Assert.assertEquals(last, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "file1200.txt"));
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "file0.txt"));
+		Assert.assertEquals(3, this.queries.size());
+		Assert.assertEquals(500, this.queries.get(0).size());
+		Assert.assertEquals(500, this.queries.get(1).size());
+		Assert.assertEquals(201, this.queries.get(2).size());
+		Assert.assertEquals("file1200.txt", this.queries.get(2).get(200));
+	}
+
+	@Test
+	public void testCreatedChildren()
+	{
+		final BatchChildLookup lookup = lookup(TestBulkImportItem.folder("x", "new"), TestBulkImportItem.file("x/new", "a.txt"));
+		Assert.assertNull(lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "new"));
+
+		final NodeRef created = node("new");
+		lookup.childCreated(PARENT, ContentModel.ASSOC_CONTAINS, "new", created);
+		Assert.assertTrue(lookup.isCreated(created));
+		Assert.assertFalse(lookup.isCreated(PARENT));
+
+		// Subsequent lookups see the new child, and the new child's own children are known without querying the repository
+		Assert.assertEquals(created, lookup.getChildByName(PARENT, "x", ContentModel.ASSOC_CONTAINS, "New"));
+		Assert.assertNull(lookup.getChildByName(created, "x/new", ContentModel.ASSOC_CONTAINS, "a.txt"));
+		Assert.assertNull(lookup.getChildByName(created, "x/new", ContentModel.ASSOC_CONTAINS, "not-in-batch.txt"));
+		Assert.assertEquals(1, this.queries.size());
+	}
+}
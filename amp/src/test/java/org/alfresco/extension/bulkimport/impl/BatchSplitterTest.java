@@ -0,0 +1,241 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.extension.bulkimport.BulkImportErrorInfo;
+import org.alfresco.extension.bulkimport.BulkImportStatus;
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+import org.alfresco.extension.bulkimport.util.BoundedConcurrentCache;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchSplitterTest
+{
+	private static final NodeRef FOLDER = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "folder");
+
+	private BulkImportStatusImpl status;
+	private BoundedConcurrentCache<String, NodeRef> parentCache;
+	private BatchSplitter splitter;
+
+	/**
+	 * Stands in for BatchImporterImpl's transactions: a transaction fails if it contains a bad item, and otherwise "commits" its items.
+	 */
+	private class FakeTransaction implements BatchSplitter.Transaction
+	{
+		private final Set<BulkImportItem<?>> badItems = new HashSet<>();
+		private final Map<BulkImportItem<?>, Integer> attempts = new HashMap<>();
+		private final List<Integer> transactionSizes = new ArrayList<>();
+		private final List<BulkImportItem<?>> committed = new ArrayList<>();
+		private boolean identifyBadItems = true;
+
+		@Override
+		public <T extends BulkImportItemVersion> int importBatch(Batch<T> batch)
+		{
+			this.transactionSizes.add(batch.size());
+			int result = 1;
+
+			for (BulkImportItem<T> item : batch)
+			{
+				// Folders are cached as they're created, just like the real thing
+				if (item.isDirectory())
+				{
+					BatchSplitterTest.this.parentCache.put(item.getTargetRelativePathOfParent() + "/" + item.getTargetName(), FOLDER);
+				}
+
+				if (this.badItems.contains(item))
+				{
+					throw new ItemImportException(this.identifyBadItems ? item : null, new RuntimeException("Bad item"));
+				}
+
+				if (this.attempts.containsKey(item))
+				{
+					result = Math.max(result, this.attempts.get(item));
+				}
+			}
+
+			for (BulkImportItem<T> item : batch)
+			{
+				this.committed.add(item);
+			}
+			return result;
+		}
+	}
+
+	private static Batch<BulkImportItemVersion> batch(int size)
+	{
+		final List<BulkImportItem<BulkImportItemVersion>> items = new ArrayList<>();
+		for (int i = 0; i < size; i++)
+		{
+			items.add(TestBulkImportItem.file("x", "file" + i));
+		}
+		return new Batch<>(1, items);
+	}
+
+	private long splits()
+	{
+		final Long result = this.status.getTargetCounter(BulkImportStatus.TARGET_COUNTER_BATCHES_SPLIT);
+		return result == null ? 0 : result;
+	}
+
+	private List<String> errors()
+	{
+		final List<String> result = new ArrayList<>();
+		for (BulkImportErrorInfo error : this.status.getErrorInfo())
+		{
+			result.add(error.getItem());
+		}
+		return result;
+	}
+
+	@Before
+	public void setUp()
+	{
+		this.status = new BulkImportStatusImpl();
+		this.parentCache = new BoundedConcurrentCache<>(100);
+		this.splitter = new BatchSplitter(this.status, this.parentCache);
+	}
+
+	@Test
+	public void testBatchWithoutFailuresIsNotSplit() throws Exception
+	{
+		final Batch<BulkImportItemVersion> batch = batch(10);
+		final FakeTransaction transaction = new FakeTransaction();
+
+		Assert.assertEquals(1, this.splitter.importBatch(batch, transaction));
+		Assert.assertEquals(Arrays.asList(10), transaction.transactionSizes);
+		Assert.assertEquals(batch.getContents(), transaction.committed);
+		Assert.assertEquals(0, splits());
+		Assert.assertTrue(errors().isEmpty());
+	}
+
+	@Test
+	public void testSingleBadItemIsIsolated() throws Exception
+	{
+		final Batch<BulkImportItemVersion> batch = batch(10);
+		final BulkImportItem<BulkImportItemVersion> bad = batch.getContents().get(6);
+		final FakeTransaction transaction = new FakeTransaction();
+		transaction.badItems.add(bad);
+
+		Assert.assertEquals(1, this.splitter.importBatch(batch, transaction));
+
+		// Split once, around the bad item: the items before it, the item itself, and the items after it
+		Assert.assertEquals(Arrays.asList(10, 6, 1, 3), transaction.transactionSizes);
+		Assert.assertEquals(1, splits());
+
+		// Everything else commits, and the bad item is reported
+		final List<BulkImportItem<BulkImportItemVersion>> expected = new ArrayList<>(batch.getContents());
+		expected.remove(bad);
+		Assert.assertEquals(expected, transaction.committed);
+		Assert.assertEquals(Arrays.asList("x/file6"), errors());
+	}
+
+	@Test
+	public void testUnidentifiedBadItemIsIsolatedByBisection() throws Exception
+	{
+		final Batch<BulkImportItemVersion> batch = batch(8);
+		final BulkImportItem<BulkImportItemVersion> bad = batch.getContents().get(5);
+		final FakeTransaction transaction = new FakeTransaction();
+		transaction.badItems.add(bad);
+		transaction.identifyBadItems = false;
+
+		this.splitter.importBatch(batch, transaction);
+
+		// 8 -> 4 + 4, and the failing halves are split again (depth first) until the bad item is on its own
+		Assert.assertEquals(Arrays.asList(8, 4, 4, 2, 1, 1, 2), transaction.transactionSizes);
+		Assert.assertEquals(3, splits());
+		Assert.assertEquals(7, transaction.committed.size());
+		Assert.assertFalse(transaction.committed.contains(bad));
+		Assert.assertEquals(Arrays.asList("x/file5"), errors());
+	}
+
+	@Test
+	public void testSeveralBadItemsAreIsolated() throws Exception
+	{
+		final Batch<BulkImportItemVersion> batch = batch(10);
+		final FakeTransaction transaction = new FakeTransaction();
+		transaction.badItems.add(batch.getContents().get(2));
+		transaction.badItems.add(batch.getContents().get(7));
+
+		this.splitter.importBatch(batch, transaction);
+
+		Assert.assertEquals(8, transaction.committed.size());
+		Assert.assertEquals(Arrays.asList("x/file2", "x/file7"), errors());
+	}
+
+	@Test
+	public void testAttemptsAreTheMostOfAnyTransaction() throws Exception
+	{
+		final Batch<BulkImportItemVersion> batch = batch(10);
+		final FakeTransaction transaction = new FakeTransaction();
+		transaction.badItems.add(batch.getContents().get(4));
+		transaction.attempts.put(batch.getContents().get(1), 3);
+		transaction.attempts.put(batch.getContents().get(8), 2);
+
+		// Retries of the individual transactions count, the splits themselves don't
+		Assert.assertEquals(3, this.splitter.importBatch(batch, transaction));
+	}
+
+	@Test
+	public void testFoldersOfRolledBackTransactionsAreForgotten() throws Exception
+	{
+		final List<BulkImportItem<BulkImportItemVersion>> items = new ArrayList<>();
+		final BulkImportItem<BulkImportItemVersion> bad = TestBulkImportItem.folder("x", "bad");
+		items.add(TestBulkImportItem.folder("x", "good"));
+		items.add(bad);
+		final FakeTransaction transaction = new FakeTransaction();
+		transaction.badItems.add(bad);
+
+		this.splitter.importBatch(new Batch<>(1, items), transaction);
+
+		// "good" was forgotten when the first transaction rolled back, then cached again when it committed on its own
+		Assert.assertEquals(FOLDER, this.parentCache.get("x/good"));
+		Assert.assertNull(this.parentCache.get("x/bad"));
+	}
+
+	@Test
+	public void testForgetFoldersOnlyForgetsFolders()
+	{
+		this.parentCache.put("x/folder", FOLDER);
+		this.parentCache.put("x/file", FOLDER);
+		this.parentCache.put("x/other", FOLDER);
+
+		this.splitter.forgetFolders(new Batch<>(1, Arrays.<BulkImportItem<BulkImportItemVersion>>asList(
+			TestBulkImportItem.folder("x", "folder"), TestBulkImportItem.file("x", "file"))));
+
+		Assert.assertNull(this.parentCache.get("x/folder"));
+		Assert.assertEquals(FOLDER, this.parentCache.get("x/file"));
+		Assert.assertEquals(FOLDER, this.parentCache.get("x/other"));
+	}
+
+	@Test
+	public void testFailuresAreNotSplitWhileStopping() throws Exception
+	{
+		final Batch<BulkImportItemVersion> batch = batch(10);
+		final FakeTransaction transaction = new FakeTransaction();
+		transaction.badItems.add(batch.getContents().get(3));
+		this.status.stopRequested();
+
+		try
+		{
+			this.splitter.importBatch(batch, transaction);
+			Assert.fail("Expected an ItemImportException");
+		}
+		catch (ItemImportException e)
+		{
+			Assert.assertSame(batch.getContents().get(3), e.getItem());
+		}
+
+		Assert.assertEquals(Arrays.asList(10), transaction.transactionSizes);
+		Assert.assertEquals(0, splits());
+	}
+}
@@ -0,0 +1,144 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchWeightControllerTest
+{
+	private static final long TARGET_MS = 1000;
+
+	private int batchNumber = 0;
+
+	private Batch<BulkImportItemVersion> batch(int weight)
+	{
+		final List<BulkImportItem<BulkImportItemVersion>> contents = new ArrayList<>();
+		contents.add(null);
+		return new Batch<>(++this.batchNumber, contents, weight);
+	}
+
+	private static long ms(long ms)
+	{
+		return TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	@Test
+	public void testNotAdaptive()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BatchWeightController controller = new BatchWeightController(status, 100, 1, 1000, 0);
+		Assert.assertFalse(controller.isAdaptive());
+		Assert.assertNull(status.getLastBatchDurationInNs());
+		Assert.assertNull(status.getLastBatchDuration());
+
+		controller.batchCompleted(batch(100), ms(10), 1);
+		controller.batchCompleted(batch(100), ms(10000), 3);
+		Assert.assertEquals(100, controller.getBatchWeight());
+		Assert.assertEquals(100, status.getBatchWeight());
+		Assert.assertEquals(Long.valueOf(ms(10000)), status.getLastBatchDurationInNs());
+		Assert.assertNotNull(status.getLastBatchDuration());
+		Assert.assertNull(status.getLastBatchWeightAdjustment());
+	}
+
+	@Test
+	public void testGrowsWhenUnderTarget()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BatchWeightController controller = new BatchWeightController(status, 100, 1, 0, TARGET_MS);
+		Assert.assertTrue(controller.isAdaptive());
+
+		// 100 units in 250ms would suggest 400 units for 1000ms, but the weight only ever doubles in one step
+		controller.batchCompleted(batch(100), ms(250), 1);
+		Assert.assertEquals(200, controller.getBatchWeight());
+		Assert.assertEquals(200, status.getBatchWeight());
+		Assert.assertNotNull(status.getLastBatchWeightAdjustment());
+		Assert.assertTrue(status.getLastBatchWeightAdjustment(), status.getLastBatchWeightAdjustment().contains("from 100 to 200"));
+
+		// Same rate again - now it gets to the ideal weight
+		controller.batchCompleted(batch(200), ms(500), 1);
+		Assert.assertEquals(400, controller.getBatchWeight());
+	}
+
+	@Test
+	public void testShrinksWhenOverTarget()
+	{
+		final BatchWeightController controller = new BatchWeightController(new BulkImportStatusImpl(), 100, 1, 0, TARGET_MS);
+
+		// 100 units in 8000ms would suggest 12.5 units, but the weight only ever halves in one step
+		controller.batchCompleted(batch(100), ms(8000), 1);
+		Assert.assertEquals(50, controller.getBatchWeight());
+		controller.batchCompleted(batch(50), ms(4000), 1);
+		Assert.assertEquals(25, controller.getBatchWeight());
+	}
+
+	@Test
+	public void testSmallAdjustmentsAreIgnored()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BatchWeightController controller = new BatchWeightController(status, 100, 1, 0, TARGET_MS);
+
+		// Within 10% of the target
+		controller.batchCompleted(batch(100), ms(950), 1);
+		controller.batchCompleted(batch(100), ms(1050), 1);
+		Assert.assertEquals(100, controller.getBatchWeight());
+		Assert.assertNull(status.getLastBatchWeightAdjustment());
+	}
+
+	@Test
+	public void testDurationsAreSmoothed()
+	{
+		final BatchWeightController controller = new BatchWeightController(new BulkImportStatusImpl(), 100, 1, 0, TARGET_MS);
+		controller.batchCompleted(batch(100), ms(1000), 1);
+		Assert.assertEquals(100, controller.getBatchWeight());
+
+		// A single outlier only moves the estimate part of the way: 0.3 * 20ms + 0.7 * 10ms = 13ms per unit, i.e. 77 units
+		controller.batchCompleted(batch(100), ms(2000), 1);
+		Assert.assertEquals(77, controller.getBatchWeight());
+	}
+
+	@Test
+	public void testRetriesHalveTheWeight()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BatchWeightController controller = new BatchWeightController(status, 100, 1, 0, TARGET_MS);
+
+		// Even though the batch was quick
+		controller.batchCompleted(batch(100), ms(10), 2);
+		Assert.assertEquals(50, controller.getBatchWeight());
+		Assert.assertTrue(status.getLastBatchWeightAdjustment(), status.getLastBatchWeightAdjustment().contains("took 2 attempts"));
+	}
+
+	@Test
+	public void testWeightIsClamped()
+	{
+		final BatchWeightController controller = new BatchWeightController(new BulkImportStatusImpl(), 100, 60, 150, TARGET_MS);
+		controller.batchCompleted(batch(100), ms(10), 1);
+		Assert.assertEquals(150, controller.getBatchWeight());
+		controller.batchCompleted(batch(150), ms(10), 1);
+		Assert.assertEquals(150, controller.getBatchWeight());
+		controller.batchCompleted(batch(150), ms(10), 2);
+		Assert.assertEquals(75, controller.getBatchWeight());
+		controller.batchCompleted(batch(75), ms(10), 2);
+		Assert.assertEquals(60, controller.getBatchWeight());
+
+		// The initial weight is clamped too
+		Assert.assertEquals(60, new BatchWeightController(new BulkImportStatusImpl(), 10, 60, 150, TARGET_MS).getBatchWeight());
+		Assert.assertEquals(150, new BatchWeightController(new BulkImportStatusImpl(), 1000, 60, 150, TARGET_MS).getBatchWeight());
+	}
+
+	@Test
+	public void testBoundsAreIgnoredWhenNotAdaptive()
+	{
+		final BatchWeightController controller = new BatchWeightController(new BulkImportStatusImpl(), 5000, 10, 1000, 0);
+		Assert.assertEquals(5000, controller.getBatchWeight());
+		controller.batchCompleted(batch(5000), ms(10), 2);
+		Assert.assertEquals(5000, controller.getBatchWeight());
+
+		Assert.assertEquals(5, new BatchWeightController(new BulkImportStatusImpl(), 5, 10, 1000, 0).getBatchWeight());
+	}
+}
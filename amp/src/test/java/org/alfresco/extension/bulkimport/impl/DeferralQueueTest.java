@@ -0,0 +1,160 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeferralQueueTest
+{
+	private static List<String> paths(String... paths)
+	{
+		return Arrays.asList(paths);
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		final DeferralQueue queue = new DeferralQueue();
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertFalse(queue.hasReady());
+		Assert.assertTrue(queue.drainReady().isEmpty());
+		Assert.assertTrue(queue.close().isEmpty());
+	}
+
+	@Test
+	public void testReadyOnceParentIsCommitted()
+	{
+		final DeferralQueue queue = new DeferralQueue();
+		final BulkImportItem<?> item1 = TestBulkImportItem.file("a", "1.txt");
+		final BulkImportItem<?> item2 = TestBulkImportItem.file("a", "2.txt");
+		final BulkImportItem<?> item3 = TestBulkImportItem.file("b", "3.txt");
+
+		Assert.assertTrue(queue.defer("a", item1));
+		Assert.assertTrue(queue.defer("a", item2));
+		Assert.assertTrue(queue.defer("b", item3));
+		Assert.assertFalse(queue.isEmpty());
+		Assert.assertFalse(queue.hasReady());
+
+		// Unrelated folders don't release anything
+		queue.committed(paths("c", "a/b"));
+		Assert.assertFalse(queue.hasReady());
+
+		queue.committed(paths("a"));
+		Assert.assertTrue(queue.hasReady());
+		Assert.assertEquals(Arrays.asList(item1, item2), queue.drainReady());
+		Assert.assertFalse(queue.hasReady());
+		Assert.assertFalse(queue.isEmpty());
+
+		queue.committed(paths("b"));
+		Assert.assertEquals(Collections.singletonList(item3), queue.drainReady());
+		Assert.assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testParentCommittedBeforeDeferral()
+	{
+		final DeferralQueue queue = new DeferralQueue();
+		final BulkImportItem<?> item = TestBulkImportItem.file("a", "1.txt");
+
+		// The batch creating "a" committed after the item's batch looked for it, but before the item was deferred
+		queue.committed(paths("a"));
+		Assert.assertTrue(queue.defer("a", item));
+		Assert.assertTrue(queue.hasReady());
+		Assert.assertFalse(queue.isEmpty());
+		Assert.assertEquals(Collections.singletonList(item), queue.drainReady());
+		Assert.assertTrue(queue.isEmpty());
+
+		// Nothing is left waiting for "a"
+		Assert.assertTrue(queue.close().isEmpty());
+	}
+
+	@Test
+	public void testDeferralsPerItemAreLimited()
+	{
+		final DeferralQueue queue = new DeferralQueue();
+		final BulkImportItem<?> item = TestBulkImportItem.file("a", "1.txt");
+
+		for (int i = 0; i < 3; i++)
+		{
+			Assert.assertTrue(queue.defer("a", item));
+			queue.committed(paths("a"));
+			Assert.assertEquals(1, queue.drainReady().size());
+		}
+
+		Assert.assertFalse(queue.defer("a", item));
+		Assert.assertTrue(queue.isEmpty());
+
+		// Other items aren't affected
+		Assert.assertTrue(queue.defer("a", TestBulkImportItem.file("a", "1.txt")));
+	}
+
+	@Test
+	public void testClose()
+	{
+		final DeferralQueue queue = new DeferralQueue();
+		final BulkImportItem<?> item1 = TestBulkImportItem.file("a", "1.txt");
+		final BulkImportItem<?> item2 = TestBulkImportItem.file("b", "2.txt");
+
+		queue.defer("a", item1);
+		queue.defer("b", item2);
+		queue.committed(paths("b"));
+
+		// Only the waiting item is returned - the ready one is still drained as usual
+		Assert.assertEquals(Collections.singletonList(item1), queue.close());
+		Assert.assertFalse(queue.isEmpty());
+		Assert.assertEquals(Collections.singletonList(item2), queue.drainReady());
+		Assert.assertTrue(queue.isEmpty());
+
+		// Nothing more may be deferred
+		Assert.assertFalse(queue.defer("a", TestBulkImportItem.file("a", "3.txt")));
+		Assert.assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testAwait() throws Exception
+	{
+		final DeferralQueue queue = new DeferralQueue();
+		final CountDownLatch waiting = new CountDownLatch(1);
+		final CountDownLatch woken = new CountDownLatch(1);
+		queue.defer("a", TestBulkImportItem.file("a", "1.txt"));
+
+		final Thread t = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					synchronized (queue)
+					{
+						waiting.countDown();
+						queue.await(TimeUnit.SECONDS.toMillis(30));
+					}
+					woken.countDown();
+				}
+				catch (InterruptedException e)
+				{
+					// Fall through
+				}
+			}
+		};
+		t.start();
+
+		// Committing the parent wakes up the waiting thread
+		Assert.assertTrue(waiting.await(10, TimeUnit.SECONDS));
+		queue.committed(paths("a"));
+		Assert.assertTrue(woken.await(10, TimeUnit.SECONDS));
+		t.join();
+
+		// Doesn't wait at all if items are already ready
+		final long start = System.nanoTime();
+		queue.await(TimeUnit.SECONDS.toMillis(30));
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+	}
+}
@@ -0,0 +1,83 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DryRunReporterTest
+{
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.directory = Files.createTempDirectory("dry-run-reports").toFile();
+	}
+
+	@After
+	public void tearDown()
+	{
+		FileUtils.deleteQuietly(this.directory);
+	}
+
+	@Test
+	public void testReportsAreNeverOverwritten() throws Exception
+	{
+		// Several reporters (e.g. one per cluster node) sharing a directory, starting dry runs in quick succession
+		final Set<File> reports = new HashSet<>();
+		for (int i = 0; i < 10; i++)
+		{
+			final DryRunReporter reporter = new DryRunReporter(this.directory.getAbsolutePath());
+			reporter.started("source" + i);
+			final File report = reporter.finished();
+			Assert.assertNotNull(report);
+			Assert.assertTrue(reports.add(report));
+		}
+
+		Assert.assertEquals(10, this.directory.listFiles().length);
+		for (File report : reports)
+		{
+			final String contents = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+			Assert.assertTrue(contents, contents.startsWith("Dry run of source"));
+			Assert.assertTrue(contents, contents.contains("0 items with faults"));
+		}
+	}
+
+	@Test
+	public void testClashingReportsGetASuffix() throws Exception
+	{
+		// Pretend another dry run started in every millisecond of the next few seconds
+		final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+		final long now = System.currentTimeMillis();
+		for (long ms = now; ms < now + 5000; ms++)
+		{
+			Assert.assertTrue(new File(this.directory, "bulk-import-dry-run-" + format.format(new Date(ms)) + ".txt").createNewFile());
+		}
+
+		final DryRunReporter reporter = new DryRunReporter(this.directory.getAbsolutePath());
+		reporter.started("source");
+		final File report = reporter.finished();
+		Assert.assertNotNull(report);
+		Assert.assertTrue(report.getName(), report.getName().endsWith("-1.txt"));
+		Assert.assertTrue(report.length() > 0);
+	}
+
+	@Test
+	public void testReportingWithoutADirectory()
+	{
+		// Faults are then only reported via the import status
+		final DryRunReporter reporter = new DryRunReporter(new File(this.directory, "missing").getAbsolutePath());
+		reporter.started("source");
+		Assert.assertNull(reporter.finished());
+	}
+}
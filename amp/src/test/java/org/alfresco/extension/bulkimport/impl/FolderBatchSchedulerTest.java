@@ -0,0 +1,300 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+import org.alfresco.extension.bulkimport.util.ThreadPauser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FolderBatchSchedulerTest
+{
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private BulkImportThreadPoolExecutor threadPool;
+	private FolderBatchScheduler scheduler;
+	private final List<Integer> imported = Collections.synchronizedList(new ArrayList<Integer>());
+
+	@Before
+	public void setUp()
+	{
+		this.threadPool = new BulkImportThreadPoolExecutor(new ThreadPauser(), 4, 10, 1, TimeUnit.MINUTES);
+		this.scheduler = new FolderBatchScheduler(this.threadPool, true);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.threadPool.shutdownNow();
+	}
+
+	@SafeVarargs
+	private static Batch<BulkImportItemVersion> batch(int number, BulkImportItem<BulkImportItemVersion>... items)
+	{
+		return new Batch<>(number, Arrays.asList(items));
+	}
+
+	// Records the batch as imported, once the gate (if any) has been opened
+	private Runnable job(final int number, final CountDownLatch started, final CountDownLatch gate)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (started != null) started.countDown();
+				try
+				{
+					if (gate != null && !gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) throw new IllegalStateException("Gate never opened");
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+				FolderBatchSchedulerTest.this.imported.add(number);
+			}
+		};
+	}
+
+	private Runnable job(int number)
+	{
+		return job(number, null, null);
+	}
+
+	private void submit(Batch<?> batch, Runnable job)
+	{
+		this.scheduler.submit(batch, job);
+	}
+
+	private void awaitCompletion() throws Exception
+	{
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		while (!this.scheduler.awaitProgress())
+		{
+			Assert.assertTrue("Batches didn't complete in time", System.currentTimeMillis() < deadline);
+		}
+	}
+
+	@Test
+	public void testDisjointBatchesRunConcurrently() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(3);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "a")), job(1, started, gate));
+		submit(batch(2, TestBulkImportItem.folder("", "b")), job(2, started, gate));
+		submit(batch(3, TestBulkImportItem.folder("existing", "c"), TestBulkImportItem.file("existing", "c.txt")), job(3, started, gate));
+
+		// All three are running at once (none of them would ever finish otherwise)
+		Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Assert.assertTrue(this.scheduler.isPending("a"));
+		Assert.assertTrue(this.scheduler.isPending("b"));
+		Assert.assertTrue(this.scheduler.isPending("existing/c"));
+		Assert.assertFalse(this.scheduler.isPending("existing"));
+		Assert.assertFalse(this.scheduler.isPending(null));
+
+		gate.countDown();
+		this.scheduler.awaitCompletion();
+		Assert.assertEquals(3, this.imported.size());
+		Assert.assertEquals(3, this.scheduler.getCompletions());
+		Assert.assertFalse(this.scheduler.isPending("a"));
+		Assert.assertFalse(this.scheduler.isPending("b"));
+		Assert.assertFalse(this.scheduler.isPending("existing/c"));
+	}
+
+	@Test
+	public void testDependentBatchWaitsForItsParent() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "a")), job(1, started, gate));
+		submit(batch(2, TestBulkImportItem.folder("a", "b"), TestBulkImportItem.folder("a/b", "c")), job(2));
+		submit(batch(3, TestBulkImportItem.folder("a/b", "d")), job(3));
+		Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// Only the first batch has been handed to the pool
+		Assert.assertEquals(1, this.threadPool.getTaskCount());
+		Assert.assertTrue(this.scheduler.isPending("a"));
+		Assert.assertTrue(this.scheduler.isPending("a/b"));
+		Assert.assertTrue(this.scheduler.isPending("a/b/c"));
+		Assert.assertTrue(this.scheduler.isPending("a/b/d"));
+
+		gate.countDown();
+		awaitCompletion();
+		Assert.assertEquals(Arrays.asList(1, 2, 3), this.imported);
+		Assert.assertEquals(3, this.scheduler.getCompletions());
+	}
+
+	@Test
+	public void testBatchWaitsForParentSubmittedAfterIt() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "x")), job(1, started, gate));
+		Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// Batch 2 needs "x" (still pending) and "x/a", which is only created by batch 3
+		submit(batch(2, TestBulkImportItem.folder("x", "b"), TestBulkImportItem.folder("x/a", "c")), job(2));
+		submit(batch(3, TestBulkImportItem.folder("x", "a")), job(3));
+		Assert.assertEquals(1, this.threadPool.getTaskCount());
+
+		gate.countDown();
+		awaitCompletion();
+		Assert.assertEquals(Arrays.asList(1, 3, 2), this.imported);
+	}
+
+	@Test
+	public void testCyclicDependenciesDontDeadlock() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "x")), job(1, started, gate));
+		Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// Each of these needs a folder the other creates - the oldest is imported anyway, once nothing else is running
+		submit(batch(2, TestBulkImportItem.folder("x", "y"), TestBulkImportItem.file("x/z", "f1.txt")), job(2));
+		submit(batch(3, TestBulkImportItem.folder("x", "z"), TestBulkImportItem.file("x/y", "f2.txt")), job(3));
+		Assert.assertEquals(1, this.threadPool.getTaskCount());
+
+		gate.countDown();
+		awaitCompletion();
+		Assert.assertEquals(Arrays.asList(1, 2, 3), this.imported);
+	}
+
+	@Test
+	public void testCommittedPathsAreDrained() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "a"), TestBulkImportItem.folder("a", "b")), job(1, started, gate));
+		submit(batch(2, TestBulkImportItem.folder("", "c")), job(2, started, gate));
+		Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Assert.assertTrue(this.scheduler.drainCommittedPaths().isEmpty());
+
+		gate.countDown();
+		awaitCompletion();
+		final List<String> committed = new ArrayList<>(this.scheduler.drainCommittedPaths());
+		Collections.sort(committed);
+		Assert.assertEquals(Arrays.asList("a", "a/b", "c"), committed);
+
+		// Each path is only reported once
+		Assert.assertTrue(this.scheduler.drainCommittedPaths().isEmpty());
+	}
+
+	@Test
+	public void testCommittedPathsAreOnlyTrackedOnRequest() throws Exception
+	{
+		this.scheduler = new FolderBatchScheduler(this.threadPool, false);
+
+		submit(batch(1, TestBulkImportItem.folder("", "a")), job(1));
+		awaitCompletion();
+		Assert.assertFalse(this.scheduler.isPending("a"));
+		Assert.assertTrue(this.scheduler.drainCommittedPaths().isEmpty());
+	}
+
+	@Test
+	public void testDispatchReadyBatchesNeverBlocks() throws Exception
+	{
+		// One thread, and room for one more batch in the queue
+		this.threadPool.shutdownNow();
+		this.threadPool = new BulkImportThreadPoolExecutor(new ThreadPauser(), 1, 1, 1, TimeUnit.MINUTES);
+		this.scheduler = new FolderBatchScheduler(this.threadPool, true);
+
+		final CountDownLatch gate1 = new CountDownLatch(1);
+		final CountDownLatch gate2 = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "a")), job(1, null, gate1));
+		submit(batch(2, TestBulkImportItem.folder("", "b")), job(2, null, gate2));
+		submit(batch(3, TestBulkImportItem.folder("a", "c")), job(3));
+		submit(batch(4, TestBulkImportItem.folder("a", "d")), job(4));
+		Assert.assertEquals(2, this.threadPool.getTaskCount());
+
+		// Nothing has become ready yet
+		this.scheduler.dispatchReadyBatches();
+		Assert.assertEquals(2, this.threadPool.getTaskCount());
+
+		gate1.countDown();
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		while (this.scheduler.getCompletions() < 1)
+		{
+			Assert.assertTrue("Batch #1 didn't complete in time", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+
+		// Batch #2 is still running, so there's only room for one of the two batches that are now ready
+		this.scheduler.dispatchReadyBatches();
+		Assert.assertEquals(3, this.threadPool.getTaskCount());
+		Assert.assertFalse(this.scheduler.isPending("a"));
+		Assert.assertTrue(this.scheduler.isPending("a/d"));
+
+		gate2.countDown();
+		awaitCompletion();
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4), this.imported);
+	}
+
+	@Test
+	public void testShutdownWhileBatchesAreWaiting() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		submit(batch(1, TestBulkImportItem.folder("", "a")), job(1, started, gate));
+		submit(batch(2, TestBulkImportItem.folder("a", "b")), job(2));
+		Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		// E.g. because another folder batch failed
+		this.threadPool.shutdown();
+
+		try
+		{
+			this.scheduler.awaitProgress();
+			Assert.fail("Waiting for progress should fail once the pool has been shut down");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+
+		// The running batch finishes, but the waiting one is never imported
+		gate.countDown();
+		Assert.assertTrue(this.threadPool.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+		try
+		{
+			this.scheduler.awaitCompletion();
+			Assert.fail("Waiting for completion should fail once the pool has been shut down");
+		}
+		catch (IllegalStateException e)
+		{
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("batch #2"));
+		}
+
+		Assert.assertEquals(Arrays.asList(1), this.imported);
+		Assert.assertEquals(1, this.threadPool.getCompletedTaskCount());
+
+		// Nor can anything else be submitted
+		try
+		{
+			submit(batch(3, TestBulkImportItem.folder("", "c")), job(3));
+			Assert.fail("Submitting should fail once the pool has been shut down");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+		Assert.assertEquals(Arrays.asList(1), this.imported);
+	}
+}
@@ -0,0 +1,281 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.extension.bulkimport.util.DictionarySymbolTable;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.dictionary.AspectDefinition;
+import org.alfresco.service.cmr.dictionary.Constraint;
+import org.alfresco.service.cmr.dictionary.ConstraintDefinition;
+import org.alfresco.service.cmr.dictionary.ConstraintException;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.dictionary.TypeDefinition;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetadataValidatorTest
+{
+	private static final String CM = NamespaceService.CONTENT_MODEL_1_0_URI;
+	private static final String SYS = NamespaceService.SYSTEM_MODEL_1_0_URI;
+
+	private static final QName TYPE_DOCUMENT = QName.createQName(CM, "document");
+	private static final QName ASPECT_TITLED = QName.createQName(CM, "titled");
+	private static final QName ASPECT_AUTHORED = QName.createQName(CM, "authored");
+	private static final QName ASPECT_REFERENCEABLE = QName.createQName(SYS, "referenceable");
+
+	private static final QName PROP_NAME = QName.createQName(CM, "name");
+	private static final QName PROP_DESCRIPTION = QName.createQName(CM, "description");
+	private static final QName PROP_CODE = QName.createQName(CM, "code");
+	private static final QName PROP_TITLE = QName.createQName(CM, "title");
+	private static final QName PROP_AUTHOR = QName.createQName(CM, "author");
+	private static final QName PROP_NODE_UUID = QName.createQName(SYS, "node-uuid");
+
+	private final Map<QName, TypeDefinition> types = new HashMap<>();
+	private final Map<QName, AspectDefinition> aspects = new HashMap<>();
+	private final AtomicInteger dictionaryLookups = new AtomicInteger(0);
+
+	private TypeDefinition document;
+	private AspectDefinition titled;
+	private AspectDefinition authored;
+	private MetadataValidatorCache cache;
+
+	// Alfresco's dictionary interfaces are large, so stub just the methods the validator uses
+	private static <T> T stub(final Class<T> type, final Map<String, Object> answers)
+	{
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				switch (method.getName())
+				{
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "toString":
+						return type.getSimpleName() + answers;
+					default:
+						final Object answer = answers.get(method.getName());
+						return (answer == null && method.getReturnType() == boolean.class) ? Boolean.FALSE : answer;
+				}
+			}
+		}));
+	}
+
+	private static Map<String, Object> answers(Object... namesAndValues)
+	{
+		final Map<String, Object> result = new HashMap<>();
+		for (int i = 0; i < namesAndValues.length; i += 2)
+		{
+			result.put((String) namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return result;
+	}
+
+	private static PropertyDefinition property(QName name, boolean mandatory, boolean enforced, ConstraintDefinition... constraints)
+	{
+		return stub(PropertyDefinition.class, answers("getName", name, "isMandatory", mandatory, "isMandatoryEnforced", enforced, //
+			"getConstraints", Arrays.asList(constraints)));
+	}
+
+	private static Map<QName, PropertyDefinition> properties(PropertyDefinition... properties)
+	{
+		final Map<QName, PropertyDefinition> result = new HashMap<>();
+		for (PropertyDefinition property : properties)
+		{
+			result.put(property.getName(), property);
+		}
+		return result;
+	}
+
+	// Rejects the value "bad"
+	private static ConstraintDefinition constraint(String name)
+	{
+		final Constraint constraint = (Constraint) Proxy.newProxyInstance(Constraint.class.getClassLoader(), new Class<?>[] { Constraint.class },
+			new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if ("evaluate".equals(method.getName()) && "bad".equals(args[0])) throw new ConstraintException("Bad value");
+					return null;
+				}
+			});
+		return stub(ConstraintDefinition.class, answers("getName", QName.createQName(CM, name), "getConstraint", constraint));
+	}
+
+	private static Map<QName, Serializable> metadata(Object... namesAndValues)
+	{
+		final Map<QName, Serializable> result = new HashMap<>();
+		for (int i = 0; i < namesAndValues.length; i += 2)
+		{
+			result.put((QName) namesAndValues[i], (Serializable) namesAndValues[i + 1]);
+		}
+		return result;
+	}
+
+	@Before
+	public void setUp()
+	{
+		final AspectDefinition referenceable = stub(AspectDefinition.class, answers("getName", ASPECT_REFERENCEABLE, //
+			"getProperties", properties(property(PROP_NODE_UUID, true, true))));
+
+		this.document = stub(TypeDefinition.class, answers("getName", TYPE_DOCUMENT, //
+			"getProperties", properties(property(PROP_NAME, true, true, constraint("filename")), //
+				property(PROP_DESCRIPTION, true, false), //
+				property(PROP_CODE, false, false, constraint("code1"), constraint("code2"))), //
+			"getDefaultAspects", Collections.singletonList(referenceable)));
+		this.titled = stub(AspectDefinition.class, answers("getName", ASPECT_TITLED, //
+			"getProperties", properties(property(PROP_TITLE, true, true))));
+		this.authored = stub(AspectDefinition.class, answers("getName", ASPECT_AUTHORED, //
+			"getProperties", properties(property(PROP_AUTHOR, false, false, constraint("author")))));
+
+		this.types.put(TYPE_DOCUMENT, this.document);
+		this.aspects.put(ASPECT_TITLED, this.titled);
+		this.aspects.put(ASPECT_AUTHORED, this.authored);
+
+		final DictionaryService dictionaryService = (DictionaryService) Proxy.newProxyInstance(DictionaryService.class.getClassLoader(),
+			new Class<?>[] { DictionaryService.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					MetadataValidatorTest.this.dictionaryLookups.incrementAndGet();
+					switch (method.getName())
+					{
+						case "getType":
+							return MetadataValidatorTest.this.types.get(args[0]);
+						case "getAspect":
+							return MetadataValidatorTest.this.aspects.get(args[0]);
+						default:
+							return null;
+					}
+				}
+			});
+		final NamespaceService namespaceService = (NamespaceService) Proxy.newProxyInstance(NamespaceService.class.getClassLoader(),
+			new Class<?>[] { NamespaceService.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					return "getNamespaceURI".equals(method.getName()) ? ("sys".equals(args[0]) ? SYS : CM) : null;
+				}
+			});
+		final ServiceRegistry serviceRegistry = stub(ServiceRegistry.class, answers("getDictionaryService", dictionaryService, //
+			"getNamespaceService", namespaceService));
+
+		this.cache = new MetadataValidatorCache(new DictionarySymbolTable(serviceRegistry));
+	}
+
+	@Test
+	public void testValidMetadata()
+	{
+		final MetadataValidator validator = new MetadataValidator(this.document, Arrays.asList(this.titled, this.authored));
+		Assert.assertEquals(Collections.emptyList(),
+			validator.validate(metadata(PROP_NAME, "file.txt", PROP_TITLE, "A title", PROP_CODE, "good", PROP_AUTHOR, "Someone")));
+	}
+
+	@Test
+	public void testMissingMandatoryProperties()
+	{
+		final MetadataValidator validator = new MetadataValidator(this.document, Arrays.asList(this.titled));
+
+		// Includes properties with null values, but not mandatory properties that aren't enforced, or system properties
+		final List<String> faults = validator.validate(metadata(PROP_TITLE, null, PROP_CODE, "good"));
+		Collections.sort(faults);
+		Assert.assertEquals(Arrays.asList("Missing mandatory property [" + PROP_NAME + "]", "Missing mandatory property [" + PROP_TITLE + "]"), faults);
+	}
+
+	@Test
+	public void testConstraintViolations()
+	{
+		final MetadataValidator validator = new MetadataValidator(this.document, Arrays.asList(this.authored));
+
+		// Every constraint on the property is evaluated
+		final List<String> faults = validator.validate(metadata(PROP_NAME, "file.txt", PROP_CODE, "bad", PROP_AUTHOR, "bad"));
+		Collections.sort(faults);
+		Assert.assertEquals(Arrays.asList( //
+			"Constraint [" + QName.createQName(CM, "author") + "] violation on property [" + PROP_AUTHOR + "]", //
+			"Constraint [" + QName.createQName(CM, "code1") + "] violation on property [" + PROP_CODE + "]", //
+			"Constraint [" + QName.createQName(CM, "code2") + "] violation on property [" + PROP_CODE + "]"), faults);
+
+		// Null values are never rejected by constraints
+		Assert.assertEquals(Collections.emptyList(), validator.validate(metadata(PROP_NAME, "file.txt", PROP_CODE, null)));
+	}
+
+	@Test
+	public void testPropertiesOutsideTheCombinationAreIgnored()
+	{
+		// Neither cm:titled's mandatory property, nor cm:authored's constraint, apply to a cm:document without those aspects
+		final MetadataValidator validator = new MetadataValidator(this.document, Collections.<AspectDefinition> emptyList());
+		Assert.assertEquals(Collections.emptyList(), validator.validate(metadata(PROP_NAME, "file.txt", PROP_AUTHOR, "bad")));
+	}
+
+	@Test
+	public void testMissingType()
+	{
+		final List<String> faults = new ArrayList<>();
+		Assert.assertNull(this.cache.getValidator("cm:missing", Arrays.asList("cm:titled", "cm:undefined"), faults));
+
+		// The aspects aren't checked
+		Assert.assertEquals(Arrays.asList("Missing Type [cm:missing]"), faults);
+	}
+
+	@Test
+	public void testNoType()
+	{
+		// Only the aspects' properties are validated
+		final List<String> faults = new ArrayList<>();
+		final MetadataValidator validator = this.cache.getValidator(null, Arrays.asList("cm:titled"), faults);
+		Assert.assertNotNull(validator);
+		Assert.assertTrue(faults.isEmpty());
+		Assert.assertEquals(Arrays.asList("Missing mandatory property [" + PROP_TITLE + "]"), validator.validate(metadata(PROP_CODE, "bad")));
+	}
+
+	@Test
+	public void testUndefinedAspects()
+	{
+		final List<String> faults = new ArrayList<>();
+		Assert.assertNull(this.cache.getValidator("cm:document", Arrays.asList("cm:undefined1", "cm:titled", "cm:undefined2"), faults));
+		Assert.assertEquals(Arrays.asList("Missing Aspect [cm:undefined1]", "Missing Aspect [cm:undefined2]"), faults);
+	}
+
+	@Test
+	public void testCacheHit()
+	{
+		final List<String> faults = new ArrayList<>();
+		final MetadataValidator validator = this.cache.getValidator("cm:document", Arrays.asList("cm:titled", "cm:authored"), faults);
+		Assert.assertNotNull(validator);
+		final int lookups = this.dictionaryLookups.get();
+
+		// The same combination (in any order, and however it's named) gets the same validator, without going back to the dictionary
+		Assert.assertSame(validator, this.cache.getValidator("cm:document", Arrays.asList("cm:authored", "cm:titled"), faults));
+		Assert.assertSame(validator, this.cache.getValidator("{" + CM + "}document", Arrays.asList("cm:titled", "cm:authored", "cm:titled"), faults));
+		Assert.assertTrue(faults.isEmpty());
+		Assert.assertEquals(lookups, this.dictionaryLookups.get());
+
+		// Different combinations don't
+		final MetadataValidator other = this.cache.getValidator("cm:document", Arrays.asList("cm:titled"), faults);
+		Assert.assertNotSame(validator, other);
+		Assert.assertNotSame(other, this.cache.getValidator(null, Arrays.asList("cm:titled"), faults));
+
+		// Nor does anything after the cache has been cleared
+		this.cache.clear();
+		Assert.assertNotSame(validator, this.cache.getValidator("cm:document", Arrays.asList("cm:titled", "cm:authored"), faults));
+	}
+}
@@ -0,0 +1,111 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.NavigableSet;
+
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportItemVersion;
+
+/**
+ * A bare item, for tests that only care about where the item goes in the target.
+ */
+class TestBulkImportItem implements BulkImportItem<BulkImportItemVersion>
+{
+	private final String parentPath;
+	private final String name;
+	private final boolean directory;
+
+	TestBulkImportItem(String parentPath, String name, boolean directory)
+	{
+		this.parentPath = parentPath;
+		this.name = name;
+		this.directory = directory;
+	}
+
+	static TestBulkImportItem folder(String parentPath, String name)
+	{
+		return new TestBulkImportItem(parentPath, name, true);
+	}
+
+	static TestBulkImportItem file(String parentPath, String name)
+	{
+		return new TestBulkImportItem(parentPath, name, false);
+	}
+
+	@Override
+	public String getSourceRelativePathOfParent()
+	{
+		return this.parentPath;
+	}
+
+	@Override
+	public String getSourceName()
+	{
+		return this.name;
+	}
+
+	@Override
+	public String getTargetRelativePathOfParent()
+	{
+		return this.parentPath;
+	}
+
+	@Override
+	public String getTargetName()
+	{
+		return this.name;
+	}
+
+	@Override
+	public String getParentAssoc()
+	{
+		return null;
+	}
+
+	@Override
+	public String getNamespace()
+	{
+		return null;
+	}
+
+	@Override
+	public boolean isDirectory()
+	{
+		return this.directory;
+	}
+
+	@Override
+	public long sizeInBytes()
+	{
+		return 0;
+	}
+
+	@Override
+	public int numberOfVersions()
+	{
+		return 1;
+	}
+
+	@Override
+	public int numberOfAspects()
+	{
+		return 0;
+	}
+
+	@Override
+	public int numberOfMetadataProperties()
+	{
+		return 0;
+	}
+
+	@Override
+	public NavigableSet<BulkImportItemVersion> getVersions()
+	{
+		return null;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (this.parentPath == null || this.parentPath.isEmpty() ? "" : this.parentPath + "/") + this.name;
+	}
+}
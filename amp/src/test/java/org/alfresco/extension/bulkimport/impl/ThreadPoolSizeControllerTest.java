@@ -0,0 +1,233 @@
+package org.alfresco.extension.bulkimport.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.extension.bulkimport.BulkImportThreadPoolSizeChange;
+import org.alfresco.extension.bulkimport.util.ThreadPauser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadPoolSizeControllerTest
+{
+	private static final long INTERVAL_MS = 1000;
+
+	private final List<BulkImportThreadPoolExecutor> threadPools = new ArrayList<>();
+
+	private BulkImportThreadPoolExecutor threadPool(int size, int min, int max, long tuningIntervalInMs)
+	{
+		final BulkImportThreadPoolExecutor result = new BulkImportThreadPoolExecutor(new ThreadPauser(), size, 10, 1, TimeUnit.MINUTES, min, max, tuningIntervalInMs);
+		this.threadPools.add(result);
+		return result;
+	}
+
+	private static long s(double seconds)
+	{
+		return (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private static BulkImportThreadPoolSizeChange lastChange(BulkImportStatusImpl status)
+	{
+		BulkImportThreadPoolSizeChange result = null;
+		for (BulkImportThreadPoolSizeChange change : status.getThreadPoolSizeHistory())
+		{
+			result = change;
+		}
+		return result;
+	}
+
+	@After
+	public void tearDown()
+	{
+		for (BulkImportThreadPoolExecutor threadPool : this.threadPools)
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDisabled()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BulkImportThreadPoolExecutor threadPool = threadPool(8, 1, 64, 0);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(status, threadPool);
+		Assert.assertFalse(controller.isEnabled());
+
+		controller.started(0);
+		controller.batchCompleted(100, 1, s(10));
+		controller.batchCompleted(100, 3, s(20));
+		Assert.assertEquals(8, threadPool.getCorePoolSize());
+		Assert.assertTrue(status.getThreadPoolSizeHistory().isEmpty());
+	}
+
+	@Test
+	public void testIgnoredUntilStarted()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BulkImportThreadPoolExecutor threadPool = threadPool(8, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(status, threadPool);
+		Assert.assertTrue(controller.isEnabled());
+
+		controller.batchCompleted(100, 1, s(10));
+		Assert.assertEquals(8, threadPool.getCorePoolSize());
+		Assert.assertTrue(status.getThreadPoolSizeHistory().isEmpty());
+
+		controller.started(s(10));
+		Assert.assertEquals(1, status.getThreadPoolSizeHistory().size());
+		Assert.assertEquals(8, lastChange(status).getThreadPoolSize());
+	}
+
+	@Test
+	public void testNotTunedWithinInterval()
+	{
+		final BulkImportThreadPoolExecutor threadPool = threadPool(8, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(new BulkImportStatusImpl(), threadPool);
+		controller.started(0);
+		controller.batchCompleted(100, 1, s(0.5));
+		controller.batchCompleted(100, 1, s(0.9));
+		Assert.assertEquals(8, threadPool.getCorePoolSize());
+	}
+
+	@Test
+	public void testGrowsWhileThroughputHolds()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BulkImportThreadPoolExecutor threadPool = threadPool(16, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(status, threadPool);
+		controller.started(0);
+
+		// Steps are 1/8th of the pool size
+		controller.batchCompleted(100, 1, s(1));
+		Assert.assertEquals(18, threadPool.getCorePoolSize());
+		Assert.assertEquals("Exploring", lastChange(status).getReason());
+		Assert.assertEquals(100.0f, lastChange(status).getItemsPerSecond(), 0.001f);
+
+		// Within the tolerance
+		controller.batchCompleted(97, 1, s(2));
+		Assert.assertEquals(20, threadPool.getCorePoolSize());
+		Assert.assertEquals("Throughput held", lastChange(status).getReason());
+	}
+
+	@Test
+	public void testReversesWhenThroughputDrops()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BulkImportThreadPoolExecutor threadPool = threadPool(16, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(status, threadPool);
+		controller.started(0);
+
+		controller.batchCompleted(100, 1, s(1));
+		Assert.assertEquals(18, threadPool.getCorePoolSize());
+		controller.batchCompleted(50, 1, s(2));
+		Assert.assertEquals(16, threadPool.getCorePoolSize());
+		Assert.assertEquals("Throughput dropped", lastChange(status).getReason());
+
+		// ...and keeps going that way while throughput holds
+		controller.batchCompleted(50, 1, s(3));
+		Assert.assertEquals(14, threadPool.getCorePoolSize());
+	}
+
+	@Test
+	public void testThroughputIsMeasuredInItems()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BulkImportThreadPoolExecutor threadPool = threadPool(16, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(status, threadPool);
+		controller.started(0);
+
+		// One big batch
+		controller.batchCompleted(100, 1, s(1));
+		Assert.assertEquals(18, threadPool.getCorePoolSize());
+
+		// The same number of items in ten times as many (smaller) batches isn't a change in throughput
+		for (int i = 1; i <= 10; i++)
+		{
+			controller.batchCompleted(10, 1, s(1 + i * 0.1));
+		}
+		Assert.assertEquals(20, threadPool.getCorePoolSize());
+		Assert.assertEquals("Throughput held", lastChange(status).getReason());
+		Assert.assertEquals(100.0f, lastChange(status).getItemsPerSecond(), 0.001f);
+
+		// Whereas fewer items in more batches is a drop
+		for (int i = 1; i <= 20; i++)
+		{
+			controller.batchCompleted(2, 1, s(2 + i * 0.05));
+		}
+		Assert.assertEquals(18, threadPool.getCorePoolSize());
+		Assert.assertEquals("Throughput dropped", lastChange(status).getReason());
+	}
+
+	@Test
+	public void testShrinksWhenBatchesAreRetried()
+	{
+		final BulkImportStatusImpl status = new BulkImportStatusImpl();
+		final BulkImportThreadPoolExecutor threadPool = threadPool(16, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(status, threadPool);
+		controller.started(0);
+
+		// Even though throughput is fine
+		controller.batchCompleted(100, 1, s(0.5));
+		controller.batchCompleted(100, 2, s(1));
+		Assert.assertEquals(12, threadPool.getCorePoolSize());
+		Assert.assertEquals("1 batch retried", lastChange(status).getReason());
+
+		// Small pools still shrink
+		final BulkImportThreadPoolExecutor smallThreadPool = threadPool(2, 1, 64, INTERVAL_MS);
+		final ThreadPoolSizeController smallController = new ThreadPoolSizeController(new BulkImportStatusImpl(), smallThreadPool);
+		smallController.started(0);
+		smallController.batchCompleted(100, 3, s(1));
+		Assert.assertEquals(1, smallThreadPool.getCorePoolSize());
+	}
+
+	@Test
+	public void testSizeIsClamped()
+	{
+		final BulkImportThreadPoolExecutor threadPool = threadPool(4, 3, 5, INTERVAL_MS);
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(new BulkImportStatusImpl(), threadPool);
+		controller.started(0);
+
+		controller.batchCompleted(100, 1, s(1));
+		Assert.assertEquals(5, threadPool.getCorePoolSize());
+
+		// Pinned at the maximum, so it probes downwards next time
+		controller.batchCompleted(100, 1, s(2));
+		Assert.assertEquals(5, threadPool.getCorePoolSize());
+		controller.batchCompleted(100, 1, s(3));
+		Assert.assertEquals(4, threadPool.getCorePoolSize());
+
+		controller.batchCompleted(100, 5, s(4));
+		Assert.assertEquals(3, threadPool.getCorePoolSize());
+		controller.batchCompleted(100, 5, s(5));
+		Assert.assertEquals(3, threadPool.getCorePoolSize());
+	}
+
+	@Test
+	public void testDefaultBoundsIncludeTheConfiguredSize()
+	{
+		// Defaults are derived from the configured size, not the number of CPU cores
+		BulkImportThreadPoolExecutor threadPool = threadPool(1, 0, 0, INTERVAL_MS);
+		Assert.assertEquals(1, threadPool.getMinThreadPoolSize());
+		Assert.assertEquals(2, threadPool.getMaxThreadPoolSize());
+
+		threadPool = threadPool(6, -1, -1, INTERVAL_MS);
+		Assert.assertEquals(3, threadPool.getMinThreadPoolSize());
+		Assert.assertEquals(12, threadPool.getMaxThreadPoolSize());
+
+		// Explicit bounds are widened to include the configured size
+		threadPool = threadPool(6, 8, 4, INTERVAL_MS);
+		Assert.assertEquals(6, threadPool.getMinThreadPoolSize());
+		Assert.assertEquals(6, threadPool.getMaxThreadPoolSize());
+
+		threadPool = threadPool(6, 2, 10, INTERVAL_MS);
+		Assert.assertEquals(2, threadPool.getMinThreadPoolSize());
+		Assert.assertEquals(10, threadPool.getMaxThreadPoolSize());
+
+		// So the first tuning step starts from the configured size
+		final ThreadPoolSizeController controller = new ThreadPoolSizeController(new BulkImportStatusImpl(), threadPool(1, 0, 0, INTERVAL_MS));
+		controller.started(0);
+		controller.batchCompleted(100, 1, s(1));
+		Assert.assertEquals(2, this.threadPools.get(this.threadPools.size() - 1).getCorePoolSize());
+	}
+}
@@ -0,0 +1,111 @@
+package org.alfresco.extension.bulkimport.source.fs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathTranslationTrieTest
+{
+	private PathTranslationTrie trie;
+
+	// The (source relative path, source name) pairs the resolver was asked about
+	private List<List<String>> resolved;
+
+	private PathTranslationTrie.TargetNameResolver resolver;
+
+	private static List<String> path(String... elements)
+	{
+		return Arrays.asList(elements);
+	}
+
+	@Before
+	public void setUp()
+	{
+		this.trie = new PathTranslationTrie();
+		this.resolved = new ArrayList<>();
+		this.resolver = new PathTranslationTrie.TargetNameResolver()
+		{
+			@Override
+			public String resolve(String sourceRelativePath, String sourceName)
+			{
+				PathTranslationTrieTest.this.resolved.add(path(sourceRelativePath, sourceName));
+				return "resolved-" + sourceName;
+			}
+		};
+	}
+
+	@Test
+	public void testEmptyPathIsTheRoot()
+	{
+		Assert.assertEquals("", this.trie.translate(Collections.<String>emptyList(), this.resolver));
+		Assert.assertTrue(this.resolved.isEmpty());
+	}
+
+	@Test
+	public void testRegisteredDirectoriesAreTranslated()
+	{
+		this.trie.register(Collections.<String>emptyList(), "a", "Target A");
+		this.trie.register(path("a"), "b", "Target B");
+		this.trie.register(path("a", "b"), "c", "Target C");
+
+		Assert.assertEquals("Target A", this.trie.translate(path("a"), this.resolver));
+		Assert.assertEquals("Target A/Target B/Target C", this.trie.translate(path("a", "b", "c"), this.resolver));
+		Assert.assertTrue(this.resolved.isEmpty());
+	}
+
+	@Test
+	public void testSiblingsAreDistinct()
+	{
+		this.trie.register(Collections.<String>emptyList(), "a", "Target A");
+		this.trie.register(path("a"), "b", "First B");
+		this.trie.register(Collections.<String>emptyList(), "x", "Target X");
+		this.trie.register(path("x"), "b", "Second B");
+
+		Assert.assertEquals("Target A/First B", this.trie.translate(path("a", "b"), this.resolver));
+		Assert.assertEquals("Target X/Second B", this.trie.translate(path("x", "b"), this.resolver));
+	}
+
+	@Test
+	public void testReregistrationReplacesTheTargetName()
+	{
+		this.trie.register(Collections.<String>emptyList(), "a", "Old");
+		this.trie.register(Collections.<String>emptyList(), "a", "New");
+
+		Assert.assertEquals("New", this.trie.translate(path("a"), this.resolver));
+	}
+
+	@Test
+	public void testUnregisteredDirectoriesAreResolved()
+	{
+		this.trie.register(Collections.<String>emptyList(), "a", "Target A");
+
+		// Only the missing directories are resolved, with their source relative paths
+		Assert.assertEquals("Target A/resolved-b/resolved-c", this.trie.translate(path("a", "b", "c"), this.resolver));
+		Assert.assertEquals(Arrays.asList(path("a/b", "b"), path("a/b/c", "c")), this.resolved);
+	}
+
+	@Test
+	public void testResolutionsAreRemembered()
+	{
+		Assert.assertEquals("resolved-a/resolved-b", this.trie.translate(path("a", "b"), this.resolver));
+		Assert.assertEquals("resolved-a/resolved-b", this.trie.translate(path("a", "b"), this.resolver));
+		Assert.assertEquals("resolved-a", this.trie.translate(path("a"), this.resolver));
+		Assert.assertEquals(2, this.resolved.size());
+	}
+
+	@Test
+	public void testRegistrationOverridesResolution()
+	{
+		Assert.assertEquals("resolved-a", this.trie.translate(path("a"), this.resolver));
+
+		this.trie.register(Collections.<String>emptyList(), "a", "Target A");
+
+		Assert.assertEquals("Target A", this.trie.translate(path("a"), this.resolver));
+		Assert.assertEquals(1, this.resolved.size());
+	}
+}
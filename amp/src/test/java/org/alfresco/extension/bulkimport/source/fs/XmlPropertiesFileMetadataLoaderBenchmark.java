@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport.source.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * JMH benchmark comparing the streaming properties reader used by
+ * <code>XmlPropertiesFileMetadataLoader</code> with the
+ * <code>java.util.Properties.loadFromXML</code> approach it replaced, over
+ * the sample metadata files in the <code>test/data</code> directory.
+ *
+ * The files are read into memory up front, so that only parsing is measured.
+ * This isn't run as part of the build - run it with <code>main</code> (from the
+ * <code>amp</code> directory, or set the <code>bulkimport.test.data</code>
+ * system property to the location of the sample data).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class XmlPropertiesFileMetadataLoaderBenchmark
+{
+    private final static String TEST_DATA_PROPERTY   = "bulkimport.test.data";
+    private final static String DEFAULT_TEST_DATA    = "../test/data";
+    private final static String METADATA_FILE_SUFFIX = ".metadata.properties.xml";
+
+    private List<byte[]> metadataFiles;
+
+
+    @Setup
+    public void setup()
+        throws Exception
+    {
+        final File testData = new File(System.getProperty(TEST_DATA_PROPERTY, DEFAULT_TEST_DATA));
+
+        if (!testData.isDirectory()) throw new IllegalStateException("Sample data directory " + testData.getAbsolutePath() + " does not exist.");
+
+        metadataFiles = new ArrayList<>();
+        collectMetadataFiles(testData, metadataFiles);
+
+        if (metadataFiles.isEmpty()) throw new IllegalStateException("No valid metadata files found in " + testData.getAbsolutePath() + ".");
+
+        // Make sure we're comparing like with like
+        for (final byte[] metadataFile : metadataFiles)
+        {
+            if (!loadFromXml(metadataFile).equals(XmlPropertiesFileMetadataLoader.readProperties(new ByteArrayInputStream(metadataFile))))
+            {
+                throw new IllegalStateException("Streaming reader disagrees with Properties.loadFromXML for:\n" + new String(metadataFile, "UTF-8"));
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void propertiesLoadFromXml(final Blackhole blackhole)
+        throws Exception
+    {
+        for (final byte[] metadataFile : metadataFiles)
+        {
+            blackhole.consume(loadFromXml(metadataFile));
+        }
+    }
+
+
+    @Benchmark
+    public void streamingReader(final Blackhole blackhole)
+        throws Exception
+    {
+        for (final byte[] metadataFile : metadataFiles)
+        {
+            blackhole.consume(XmlPropertiesFileMetadataLoader.readProperties(new ByteArrayInputStream(metadataFile)));
+        }
+    }
+
+
+    public static void main(final String[] args)
+        throws Exception
+    {
+        final Options options = new OptionsBuilder().include(XmlPropertiesFileMetadataLoaderBenchmark.class.getSimpleName())
+                                                    .build();
+
+        new Runner(options).run();
+    }
+
+
+    // This is what XmlPropertiesFileMetadataLoader used to do
+    private static Map<String, Serializable> loadFromXml(final byte[] metadataFile)
+        throws IOException
+    {
+        final Properties props = new Properties();
+
+        props.loadFromXML(new ByteArrayInputStream(metadataFile));
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Map<String, Serializable> properties = (Map)props;
+
+        return(new HashMap<>(properties));
+    }
+
+
+    private static void collectMetadataFiles(final File directory, final List<byte[]> result)
+        throws IOException
+    {
+        final File[] children = directory.listFiles();
+
+        if (children != null)
+        {
+            for (final File child : children)
+            {
+                if (child.isDirectory())
+                {
+                    collectMetadataFiles(child, result);
+                }
+                else if (child.getName().endsWith(METADATA_FILE_SUFFIX))
+                {
+                    final byte[] contents = Files.readAllBytes(child.toPath());
+
+                    try
+                    {
+                        loadFromXml(contents);
+                        result.add(contents);
+                    }
+                    catch (final IOException ioe)
+                    {
+                        // Deliberately malformed sample (e.g. from the failure tests) - skip it
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package org.alfresco.extension.bulkimport.source.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XmlPropertiesFileMetadataLoaderTest
+{
+	private static final String PROLOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	private static final String DOCTYPE = "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n";
+
+	private static Map<String, Serializable> read(String xml) throws XMLStreamException
+	{
+		return XmlPropertiesFileMetadataLoader.readProperties(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	// This is what XmlPropertiesFileMetadataLoader used to do
+	private static Map<String, Serializable> loadFromXml(String xml) throws Exception
+	{
+		final Properties props = new Properties();
+		props.loadFromXML(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		final Map<String, Serializable> result = new HashMap<>();
+		for (String key : props.stringPropertyNames())
+		{
+			result.put(key, props.getProperty(key));
+		}
+		return result;
+	}
+
+	private static void assertSameAsLoadFromXml(String xml) throws Exception
+	{
+		Assert.assertEquals(loadFromXml(xml), read(xml));
+	}
+
+	private static void assertRejected(String xml)
+	{
+		try
+		{
+			read(xml);
+			Assert.fail("Should have been rejected:\n" + xml);
+		}
+		catch (XMLStreamException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testEntries() throws Exception
+	{
+		final String xml = PROLOG + DOCTYPE + //
+			"<properties>\n" + //
+			"  <entry key=\"type\">cm:content</entry>\n" + //
+			"  <entry key=\"aspects\">cm:versionable, cm:titled</entry>\n" + //
+			"  <entry key=\"cm:title\">A title</entry>\n" + //
+			"  <entry key=\"cm:description\"></entry>\n" + //
+			"  <entry key=\"cm:author\"/>\n" + //
+			"</properties>\n";
+
+		final Map<String, Serializable> result = read(xml);
+		Assert.assertEquals(5, result.size());
+		Assert.assertEquals("cm:content", result.get("type"));
+		Assert.assertEquals("cm:versionable, cm:titled", result.get("aspects"));
+		Assert.assertEquals("A title", result.get("cm:title"));
+		Assert.assertEquals("", result.get("cm:description"));
+		Assert.assertEquals("", result.get("cm:author"));
+		assertSameAsLoadFromXml(xml);
+	}
+
+	@Test
+	public void testDoctypeIsOptional() throws Exception
+	{
+		final Map<String, Serializable> result = read(PROLOG + "<properties><entry key=\"cm:title\">A title</entry></properties>");
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("A title", result.get("cm:title"));
+	}
+
+	@Test
+	public void testComments() throws Exception
+	{
+		final String xml = PROLOG + DOCTYPE + //
+			"<!-- Before the root element -->\n" + //
+			"<properties>\n" + //
+			"  <comment>Metadata for IMG_1967.jpg</comment>\n" + //
+			"  <!-- <entry key=\"commented\">out</entry> -->\n" + //
+			"  <entry key=\"cm:title\">A <!-- split --> title</entry>\n" + //
+			"</properties>\n";
+
+		final Map<String, Serializable> result = read(xml);
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("A  title", result.get("cm:title"));
+		Assert.assertFalse(result.containsKey("comment"));
+		assertSameAsLoadFromXml(xml);
+	}
+
+	@Test
+	public void testEscapedContent() throws Exception
+	{
+		final String xml = PROLOG + DOCTYPE + //
+			"<properties>\n" + //
+			"  <entry key=\"cm:title\">Fish &amp; chips &lt;&gt; &quot;&apos;</entry>\n" + //
+			"  <entry key=\"cm:description\"><![CDATA[<b>Bold</b> & more]]> and after</entry>\n" + //
+			"  <entry key=\"cm:name\">caf&#233; &#x263A; \u00fcber</entry>\n" + //
+			"  <entry key=\"a &amp; b\">multi\n  line\n</entry>\n" + //
+			"</properties>\n";
+
+		final Map<String, Serializable> result = read(xml);
+		Assert.assertEquals(4, result.size());
+		Assert.assertEquals("Fish & chips <> \"'", result.get("cm:title"));
+		Assert.assertEquals("<b>Bold</b> & more and after", result.get("cm:description"));
+		Assert.assertEquals("caf\u00e9 \u263a \u00fcber", result.get("cm:name"));
+		Assert.assertEquals("multi\n  line\n", result.get("a & b"));
+		assertSameAsLoadFromXml(xml);
+	}
+
+	@Test
+	public void testSampleData() throws Exception
+	{
+		// The sample metadata files in test/data, if they're available (they're outside the amp project)
+		final File testData = new File("../test/data");
+		if (!testData.isDirectory()) return;
+
+		int compared = 0;
+		for (File file : FileUtils.listFiles(testData, new String[] { "xml" }, true))
+		{
+			if (!file.getName().endsWith(".metadata.properties.xml")) continue;
+			final String xml = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			final Map<String, Serializable> expected;
+			try
+			{
+				expected = loadFromXml(xml);
+			}
+			catch (Exception e)
+			{
+				// Deliberately malformed sample (e.g. from the failure tests) - skip it
+				continue;
+			}
+			Assert.assertEquals(file.getPath(), expected, read(xml));
+			compared++;
+		}
+		Assert.assertTrue(compared > 0);
+	}
+
+	@Test
+	public void testMalformedDocuments()
+	{
+		assertRejected(PROLOG + "<notProperties><entry key=\"cm:title\">A title</entry></notProperties>");
+		assertRejected(PROLOG + "<properties><entry>No key</entry></properties>");
+		assertRejected(PROLOG + "<properties><entry key=\"cm:title\">Unclosed</properties>");
+		assertRejected(PROLOG + "<properties><entry key=\"cm:title\"><b>Nested</b></entry></properties>");
+		assertRejected("");
+	}
+
+	@Test
+	public void testExternalEntitiesAreRejected() throws Exception
+	{
+		final File secret = File.createTempFile("secret", ".txt");
+
+		try
+		{
+			FileUtils.writeStringToFile(secret, "TOP SECRET", StandardCharsets.UTF_8);
+
+			// DTD processing is disabled, so the entity is never declared, let alone resolved
+			assertRejected(PROLOG + //
+				"<!DOCTYPE properties [<!ENTITY xxe SYSTEM \"" + secret.toURI() + "\">]>\n" + //
+				"<properties><entry key=\"cm:title\">&xxe;</entry></properties>");
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(secret);
+		}
+	}
+
+	@Test
+	public void testInternalEntitiesAreRejected()
+	{
+		// Likewise for entities declared in the internal subset (no "billion laughs")
+		assertRejected(PROLOG + //
+			"<!DOCTYPE properties [<!ENTITY lol \"lol\"><!ENTITY lol2 \"&lol;&lol;&lol;&lol;&lol;\">]>\n" + //
+			"<properties><entry key=\"cm:title\">&lol2;</entry></properties>");
+	}
+}
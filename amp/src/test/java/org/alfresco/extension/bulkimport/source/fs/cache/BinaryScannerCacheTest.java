@@ -0,0 +1,189 @@
+package org.alfresco.extension.bulkimport.source.fs.cache;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.extension.bulkimport.BulkImportCallback;
+import org.alfresco.extension.bulkimport.impl.BulkImportStatusImpl;
+import org.alfresco.extension.bulkimport.source.BulkImportItem;
+import org.alfresco.extension.bulkimport.source.BulkImportSourceStatus;
+import org.alfresco.extension.bulkimport.source.fs.DirectoryAnalyser;
+import org.alfresco.extension.bulkimport.source.fs.ScannerCache;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryScannerCacheTest
+{
+	private static void test(final boolean expectedIsDirectory) throws Exception
+	{
+		URL url = Thread.currentThread().getContextClassLoader().getResource("test.xml");
+		final File resources = new File(url.toURI()).getCanonicalFile().getParentFile();
+		final File bd = Files.createTempDirectory("binary-scanner-cache").toFile().getCanonicalFile();
+
+		try
+		{
+			final String xmlName = (expectedIsDirectory ? "scan.folders.xml" : "scan.files.xml");
+			final String binaryName = (expectedIsDirectory ? "scan.folders.bin" : "scan.files.bin");
+			final long converted = BinaryScannerCache.convert(new File(resources, xmlName), new File(bd, binaryName));
+			Assert.assertTrue(converted > 0);
+
+			final BulkImportSourceStatus status = new BulkImportStatusImpl();
+			final BulkImportCallback expectedCallback = new BulkImportCallback()
+			{
+				@Override
+				public void submit(@SuppressWarnings("rawtypes") BulkImportItem item) throws InterruptedException
+				{
+					Assert.fail("process() should have been called instead");
+				}
+			};
+
+			final AtomicLong items = new AtomicLong(0);
+			final AtomicLong actual = new AtomicLong(0);
+			final BinaryScannerCache cache = new BinaryScannerCache(null, null, null, null)
+			{
+				@Override
+				protected void process(File baseDirectory, CacheItem cacheItem, BulkImportCallback callback)
+					throws InterruptedException
+				{
+					Assert.assertEquals(bd, baseDirectory);
+					Assert.assertSame(expectedCallback, callback);
+					Assert.assertNotNull(cacheItem);
+					Assert.assertEquals(expectedIsDirectory, cacheItem.directory);
+					// The old XML format gets converted on the way in
+					Assert.assertEquals("name", cacheItem.targetName);
+					Assert.assertEquals("fsRelativePathInTheFS", cacheItem.sourcePath);
+					Assert.assertEquals("relativePathOnTheCMS", cacheItem.targetPath);
+					Assert.assertEquals(1, cacheItem.versions.size());
+					Assert.assertEquals("contentFile", cacheItem.versions.get(0).getContent());
+					Assert.assertEquals("metadataFile", cacheItem.versions.get(0).getMetadata());
+					Assert.assertEquals(0, cacheItem.versions.get(0).getNumber().compareTo(BigDecimal.ONE));
+					items.incrementAndGet();
+					for (CacheItemVersion v : cacheItem.versions)
+					{
+						if (v.content != null) actual.incrementAndGet();
+					}
+				}
+			};
+
+			final boolean result = (expectedIsDirectory ? cache.scanFolders(bd, expectedCallback, status) : cache.scanFiles(bd, expectedCallback, status));
+			Assert.assertTrue(result);
+			Assert.assertTrue(items.get() > 0);
+
+			// Items of the wrong kind are counted as unreadable, as they are by the XML cache
+			Assert.assertEquals(converted - items.get(), status.getSourceCounter(DirectoryAnalyser.COUNTER_NAME_UNREADABLE_ENTRIES).longValue());
+
+			String counterName = (expectedIsDirectory ? DirectoryAnalyser.COUNTER_NAME_DIRECTORIES_SCANNED : DirectoryAnalyser.COUNTER_NAME_FILES_SCANNED);
+			Assert.assertEquals(actual.get(), status.getSourceCounter(counterName).longValue());
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(bd);
+		}
+	}
+
+	@Test
+	public void testScanFiles() throws Exception
+	{
+		test(false);
+	}
+
+	@Test
+	public void testScanFolders() throws Exception
+	{
+		test(true);
+	}
+
+	@Test
+	public void testParallelReplay() throws Exception
+	{
+		final File bd = Files.createTempDirectory("binary-scanner-cache").toFile().getCanonicalFile();
+		final int itemCount = 10000;
+
+		try
+		{
+			try (BinaryScannerCacheWriter writer = new BinaryScannerCacheWriter(new File(bd, "scan.files.bin"), 97))
+			{
+				for (int i = 0; i < itemCount; i++)
+				{
+					final CacheItem item = new CacheItem();
+					item.directory = false;
+					item.sourceName = "file" + i;
+					item.targetName = "file" + i;
+					item.sourcePath = "dir" + (i % 13);
+					item.targetPath = "dir" + (i % 13);
+					final CacheItemVersion v = new CacheItemVersion();
+					v.setNumber(BigDecimal.ONE);
+					v.content = item.sourcePath + "/" + item.sourceName;
+					item.versions = new ArrayList<>();
+					item.versions.add(v);
+					writer.write(item);
+				}
+				Assert.assertTrue(writer.getChunks() > 1);
+			}
+
+			final Set<String> replayed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			final BulkImportSourceStatus status = new BulkImportStatusImpl();
+			final BinaryScannerCache cache = new BinaryScannerCache(null, null, null, null, 4, false)
+			{
+				@Override
+				protected void process(File baseDirectory, CacheItem cacheItem, BulkImportCallback callback)
+				{
+					Assert.assertEquals(cacheItem.sourcePath + "/" + cacheItem.sourceName, cacheItem.versions.get(0).getContent());
+					Assert.assertTrue("Item replayed twice: " + cacheItem, replayed.add(cacheItem.sourceName));
+				}
+			};
+
+			Assert.assertTrue(cache.scanFiles(bd, null, status));
+			Assert.assertEquals(itemCount, replayed.size());
+			Assert.assertEquals(itemCount, status.getSourceCounter(DirectoryAnalyser.COUNTER_NAME_FILES_SCANNED).longValue());
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(bd);
+		}
+	}
+
+	@Test
+	public void testFallback() throws Exception
+	{
+		final File bd = Files.createTempDirectory("binary-scanner-cache").toFile();
+		final AtomicLong delegated = new AtomicLong(0);
+
+		try
+		{
+			final BinaryScannerCache cache = new BinaryScannerCache(null, null, null, new ScannerCache()
+			{
+				@Override
+				public boolean scanFiles(File baseDir, BulkImportCallback callback, BulkImportSourceStatus importStatus)
+				{
+					delegated.incrementAndGet();
+					return true;
+				}
+
+				@Override
+				public boolean scanFolders(File baseDir, BulkImportCallback callback, BulkImportSourceStatus importStatus)
+				{
+					delegated.incrementAndGet();
+					return false;
+				}
+			});
+
+			Assert.assertTrue(cache.scanFiles(bd, null, new BulkImportStatusImpl()));
+			Assert.assertFalse(cache.scanFolders(bd, null, new BulkImportStatusImpl()));
+			Assert.assertEquals(2, delegated.get());
+			Assert.assertFalse(new BinaryScannerCache(null, null, null, null).scanFiles(bd, null, new BulkImportStatusImpl()));
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(bd);
+		}
+	}
+}
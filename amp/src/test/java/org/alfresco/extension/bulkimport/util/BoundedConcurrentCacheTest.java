@@ -0,0 +1,259 @@
+package org.alfresco.extension.bulkimport.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.concurrent.ConcurrentException;
+import org.apache.commons.lang3.concurrent.ConcurrentInitializer;
+import org.apache.commons.lang3.concurrent.ConcurrentRuntimeException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedConcurrentCacheTest
+{
+	private static class RecordingCache extends BoundedConcurrentCache<String, String>
+	{
+		private final List<String> evicted = new ArrayList<>();
+
+		RecordingCache(int capacity)
+		{
+			super(capacity);
+		}
+
+		@Override
+		protected void onEviction(String key)
+		{
+			this.evicted.add(key);
+		}
+	}
+
+	private static ConcurrentInitializer<String> loader(final String value, final AtomicInteger calls)
+	{
+		return new ConcurrentInitializer<String>()
+		{
+			@Override
+			public String get() throws ConcurrentException
+			{
+				calls.incrementAndGet();
+				return value;
+			}
+		};
+	}
+
+	private static ConcurrentInitializer<String> failingLoader(final AtomicInteger calls)
+	{
+		return new ConcurrentInitializer<String>()
+		{
+			@Override
+			public String get() throws ConcurrentException
+			{
+				calls.incrementAndGet();
+				throw new ConcurrentException(new Exception("Load failed"));
+			}
+		};
+	}
+
+	@Test
+	public void testEvictionOrder()
+	{
+		final RecordingCache cache = new RecordingCache(3);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.put("c", "C");
+		Assert.assertEquals(3, cache.size());
+
+		// Unreferenced entries are evicted in insertion order
+		cache.put("d", "D");
+		Assert.assertEquals(3, cache.size());
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals("B", cache.get("b"));
+
+		// "b" has been read, so it gets a second chance and "c" goes instead
+		cache.put("e", "E");
+		Assert.assertEquals(3, cache.size());
+		Assert.assertNull(cache.get("c"));
+		Assert.assertEquals("B", cache.get("b"));
+		Assert.assertEquals("D", cache.get("d"));
+		Assert.assertEquals("E", cache.get("e"));
+
+		Assert.assertEquals(2, cache.getEvictions());
+		Assert.assertEquals("[a, c]", cache.evicted.toString());
+	}
+
+	@Test
+	public void testReplacedEntriesAreNotCountedTwice()
+	{
+		final RecordingCache cache = new RecordingCache(2);
+		cache.put("a", "A1");
+		cache.put("a", "A2");
+		cache.put("b", "B");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals("A2", cache.get("a"));
+		Assert.assertEquals("B", cache.get("b"));
+		Assert.assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void testPutIfAbsent()
+	{
+		final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10);
+		Assert.assertEquals("A1", cache.putIfAbsent("a", "A1"));
+		Assert.assertEquals("A1", cache.putIfAbsent("a", "A2"));
+		Assert.assertEquals("A1", cache.get("a"));
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testRemove()
+	{
+		final RecordingCache cache = new RecordingCache(2);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.remove("a");
+		cache.remove("missing");
+		Assert.assertEquals(1, cache.size());
+		Assert.assertNull(cache.get("a"));
+
+		// The removed entry's slot is free again, so nothing is evicted
+		cache.put("c", "C");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+
+		// The stale queue entry for "a" is skipped when evicting
+		cache.put("d", "D");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals("[b]", cache.evicted.toString());
+		Assert.assertEquals("C", cache.get("c"));
+		Assert.assertEquals("D", cache.get("d"));
+	}
+
+	@Test
+	public void testLoad()
+	{
+		final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10);
+		final AtomicInteger calls = new AtomicInteger(0);
+		Assert.assertEquals("A", cache.get("a", loader("A", calls)));
+		Assert.assertEquals("A", cache.get("a", loader("X", calls)));
+		Assert.assertEquals(1, calls.get());
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testNullLoadIsNotCached()
+	{
+		final RecordingCache cache = new RecordingCache(3);
+		final AtomicInteger calls = new AtomicInteger(0);
+		cache.put("a", "A");
+		cache.put("b", "B");
+
+		for (int i = 0; i < 5; i++)
+		{
+			Assert.assertNull(cache.get("missing" + i, loader(null, calls)));
+		}
+
+		Assert.assertEquals(5, calls.get());
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+		Assert.assertEquals("A", cache.get("a"));
+		Assert.assertEquals("B", cache.get("b"));
+
+		// A later load of the same key isn't affected by the earlier one
+		Assert.assertEquals("X", cache.get("missing0", loader("X", calls)));
+		Assert.assertEquals("X", cache.get("missing0"));
+		Assert.assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void testFailedLoadIsNotCached()
+	{
+		final RecordingCache cache = new RecordingCache(2);
+		final AtomicInteger calls = new AtomicInteger(0);
+		cache.put("a", "A");
+		cache.put("b", "B");
+
+		for (int i = 0; i < 5; i++)
+		{
+			try
+			{
+				cache.get("broken" + i, failingLoader(calls));
+				Assert.fail("The load should have failed");
+			}
+			catch (ConcurrentRuntimeException e)
+			{
+				// Expected
+			}
+		}
+
+		Assert.assertEquals(5, calls.get());
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+		Assert.assertEquals("A", cache.get("a"));
+		Assert.assertEquals("B", cache.get("b"));
+
+		// Neither putIfAbsent nor a retried load see the failed one
+		Assert.assertEquals("X", cache.putIfAbsent("broken0", "X"));
+		Assert.assertEquals("Y", cache.get("broken1", loader("Y", calls)));
+	}
+
+	@Test
+	public void testConcurrentLoadsAreCoalesced() throws Exception
+	{
+		final BoundedConcurrentCache<String, String> cache = new BoundedConcurrentCache<>(10);
+		final AtomicInteger calls = new AtomicInteger(0);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ConcurrentInitializer<String> slowLoader = new ConcurrentInitializer<String>()
+		{
+			@Override
+			public String get() throws ConcurrentException
+			{
+				calls.incrementAndGet();
+				loading.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					throw new ConcurrentException(e);
+				}
+				return "A";
+			}
+		};
+
+		final List<Thread> threads = new ArrayList<>();
+		final List<String> results = new ArrayList<>();
+		for (int i = 0; i < 4; i++)
+		{
+			final Thread t = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					final String value = cache.get("a", slowLoader);
+					synchronized (results)
+					{
+						results.add(value);
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+
+		loading.await();
+		release.countDown();
+		for (Thread t : threads)
+		{
+			t.join();
+		}
+
+		Assert.assertEquals(1, calls.get());
+		Assert.assertEquals("[A, A, A, A]", results.toString());
+		Assert.assertEquals(1, cache.size());
+	}
+}
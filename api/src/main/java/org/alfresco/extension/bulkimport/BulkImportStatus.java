@@ -39,11 +39,18 @@ public interface BulkImportStatus
     public final static String TARGET_COUNTER_NODES_IMPORTED               = "Nodes imported";
     public final static String TARGET_COUNTER_IN_PLACE_CONTENT_LINKED      = "In place content linked";
     public final static String TARGET_COUNTER_CONTENT_STREAMED             = "Content streamed";
+    public final static String TARGET_COUNTER_CONTENT_STAGED               = "Content staged";
     public final static String TARGET_COUNTER_BYTES_IMPORTED               = "Bytes imported";
     public final static String TARGET_COUNTER_VERSIONS_IMPORTED            = "Versions imported";
     public final static String TARGET_COUNTER_ASPECTS_ASSOCIATED           = "Aspects associated";
     public final static String TARGET_COUNTER_METADATA_PROPERTIES_IMPORTED = "Metadata properties imported";
     public final static String TARGET_COUNTER_NODES_SKIPPED                = "Nodes skipped";
+    public final static String TARGET_COUNTER_PARENT_CACHE_HITS            = "Parent cache hits";
+    public final static String TARGET_COUNTER_PARENT_CACHE_MISSES          = "Parent cache misses";
+    public final static String TARGET_COUNTER_PARENT_CACHE_EVICTIONS       = "Parent cache evictions";
+    public final static String TARGET_COUNTER_ITEMS_DEFERRED               = "Items deferred";
+    public final static String TARGET_COUNTER_DEFERRED_ITEMS_RELEASED      = "Deferred items released";
+    public final static String TARGET_COUNTER_BATCHES_SPLIT                = "Batches split";
 
 
     public final static String[] DEFAULT_TARGET_COUNTERS = { TARGET_COUNTER_BATCHES_SUBMITTED,
@@ -51,11 +58,18 @@ public interface BulkImportStatus
                                                              TARGET_COUNTER_NODES_IMPORTED,
                                                              TARGET_COUNTER_IN_PLACE_CONTENT_LINKED,
                                                              TARGET_COUNTER_CONTENT_STREAMED,
+                                                             TARGET_COUNTER_CONTENT_STAGED,
                                                              TARGET_COUNTER_BYTES_IMPORTED,
                                                              TARGET_COUNTER_VERSIONS_IMPORTED,
                                                              TARGET_COUNTER_ASPECTS_ASSOCIATED,
                                                              TARGET_COUNTER_METADATA_PROPERTIES_IMPORTED,
-                                                             TARGET_COUNTER_NODES_SKIPPED };
+                                                             TARGET_COUNTER_NODES_SKIPPED,
+                                                             TARGET_COUNTER_PARENT_CACHE_HITS,
+                                                             TARGET_COUNTER_PARENT_CACHE_MISSES,
+                                                             TARGET_COUNTER_PARENT_CACHE_EVICTIONS,
+                                                             TARGET_COUNTER_ITEMS_DEFERRED,
+                                                             TARGET_COUNTER_DEFERRED_ITEMS_RELEASED,
+                                                             TARGET_COUNTER_BATCHES_SPLIT };
 
     /**
      * @return The userId of the person who initiatied the import <i>(will be null if an import has never been run)</i>.
@@ -169,10 +183,32 @@ public interface BulkImportStatus
     Collection<BulkImportErrorInfo> getErrorInfo();
 
     /**
-     * @return The batch weight used for the last import. Result is undefined if <code>neverRun()</code> is true.
+     * @return The current batch weight (which may be adjusted during an import, to hold batch durations near a target), or the final
+     * batch weight of the last import. Result is undefined if <code>neverRun()</code> is true.
      */
     long getBatchWeight();
 
+    /**
+     * @return The duration, in nanoseconds, of the most recently completed batch <i>(will be null if no batches have completed)</i>.
+     */
+    Long getLastBatchDurationInNs();
+
+    /**
+     * @return The duration, in a human-readable textual representation, of the most recently completed batch <i>(will be null if no batches have completed)</i>.
+     */
+    String getLastBatchDuration();
+
+    /**
+     * @return A human-readable description of the most recent adjustment to the batch weight <i>(will be null if the batch weight hasn't been adjusted)</i>.
+     */
+    String getLastBatchWeightAdjustment();
+
+    /**
+     * @return The changes made to the size of the import thread pool during the current (or last) import, oldest first.
+     * Only the most recent changes are retained.
+     */
+    Collection<BulkImportThreadPoolSizeChange> getThreadPoolSizeHistory();
+
     /**
      * @return The number of queued batches, waiting for an available worker thread (0 if an import isn't in progress, or if the multi-threaded phase hasn't been reached).
      */
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2007-2016 Peter Monks.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This file is part of an unsupported extension to Alfresco.
+ *
+ */
+
+package org.alfresco.extension.bulkimport;
+
+import java.util.Date;
+
+import org.apache.commons.lang3.time.DateFormatUtils;
+
+
+/**
+ * A single entry in the history of the import thread pool's size, as tuned during an import.
+ *
+ * Instances are immutable, and so are thread safe.
+ */
+public final class BulkImportThreadPoolSizeChange
+{
+    private final Date   timeStamp;
+    private final int    threadPoolSize;
+    private final float  itemsPerSecond;
+    private final String reason;
+
+
+    /**
+     * @param timeStamp      When the change was made <i>(may be null, meaning now)</i>.
+     * @param threadPoolSize The size of the thread pool from this point on <i>(must be &gt; 0)</i>.
+     * @param itemsPerSecond The throughput observed just before the change.
+     * @param reason         Why the change was made <i>(must not be null)</i>.
+     */
+    public BulkImportThreadPoolSizeChange(final Date   timeStamp,
+                                          final int    threadPoolSize,
+                                          final float  itemsPerSecond,
+                                          final String reason)
+    {
+        // PRECONDITIONS
+        if (threadPoolSize <= 0) throw new IllegalArgumentException("threadPoolSize must be > 0.");
+        if (reason == null)      throw new IllegalArgumentException("reason must not be null.");
+
+        // Body
+        this.timeStamp      = timeStamp == null ? new Date() : timeStamp;
+        this.threadPoolSize = threadPoolSize;
+        this.itemsPerSecond = itemsPerSecond;
+        this.reason         = reason;
+    }
+
+
+    /**
+     * @see #BulkImportThreadPoolSizeChange(Date, int, float, String)
+     */
+    public BulkImportThreadPoolSizeChange(final int    threadPoolSize,
+                                          final float  itemsPerSecond,
+                                          final String reason)
+    {
+        this(null, threadPoolSize, itemsPerSecond, reason);
+    }
+
+
+    /**
+     * @return When the change was made <i>(will not be null)</i>.
+     */
+    public Date getTimeStamp()
+    {
+        return(timeStamp);
+    }
+
+
+    /**
+     * @return When the change was made, in ISO 8601 format <i>(will not be null)</i>.
+     */
+    public String getTimeStampStr()
+    {
+        return(DateFormatUtils.ISO_DATETIME_TIME_ZONE_FORMAT.format(timeStamp));
+    }
+
+
+    /**
+     * @return The size of the thread pool from this point on.
+     */
+    public int getThreadPoolSize()
+    {
+        return(threadPoolSize);
+    }
+
+
+    /**
+     * @return The throughput (in items imported per second) observed just before the change.
+     */
+    public float getItemsPerSecond()
+    {
+        return(itemsPerSecond);
+    }
+
+
+    /**
+     * @return Why the change was made <i>(will not be null)</i>.
+     */
+    public String getReason()
+    {
+        return(reason);
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return(String.format("%s: %d thread(s) (%.3f items/sec) - %s", getTimeStampStr(), threadPoolSize, itemsPerSecond, reason));
+    }
+
+}